@@ -26,9 +26,10 @@ import org.digitalstain.datrie.store.IntegerList;
 /**
  * Implementation of the base algorithms for building and
  * traversing a double array trie. Storage details
- * are left for implementation by extending classes,
- * as well as management of events for maintaining
- * information about stored strings.
+ * are left for implementation by extending classes.
+ * Events for maintaining information about stored
+ * strings are forwarded to the TrieListeners registered
+ * with addListener().
  * <br>
  * The assumption is however that there exist two
  * discreet, indexable, mutable structures that
@@ -50,6 +51,13 @@ public abstract class AbstractDoubleArrayTrie {
 	// The alphabet length
 	protected final int alphabetLength;
 
+	/*
+	 * The registered listener, a CompositeTrieListener if there are many,
+	 * null if there are none. Every event costs a single null check when
+	 * nothing listens.
+	 */
+	private TrieListener listener;
+
 	/**
 	 * Constructs a DoubleArrayTrie for the given alphabet length.
 	 *  
@@ -60,6 +68,68 @@ public abstract class AbstractDoubleArrayTrie {
 		this.alphabetLength = alphabetLength;
 	}
 
+	/**
+	 * Registers <tt>listener</tt> to receive the events of this trie,
+	 * after the listeners already registered. Listeners should be
+	 * registered before the trie is shared between threads.
+	 * 
+	 * @param listener The listener to add
+	 */
+	public void addListener(TrieListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Null listener");
+		}
+		if (this.listener == null) {
+			this.listener = listener;
+			return;
+		}
+		TrieListener[] current = listeners();
+		TrieListener[] updated = new TrieListener[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = listener;
+		this.listener = new CompositeTrieListener(updated);
+	}
+
+	/**
+	 * Stops sending events to <tt>listener</tt>.
+	 * 
+	 * @param listener The listener to remove
+	 * @return false if it was not registered
+	 */
+	public boolean removeListener(TrieListener listener) {
+		TrieListener[] current = listeners();
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				TrieListener[] updated = new TrieListener[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				this.listener = updated.length == 0 ? null
+						: updated.length == 1 ? updated[0] : new CompositeTrieListener(updated);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if any listener is registered. Implementations that
+	 * answer searches without walking the trie can use this to fall back
+	 * to the walk when the events are observed.
+	 */
+	protected boolean hasListeners() {
+		return listener != null;
+	}
+
+	private TrieListener[] listeners() {
+		if (listener == null) {
+			return new TrieListener[0];
+		}
+		if (listener instanceof CompositeTrieListener) {
+			return ((CompositeTrieListener) listener).getListeners();
+		}
+		return new TrieListener[] { listener };
+	}
+
 	/**
 	 * Adds this string to the trie.
 	 * 
@@ -95,7 +165,7 @@ public abstract class AbstractDoubleArrayTrie {
 					changed = true;
 				}
 				else {
-					setBase(transition, nextAvailableHop(string.get(i + 1))); // Add a state
+					setBase(transition, nextAvailableHop(transition, string.get(i + 1))); // Add a state
 					changed = true;
 				}
 			}
@@ -120,6 +190,9 @@ public abstract class AbstractDoubleArrayTrie {
 			state = transition;
 			i++;
 		}
+		if (listener != null) {
+			listener.insertFinished(string, changed);
+		}
 		return changed;
 	}
 
@@ -151,7 +224,7 @@ public abstract class AbstractDoubleArrayTrie {
 		}
 
 		// Find a place to move them.
-		int newLocation = nextAvailableMove(values);
+		int newLocation = nextAvailableMove(s, values);
 
 		// newValue is not yet a child of s, so we should not check for it.
 		values.remove(new Integer(newValue));
@@ -216,10 +289,15 @@ public abstract class AbstractDoubleArrayTrie {
 						break;
 					}
 				}
-				// Finally, free the position held by this child of s
-				setBase(getBase(s) + c, EMPTY_VALUE);
-				setCheck(getBase(s) + c, EMPTY_VALUE);
 			}
+			/*
+			 * Finally, free the position held by this child of s. This must
+			 * happen for leaves too, otherwise the old cell keeps claiming s
+			 * as its owner and a later child of s landing there would be
+			 * mistaken for an existing transition.
+			 */
+			setBase(getBase(s) + c, EMPTY_VALUE);
+			setCheck(getBase(s) + c, EMPTY_VALUE);
 		}
 		// Here, all children and grandchildren (if existent) of s have been
 		// moved or updated. That which remains is for the state s to show
@@ -229,7 +307,9 @@ public abstract class AbstractDoubleArrayTrie {
 	}
 
 	public SearchResult containsPrefix(IntegerList prefix) {
-		return runPrefix(prefix).result;
+		SearchState state = runPrefix(prefix);
+		updateSearchFinished(prefix, state.getDepth(), state.result);
+		return state.result;
 	}
 
 	/**
@@ -242,9 +322,25 @@ public abstract class AbstractDoubleArrayTrie {
 	 * @return The result of the search
 	 */
 	protected SearchState runPrefix(IntegerList prefix) {
-		int state		= 0; // The current DFA state ordinal
+		return runPrefix(prefix, 0, 0);
+	}
+
+	/**
+	 * Walks <tt>prefix</tt> on the trie as runPrefix(IntegerList) does, but
+	 * starting from <tt>fromState</tt> with the first <tt>fromIndex</tt>
+	 * characters already consumed. This lets callers that know where a
+	 * prefix of the string leads skip the upper levels of the walk.
+	 * 
+	 * @param prefix The string to walk on the trie
+	 * @param fromState The state reached with the first fromIndex characters,
+	 * 			which must not be a leaf
+	 * @param fromIndex The number of characters already consumed
+	 * @return The result of the search
+	 */
+	protected SearchState runPrefix(IntegerList prefix, int fromState, int fromIndex) {
+		int state		= fromState; // The current DFA state ordinal
 		int transition	= 0; // The candidate for the transition end state
-		int i			= 0; // The input string index
+		int i			= fromIndex; // The input string index
 		int current		= 0; // The current input character
 		SearchState result = new SearchState();  // The search result
 		result.prefix = prefix;
@@ -284,31 +380,121 @@ public abstract class AbstractDoubleArrayTrie {
 		return result;
 	}
 
+	/**
+	 * Finds the prefixes of <tt>string</tt> that are keys, shortest first.
+	 * For tries that end every key with a terminator symbol, a prefix of
+	 * length n is reported when its first n symbols followed by
+	 * <tt>terminator</tt> are a key; without one, keys cannot be prefixes
+	 * of each other and at most the one key <tt>string</tt> starts with is
+	 * reported. This does not fire search events.
+	 *
+	 * @param string The string whose prefixes to look up
+	 * @param terminator The symbol every key ends with, -1 for none
+	 * @param lengths Receives the length of every prefix found, without
+	 * 			the terminator
+	 * @return The number of prefixes found
+	 */
+	public int commonPrefixSearch(IntegerList string, int terminator, IntegerList lengths) {
+		int found = 0;
+		int state = 0;
+		for (int i = 0; ; i++) {
+			if (terminator >= 0) {
+				int end = getChild(state, terminator);
+				if (end >= 0 && getBase(end) == LEAF_BASE_VALUE) {
+					lengths.add(i);
+					found++;
+				}
+			}
+			if (i == string.size()) {
+				break;
+			}
+			int symbol = string.get(i);
+			if (symbol < 0 || symbol >= alphabetLength) {
+				break;
+			}
+			state = getChild(state, symbol);
+			if (state < 0) {
+				break;
+			}
+			if (getBase(state) == LEAF_BASE_VALUE) {
+				if (terminator < 0) {
+					lengths.add(i + 1);
+					found++;
+				}
+				break;
+			}
+		}
+		return found;
+	}
+
 	public int getAlphabetSize() {
 		return alphabetLength;
 	}
 
-	// Event management methods. Delegated to subclasses.
+	/**
+	 * Returns the state reached from <tt>state</tt> with <tt>symbol</tt>,
+	 * without notifying for the transition. Leaves have no children.
+	 *
+	 * @param state The index in the base array of the parent state
+	 * @param symbol The input character, within the alphabet
+	 * @return The index of the child state, -1 if there is no such transition
+	 */
+	protected int getChild(int state, int symbol) {
+		int stateBase = getBase(state);
+		if (stateBase < 0) {
+			return -1;
+		}
+		int transition = stateBase + symbol;
+		if (transition < getSize() && getCheck(transition) == state) {
+			return transition;
+		}
+		return -1;
+	}
+
+	// Event management methods. Forwarded to the registered listeners.
 
 	/**
 	 * For every state transition during an insertion, this method is called to 
-	 * inform implementations of the fact and do their housekeeping.
+	 * inform the listeners of the fact.
 	 * 
 	 * @param state The index in the base array the transition is at
 	 * @param stringIndex The index of the inserted string for which the event occurred
 	 * @param insertString The inserted string 
 	 */
-	protected abstract void updateInsert(int state, int stringIndex, IntegerList insertString);
+	protected void updateInsert(int state, int stringIndex, IntegerList insertString) {
+		if (listener != null) {
+			listener.insertTransition(state, stringIndex, insertString);
+		}
+	}
 
 	/**
 	 * For every state transition during a search, this method is called to 
-	 * inform implementations of the fact and do their housekeeping.
+	 * inform the listeners of the fact.
 	 * 
 	 * @param state The index in the base array the transition is at
 	 * @param stringIndex The index of the search string for which the event occurred
 	 * @param searchString The search string 
 	 */
-	protected abstract void updateSearch(int state, int stringIndex, IntegerList searchString);
+	protected void updateSearch(int state, int stringIndex, IntegerList searchString) {
+		if (listener != null) {
+			listener.searchTransition(state, stringIndex, searchString);
+		}
+	}
+
+	/**
+	 * After a search completes, this method is called to inform the
+	 * listeners of its outcome. Implementations that answer searches
+	 * without walking the trie must call it as well.
+	 * 
+	 * @param searchString The search string
+	 * @param depth The number of characters consumed
+	 * @param result The result of the search
+	 */
+	protected void updateSearchFinished(IntegerList searchString, int depth, SearchResult result) {
+		if (listener != null) {
+			listener.searchFinished(searchString, depth, result);
+		}
+	}
 
 	/**
 	 * After a state conflict, each children of the parent state is moved to a
@@ -321,7 +507,11 @@ public abstract class AbstractDoubleArrayTrie {
 	 * @param forCharacter The character leading to this child from the parent.
 	 * @param newParentBase The new parent base value
 	 */
-	protected abstract void updateChildMove(int parentIndex, int forCharacter, int newParentBase);
+	protected void updateChildMove(int parentIndex, int forCharacter, int newParentBase) {
+		if (listener != null) {
+			listener.childMoved(parentIndex, forCharacter, getBase(parentIndex), newParentBase);
+		}
+	}
 
 	/**
 	 * After a state conflict and after the moved state's children have been themselves moved,
@@ -331,7 +521,11 @@ public abstract class AbstractDoubleArrayTrie {
 	 * @param stateIndex The index of the state whose base is changed
 	 * @param newBase The new base value for the state
 	 */
-	protected abstract void updateStateMove(int stateIndex, int newBase);
+	protected void updateStateMove(int stateIndex, int newBase) {
+		if (listener != null) {
+			listener.stateMoved(stateIndex, newBase);
+		}
+	}
 	
 	// Storage management methods. Delegated to subclasses.
 
@@ -397,6 +591,31 @@ public abstract class AbstractDoubleArrayTrie {
 	 * @return Where the state must be moved to accommodate it's children.
 	 */
 	protected abstract int nextAvailableMove(SortedSet<Integer> values);
+
+	/**
+	 * Finds the base of the new state <tt>state</tt>, whose check is
+	 * already set. Implementations that place states by where they are in
+	 * the trie override this; by default it is nextAvailableHop(forValue).
+	 *
+	 * @param state The index of the new state
+	 * @param forValue The symbol of its first child
+	 * @return The base for the state
+	 */
+	protected int nextAvailableHop(int state, int forValue) {
+		return nextAvailableHop(forValue);
+	}
+
+	/**
+	 * Finds where the children of <tt>state</tt> must be moved. By
+	 * default it is nextAvailableMove(values).
+	 *
+	 * @param state The state whose children move
+	 * @param values The children of the state, with the one to add
+	 * @return The new base of the state
+	 */
+	protected int nextAvailableMove(int state, SortedSet<Integer> values) {
+		return nextAvailableMove(values);
+	}
 	
 	/**
 	 * Ensures that the size of the backing store is enough to
@@ -440,5 +659,14 @@ public abstract class AbstractDoubleArrayTrie {
 		 * the other fields of this class.
 		 */
 		protected SearchResult result;
+
+		/**
+		 * Returns the number of characters of the prefix consumed by the
+		 * search. A perfect match ends on the index of its last character,
+		 * which is consumed as well.
+		 */
+		protected int getDepth() {
+			return result == SearchResult.PERFECT_MATCH ? index + 1 : index;
+		}
 	}
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * An Aho-Corasick automaton over the keys of a double array trie, for
+ * finding every occurrence of every key in a text in a single pass.
+ * <br>
+ * The goto function is the base/check transition of the trie itself. Two
+ * more arrays, parallel to base and check, hold for every state the
+ * failure link (the state of the longest proper suffix of its path that
+ * is also a path in the trie) and the output link (the nearest output
+ * state along the failure chain). Scanning therefore costs amortized O(1) per
+ * text symbol plus O(1) per reported match, regardless of the number
+ * of patterns.
+ * <br>
+ * The patterns of a trie are its keys, whose states are the leaves. Since
+ * the trie is prefix free, a pattern that is a prefix of another, such as
+ * "he" and "hers", can only be loaded by ending every key with a
+ * terminator symbol. The automaton is then built with that terminator:
+ * the patterns are the keys without it, and the states with a terminator
+ * child are the outputs.
+ * <br>
+ * The automaton works on a copy of the arrays of the trie taken at
+ * construction, so later changes to the trie are not seen by it.
+ * Scanning does not modify the automaton and may happen from many
+ * threads at once.
+ */
+public class AhoCorasickAutomaton {
+
+	/**
+	 * Returned from scan() when the handler asked to stop.
+	 */
+	public static final int STOPPED = -1;
+
+	/**
+	 * The state every scan of a new text starts from.
+	 */
+	public static final int ROOT_STATE = 0;
+
+	// Marks states with no output on their failure chain
+	private static final int NO_OUTPUT = -1;
+
+	private final int alphabetLength;
+	// The symbol ending every key, or -1 if keys end at leaves
+	private final int terminator;
+	private final int[] base;
+	private final int[] check;
+	private final int[] fail;
+	private final int[] output;
+
+	/**
+	 * Builds the automaton for the keys currently in <tt>trie</tt>.
+	 * Takes O(size of trie) time and memory.
+	 *
+	 * @param trie The trie holding the patterns
+	 */
+	public AhoCorasickAutomaton(AbstractDoubleArrayTrie trie) {
+		this(trie, -1);
+	}
+
+	/**
+	 * Builds the automaton for the keys currently in <tt>trie</tt>, every
+	 * one of which ends with <tt>terminator</tt>. The patterns are the
+	 * keys without it, so they may be prefixes of each other. Texts are
+	 * not expected to contain the terminator, which never takes part in
+	 * a match.
+	 *
+	 * @param trie The trie holding the patterns
+	 * @param terminator The symbol every key ends with, or -1 if the
+	 * 			patterns are the keys themselves
+	 */
+	public AhoCorasickAutomaton(AbstractDoubleArrayTrie trie, int terminator) {
+		alphabetLength = trie.getAlphabetSize();
+		if (terminator < -1 || terminator >= alphabetLength) {
+			throw new IllegalArgumentException("Terminator " + terminator + " out of the alphabet");
+		}
+		this.terminator = terminator;
+		int size = trie.getSize();
+		base = new int[size];
+		check = new int[size];
+		for (int i = 0; i < size; i++) {
+			base[i] = trie.getBase(i);
+			check[i] = trie.getCheck(i);
+		}
+		fail = new int[size];
+		output = new int[size];
+		Arrays.fill(output, NO_OUTPUT);
+		buildLinks();
+	}
+
+	/**
+	 * Computes failure and output links breadth first, so that the links of
+	 * every state are known before those of its children. Children are found
+	 * through a single pass over the check array instead of probing the whole
+	 * alphabet at every state, which matters for large alphabets.
+	 */
+	private void buildLinks() {
+		int size = base.length;
+		// Children of every state, in compressed row form
+		int[] childStart = new int[size + 1];
+		for (int t = 1; t < size; t++) {
+			if (isChild(t)) {
+				childStart[check[t] + 1]++;
+			}
+		}
+		for (int s = 0; s < size; s++) {
+			childStart[s + 1] += childStart[s];
+		}
+		int[] children = new int[childStart[size]];
+		int[] fill = Arrays.copyOf(childStart, size);
+		for (int t = 1; t < size; t++) {
+			if (isChild(t)) {
+				children[fill[check[t]]++] = t;
+			}
+		}
+		fill = null;
+
+		int[] queue = new int[children.length + 1];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = ROOT_STATE;
+		fail[ROOT_STATE] = ROOT_STATE;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int i = childStart[state]; i < childStart[state + 1]; i++) {
+				int child = children[i];
+				int symbol = child - base[state];
+				int link = ROOT_STATE;
+				if (state != ROOT_STATE) {
+					// Follow the failure chain of the parent until a state can take the symbol
+					int candidate = fail[state];
+					int next = transition(candidate, symbol);
+					while (next < 0 && candidate != ROOT_STATE) {
+						candidate = fail[candidate];
+						next = transition(candidate, symbol);
+					}
+					if (next >= 0) {
+						link = next;
+					}
+				}
+				fail[child] = link;
+				output[child] = isOutput(link) ? link : output[link];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * A cell is a real child of its check value only if the symbol leading
+	 * to it is within the alphabet. Free cells and the root fail this.
+	 */
+	private boolean isChild(int cell) {
+		int parent = check[cell];
+		if (parent < 0 || parent >= base.length || base[parent] < 0) {
+			return false;
+		}
+		int symbol = cell - base[parent];
+		return symbol >= 0 && symbol < alphabetLength;
+	}
+
+	private int transition(int state, int symbol) {
+		int next = base[state] + symbol;
+		if (base[state] >= 0 && next < check.length && check[next] == state) {
+			return next;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells whether the path to <tt>state</tt> is a pattern: a key, or a
+	 * key without its terminator.
+	 */
+	private boolean isOutput(int state) {
+		if (terminator < 0) {
+			return base[state] == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+		}
+		return state != ROOT_STATE && transition(state, terminator) >= 0;
+	}
+
+	/**
+	 * Returns the id under which matches of <tt>key</tt> are reported,
+	 * or -1 if <tt>key</tt> is not a pattern of this automaton. With a
+	 * terminator, the pattern is given without it. Ids are
+	 * less than getPatternIdBound(), so they can index side arrays.
+	 *
+	 * @param key The pattern
+	 * @return The id of the pattern, -1 if it is not present
+	 */
+	public int getPatternId(IntegerList key) {
+		int state = ROOT_STATE;
+		for (int i = 0; i < key.size(); i++) {
+			int symbol = key.get(i);
+			if (symbol < 0 || symbol >= alphabetLength || symbol == terminator) {
+				return -1;
+			}
+			state = transition(state, symbol);
+			if (state < 0) {
+				return -1;
+			}
+		}
+		return isOutput(state) ? state : -1;
+	}
+
+	/**
+	 * Returns an upper bound, exclusive, for pattern ids.
+	 *
+	 * @return The greatest pattern id plus one
+	 */
+	public int getPatternIdBound() {
+		return base.length;
+	}
+
+	/**
+	 * Reports every pattern occurring in <tt>text</tt>.
+	 *
+	 * @param text The text to scan
+	 * @param handler The receiver of the matches
+	 * @return The state at the end of the text, or STOPPED
+	 */
+	public int scan(IntegerList text, PatternMatchHandler handler) {
+		return scan(text, 0, text.size(), ROOT_STATE, handler);
+	}
+
+	/**
+	 * Reports every pattern ending within <tt>[from, to)</tt> of
+	 * <tt>text</tt>, starting in <tt>state</tt>. Text that arrives in
+	 * chunks is scanned by passing the returned state to the scan of
+	 * the next chunk, so matches spanning chunks are found as well.
+	 * Symbols outside the alphabet and the terminator never take part in
+	 * a match.
+	 *
+	 * @param text The text to scan
+	 * @param from The first index to scan
+	 * @param to One past the last index to scan
+	 * @param state The state to start from, ROOT_STATE for a new text
+	 * @param handler The receiver of the matches
+	 * @return The state to continue from, or STOPPED if the handler
+	 * 			asked to stop
+	 */
+	public int scan(IntegerList text, int from, int to, int state, PatternMatchHandler handler) {
+		for (int i = from; i < to; i++) {
+			int symbol = text.get(i);
+			if (symbol < 0 || symbol >= alphabetLength || symbol == terminator) {
+				state = ROOT_STATE;
+				continue;
+			}
+			int next = transition(state, symbol);
+			while (next < 0 && state != ROOT_STATE) {
+				state = fail[state];
+				next = transition(state, symbol);
+			}
+			if (next < 0) {
+				continue;
+			}
+			state = next;
+			if (isOutput(state) && !handler.match(state, i)) {
+				return STOPPED;
+			}
+			for (int out = output[state]; out != NO_OUTPUT; out = output[out]) {
+				if (!handler.match(out, i)) {
+					return STOPPED;
+				}
+			}
+		}
+		return state;
+	}
+}
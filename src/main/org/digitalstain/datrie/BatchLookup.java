@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.List;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Looks up many keys on a frozen trie at once, advancing them in lockstep.
+ * <br>
+ * A single lookup is a chain of dependent loads: the base of a state gives
+ * the cell of its child, whose check must be read before going on, so the
+ * processor mostly waits for memory. Walking several keys together, one
+ * step of every key per round, gives it independent loads to overlap. The
+ * keys are kept in a fixed number of lanes; when a key finishes, the next
+ * one from the batch takes over its lane, so lanes do not sit idle while
+ * longer keys finish.
+ * <br>
+ * This pays when the arrays are much larger than the caches, so that most
+ * steps miss them; TrieBenchmark shows such a workload. On a trie that
+ * fits in the caches the lanes cost more than they save, and a plain
+ * containsPrefix() is as fast or faster.
+ * <br>
+ * Instances hold the lane state and are not thread safe; use one per
+ * thread. The results are the same as those of containsPrefix().
+ */
+public class BatchLookup {
+
+	/**
+	 * The default number of keys walked together.
+	 */
+	public static final int DEFAULT_LANES = 8;
+
+	private final int[] base;
+	private final int[] check;
+	private final int alphabetLength;
+
+	// Per lane: the index of the key in the batch, the state and the position
+	private final int[] laneKey;
+	private final int[] laneState;
+	private final int[] lanePosition;
+
+	public BatchLookup(FrozenDoubleArrayTrie trie) {
+		this(trie, DEFAULT_LANES);
+	}
+
+	/**
+	 * @param trie The trie to search
+	 * @param lanes The number of keys to walk together
+	 */
+	public BatchLookup(FrozenDoubleArrayTrie trie, int lanes) {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("Invalid number of lanes " + lanes);
+		}
+		this.base = trie.base;
+		this.check = trie.check;
+		this.alphabetLength = trie.getAlphabetSize();
+		this.laneKey = new int[lanes];
+		this.laneState = new int[lanes];
+		this.lanePosition = new int[lanes];
+	}
+
+	/**
+	 * Looks up every key of <tt>keys</tt>.
+	 *
+	 * @param keys The keys to look up
+	 * @param results Receives the result for keys.get(i) at index i
+	 * @return The number of perfect matches
+	 */
+	public int lookup(List<IntegerList> keys, SearchResult[] results) {
+		return lookup(keys, 0, keys.size(), results);
+	}
+
+	/**
+	 * Looks up the keys from index <tt>from</tt> up to <tt>to</tt>
+	 * of <tt>keys</tt>.
+	 *
+	 * @param keys The keys to look up
+	 * @param from The index of the first key
+	 * @param to One past the index of the last key
+	 * @param results Receives the result for keys.get(i) at index i
+	 * @return The number of perfect matches
+	 */
+	public int lookup(List<IntegerList> keys, int from, int to, SearchResult[] results) {
+		int lanes = laneKey.length;
+		int next = from;
+		int active = 0;
+		int found = 0;
+		// Fill the lanes
+		for (int lane = 0; lane < lanes; lane++) {
+			next = fill(lane, keys, next, to, results);
+			if (laneKey[lane] >= 0) {
+				active++;
+			}
+		}
+		while (active > 0) {
+			for (int lane = 0; lane < lanes; lane++) {
+				int keyIndex = laneKey[lane];
+				if (keyIndex < 0) {
+					continue;
+				}
+				IntegerList key = keys.get(keyIndex);
+				int state = laneState[lane];
+				int position = lanePosition[lane];
+				int symbol = key.get(position);
+				int transition = base[state] + symbol;
+				SearchResult result = null;
+				if (symbol < 0 || symbol >= alphabetLength || transition >= check.length
+						|| check[transition] != state) {
+					result = SearchResult.NOT_FOUND;
+				} else if (base[transition] == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+					if (position == key.size() - 1) {
+						result = SearchResult.PERFECT_MATCH;
+						found++;
+					} else {
+						result = SearchResult.NOT_FOUND;
+					}
+				} else if (position == key.size() - 1) {
+					result = SearchResult.PURE_PREFIX;
+				} else {
+					laneState[lane] = transition;
+					lanePosition[lane] = position + 1;
+					continue;
+				}
+				// The key is done, hand the lane to the next one
+				results[keyIndex] = result;
+				next = fill(lane, keys, next, to, results);
+				if (laneKey[lane] < 0) {
+					active--;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Puts the next key that needs walking in <tt>lane</tt>, answering
+	 * empty keys on the way, and returns the index after it. The lane is
+	 * left empty when the batch is exhausted.
+	 */
+	private int fill(int lane, List<IntegerList> keys, int next, int to, SearchResult[] results) {
+		while (next < to && keys.get(next).size() == 0) {
+			results[next++] = SearchResult.PURE_PREFIX;
+		}
+		if (next == to) {
+			laneKey[lane] = -1;
+			return next;
+		}
+		laneKey[lane] = next;
+		laneState[lane] = 0;
+		lanePosition[lane] = 0;
+		return next + 1;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.SortedSet;
+
+/**
+ * Packs states into the tightest holes of the arrays.
+ * <br>
+ * Children that move only need their own cells free, not the whole span
+ * of their symbols, and among the bases where they fit the one that leaves
+ * the fewest free cells within the span wins, so that sparse families
+ * interleave with others and long free runs stay whole for large ones. A
+ * new state goes to the free cell with the fewest free neighbours after
+ * it. Only the first <tt>window</tt> free positions are considered, which
+ * bounds the cost of a placement; when nothing fits there the children go
+ * after the end of the arrays.
+ * <br>
+ * The arrays end up denser than with first fit, but a state packed into a
+ * hole collides as soon as it grows, so relocations are more frequent.
+ */
+public class BestFitPolicy implements PlacementPolicy {
+
+	/**
+	 * The default number of free positions considered per placement.
+	 */
+	public static final int DEFAULT_WINDOW = 256;
+
+	// Free runs longer than this are all equally good for a single child
+	private static final int MAX_RUN = 8;
+
+	private final int window;
+
+	public BestFitPolicy() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window The number of free positions considered per placement
+	 */
+	public BestFitPolicy(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Invalid window " + window);
+		}
+		this.window = window;
+	}
+
+	public int placeState(Cells cells, int state, int symbol) {
+		int best = -1;
+		int bestRun = Integer.MAX_VALUE;
+		int position = cells.higherFree(symbol);
+		for (int seen = 0; position >= 0 && seen < window && bestRun > 1; seen++) {
+			int run = 1;
+			while (run < MAX_RUN && cells.isFree(position + run)) {
+				run++;
+			}
+			if (run < bestRun) {
+				best = position;
+				bestRun = run;
+			}
+			position = cells.higherFree(position);
+		}
+		if (best < 0) {
+			best = Math.max(cells.getSize(), symbol + 1);
+			cells.ensureReachableIndex(best);
+		}
+		return best - symbol;
+	}
+
+	public int placeChildren(Cells cells, int state, SortedSet<Integer> symbols) {
+		if (symbols.size() == 1) {
+			return placeState(cells, state, symbols.first());
+		}
+		int minValue = symbols.first();
+		int maxValue = symbols.last();
+		int best = -1;
+		int bestSlack = Integer.MAX_VALUE;
+		int position = cells.higherFree(minValue);
+		for (int seen = 0; position >= 0 && seen < window && bestSlack > 0; seen++) {
+			int base = position - minValue;
+			if (fits(cells, base, symbols)) {
+				int slack = 0;
+				for (int cell = base + minValue; cell <= base + maxValue; cell++) {
+					if (cells.isFree(cell)) {
+						slack++;
+					}
+				}
+				slack -= symbols.size();
+				if (slack < bestSlack) {
+					best = base;
+					bestSlack = slack;
+				}
+			}
+			position = cells.higherFree(position);
+		}
+		if (best < 0) {
+			best = Math.max(cells.getSize() - minValue, 1);
+		}
+		cells.ensureReachableIndex(best + maxValue);
+		return best;
+	}
+
+	private static boolean fits(Cells cells, int base, SortedSet<Integer> symbols) {
+		for (Integer symbol : symbols) {
+			if (!cells.isFree(base + symbol.intValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A dictionary for heavy ingestion that keeps conflict resolution off the
+ * inserting thread.
+ * <br>
+ * New keys go into a write buffer, a concurrent skip list, and cost a
+ * search of it and of the double array, but never a relocation. Once the
+ * buffer holds <tt>mergeThreshold</tt> keys it is sealed and handed to
+ * the executor, which merges it with the keys of the current trie into a
+ * new FrozenDoubleArrayTrie. The keys of both come out sorted, so the
+ * merge is a single pass into a SortedTrieBuilder, which places every
+ * state once. The new trie then replaces the old one together with the
+ * sealed buffer in one step. Meanwhile insertions go on into a fresh
+ * buffer and lookups consult the trie and both buffers, so a key is
+ * visible from the moment addToTrie() returns.
+ * <br>
+ * Only one merge runs at a time. If the fresh buffer fills up before it
+ * ends, it keeps growing and is merged next; insertions are never held
+ * back, so if merges fall behind the buffer grows without bound. Every
+ * merge rebuilds the trie from all its keys, so ingesting N keys costs
+ * O(N<sup>2</sup> / mergeThreshold) in merges; the threshold should grow
+ * with the expected number of keys. Lookups take no locks and
+ * may run from any number of threads; insertions are serialized on the
+ * instance. Keys must be prefix free, as for any trie, and since a merge
+ * could not go on otherwise this is checked on insertion.
+ */
+public class BufferedTrie {
+
+	/**
+	 * Orders keys lexicographically by symbol, as KeyCursor lists them.
+	 */
+	private static final Comparator<int[]> ORDER = new Comparator<int[]>() {
+		public int compare(int[] first, int[] second) {
+			int length = Math.min(first.length, second.length);
+			for (int i = 0; i < length; i++) {
+				if (first[i] != second[i]) {
+					return first[i] < second[i] ? -1 : 1;
+				}
+			}
+			return first.length - second.length;
+		}
+	};
+
+	/**
+	 * What lookups consult, replaced as a whole.
+	 */
+	private static final class Generation {
+
+		final FrozenDoubleArrayTrie trie;
+		// The buffer being merged into the next trie, or null
+		final NavigableSet<int[]> sealed;
+		final NavigableSet<int[]> buffer;
+
+		Generation(FrozenDoubleArrayTrie trie, NavigableSet<int[]> sealed, NavigableSet<int[]> buffer) {
+			this.trie = trie;
+			this.sealed = sealed;
+			this.buffer = buffer;
+		}
+	}
+
+	private final int alphabetLength;
+	private final int mergeThreshold;
+	private final Executor executor;
+
+	private volatile Generation current;
+	// Guarded by this
+	private int buffered;
+	private boolean merging;
+	private long merges;
+	private long mergeNanos;
+	private RuntimeException failure;
+
+	/**
+	 * Constructs an empty instance.
+	 *
+	 * @param alphabetLength The size of the alphabet
+	 * @param mergeThreshold The number of buffered keys that starts a merge
+	 * @param executor Runs the merges, or null to run them on the
+	 * 			inserting thread
+	 */
+	public BufferedTrie(int alphabetLength, int mergeThreshold, Executor executor) {
+		this(new SortedTrieBuilder(alphabetLength).build(), mergeThreshold, executor);
+	}
+
+	/**
+	 * Constructs an instance that starts with the keys of <tt>trie</tt>.
+	 *
+	 * @see #BufferedTrie(int, int, Executor)
+	 */
+	public BufferedTrie(FrozenDoubleArrayTrie trie, int mergeThreshold, Executor executor) {
+		if (mergeThreshold < 1) {
+			throw new IllegalArgumentException("Invalid merge threshold " + mergeThreshold);
+		}
+		this.alphabetLength = trie.getAlphabetSize();
+		this.mergeThreshold = mergeThreshold;
+		this.executor = executor;
+		this.current = new Generation(trie, null, newBuffer());
+	}
+
+	private static NavigableSet<int[]> newBuffer() {
+		return new ConcurrentSkipListSet<int[]>(ORDER);
+	}
+
+	/**
+	 * Adds <tt>string</tt>, which is visible to lookups when this returns.
+	 *
+	 * @param string The key to add
+	 * @return True if the key was not there before
+	 * @throws IllegalArgumentException If the key is empty, has symbols
+	 * 			out of the alphabet, or is a proper prefix or extension of
+	 * 			a key already there
+	 * @throws IllegalStateException If the last merge failed or the
+	 * 			executor rejected it
+	 */
+	public synchronized boolean addToTrie(IntegerList string) {
+		if (failure != null) {
+			throw new IllegalStateException("A merge failed", failure);
+		}
+		if (string.size() == 0) {
+			throw new IllegalArgumentException("Empty key");
+		}
+		int[] key = new int[string.size()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = string.get(i);
+			if (key[i] < 0 || key[i] >= alphabetLength) {
+				throw new IllegalArgumentException("Symbol " + key[i] + " out of the alphabet");
+			}
+		}
+		Generation generation = current;
+		switch (search(generation, string, key)) {
+		case PERFECT_MATCH:
+			return false;
+		case PURE_PREFIX:
+			throw new IllegalArgumentException("Key " + string + " is a prefix of a stored key");
+		default:
+			break;
+		}
+		if (extendsKey(generation, string, key)) {
+			throw new IllegalArgumentException("Key " + string + " extends a stored key");
+		}
+		generation.buffer.add(key);
+		buffered++;
+		if (buffered >= mergeThreshold && !merging) {
+			startMerge();
+		}
+		return true;
+	}
+
+	/**
+	 * Searches for <tt>prefix</tt> in the trie and the buffers.
+	 *
+	 * @see AbstractDoubleArrayTrie#containsPrefix(IntegerList)
+	 */
+	public SearchResult containsPrefix(IntegerList prefix) {
+		if (prefix.size() == 0) {
+			return SearchResult.PURE_PREFIX;
+		}
+		int[] key = new int[prefix.size()];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = prefix.get(i);
+		}
+		return search(current, prefix, key);
+	}
+
+	private static SearchResult search(Generation generation, IntegerList prefix, int[] key) {
+		SearchResult result = generation.trie.containsPrefix(prefix);
+		if (result == SearchResult.NOT_FOUND && generation.sealed != null) {
+			result = search(generation.sealed, key);
+		}
+		if (result == SearchResult.NOT_FOUND) {
+			result = search(generation.buffer, key);
+		}
+		return result;
+	}
+
+	/**
+	 * The least key not less than <tt>key</tt> is the key itself or, if
+	 * any key extends it, one of those.
+	 */
+	private static SearchResult search(NavigableSet<int[]> buffer, int[] key) {
+		int[] ceiling = buffer.ceiling(key);
+		if (ceiling == null || !startsWith(ceiling, key)) {
+			return SearchResult.NOT_FOUND;
+		}
+		return ceiling.length == key.length ? SearchResult.PERFECT_MATCH : SearchResult.PURE_PREFIX;
+	}
+
+	/**
+	 * Tells whether a proper prefix of <tt>key</tt> is stored. In a buffer
+	 * it would be the greatest key less than <tt>key</tt>, since any key
+	 * in between would extend it too.
+	 */
+	private static boolean extendsKey(Generation generation, IntegerList string, int[] key) {
+		TrieCursor cursor = new TrieCursor(generation.trie);
+		for (int i = 0; i < key.length - 1 && cursor.step(key[i]); i++) {
+			if (cursor.isTerminal()) {
+				return true;
+			}
+		}
+		if (generation.sealed != null) {
+			int[] floor = generation.sealed.lower(key);
+			if (floor != null && startsWith(key, floor)) {
+				return true;
+			}
+		}
+		int[] floor = generation.buffer.lower(key);
+		return floor != null && startsWith(key, floor);
+	}
+
+	private static boolean startsWith(int[] key, int[] prefix) {
+		if (prefix.length > key.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Seals the buffer and hands it to the executor. Called with the lock
+	 * held.
+	 */
+	private void startMerge() {
+		final Generation generation = current;
+		current = new Generation(generation.trie, generation.buffer, newBuffer());
+		buffered = 0;
+		merging = true;
+		Runnable merge = new Runnable() {
+			public void run() {
+				merge(generation.trie, generation.buffer);
+			}
+		};
+		if (executor == null) {
+			merge.run();
+			return;
+		}
+		try {
+			executor.execute(merge);
+		}
+		catch (RejectedExecutionException e) {
+			// As for a failed merge, the sealed keys stay visible
+			merging = false;
+			failure = e;
+			notifyAll();
+		}
+	}
+
+	private void merge(FrozenDoubleArrayTrie trie, NavigableSet<int[]> sealed) {
+		long start = System.nanoTime();
+		FrozenDoubleArrayTrie merged = null;
+		RuntimeException error = null;
+		try {
+			merged = merge(trie, sealed.iterator());
+		}
+		catch (RuntimeException e) {
+			error = e;
+		}
+		synchronized (this) {
+			merging = false;
+			if (error != null) {
+				// Keep consulting the sealed buffer, but take no more keys
+				failure = error;
+				notifyAll();
+				return;
+			}
+			current = new Generation(merged, null, current.buffer);
+			merges++;
+			mergeNanos += System.nanoTime() - start;
+			notifyAll();
+			if (buffered >= mergeThreshold) {
+				startMerge();
+			}
+		}
+	}
+
+	/**
+	 * Merges the keys of the trie and the sorted buffer into a new trie.
+	 */
+	private static FrozenDoubleArrayTrie merge(FrozenDoubleArrayTrie trie, Iterator<int[]> buffer) {
+		SortedTrieBuilder builder = new SortedTrieBuilder(trie.getAlphabetSize());
+		KeyCursor cursor = new KeyCursor(trie);
+		boolean valid = cursor.first();
+		int[] next = buffer.hasNext() ? buffer.next() : null;
+		while (valid || next != null) {
+			int order = !valid ? 1 : next == null ? -1 : compare(cursor.key(), next);
+			if (order <= 0) {
+				builder.add(cursor.key());
+				valid = cursor.next();
+			}
+			if (order >= 0) {
+				if (order > 0) {
+					IntegerList key = new IntegerArrayList(next.length);
+					for (int symbol : next) {
+						key.add(symbol);
+					}
+					builder.add(key);
+				}
+				next = buffer.hasNext() ? buffer.next() : null;
+			}
+		}
+		return builder.build();
+	}
+
+	private static int compare(IntegerList first, int[] second) {
+		int length = Math.min(first.size(), second.length);
+		for (int i = 0; i < length; i++) {
+			if (first.get(i) != second[i]) {
+				return first.get(i) < second[i] ? -1 : 1;
+			}
+		}
+		return first.size() - second.length;
+	}
+
+	/**
+	 * Merges whatever is buffered and waits until the trie holds every
+	 * key added so far.
+	 *
+	 * @throws IllegalStateException If a merge failed or the executor
+	 * 			rejected it
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while (true) {
+			while (merging) {
+				wait();
+			}
+			if (failure != null) {
+				throw new IllegalStateException("A merge failed", failure);
+			}
+			if (buffered == 0) {
+				return;
+			}
+			startMerge();
+		}
+	}
+
+	/**
+	 * Returns the trie of the last merge, which does not hold the keys
+	 * still buffered.
+	 */
+	public FrozenDoubleArrayTrie getTrie() {
+		return current.trie;
+	}
+
+	public int getAlphabetSize() {
+		return alphabetLength;
+	}
+
+	/**
+	 * Returns the number of keys in the buffer not yet sealed.
+	 */
+	public synchronized int getBufferedCount() {
+		return buffered;
+	}
+
+	public synchronized long getMerges() {
+		return merges;
+	}
+
+	/**
+	 * Returns the time spent in merges that completed, in nanoseconds.
+	 */
+	public synchronized long getMergeNanos() {
+		return mergeNanos;
+	}
+}
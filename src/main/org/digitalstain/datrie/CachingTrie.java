@@ -0,0 +1,365 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.digitalstain.datrie.store.IntegerArrayListFactory;
+import org.digitalstain.datrie.store.IntegerList;
+import org.digitalstain.datrie.store.IntegerListFactory;
+
+/**
+ * A trie with two optional caches in front of containsPrefix(), for
+ * skewed query distributions.
+ * <br>
+ * The prefix table maps the first few symbols of a string directly to the
+ * state they lead to, so that a walk starts below the top levels. It is
+ * direct mapped, indexed by the symbols themselves, and every entry is
+ * stamped with the generation it was filled in; a relocation during an
+ * insertion may move any state, so it just moves to a new generation.
+ * <br>
+ * The result cache remembers the outcome of whole lookups. It is hash
+ * indexed and set associative, evicting within a set by CLOCK: a hit only
+ * sets the reference bit of its slot and a miss sweeps the set, clearing
+ * bits until it finds a slot that was not used since the last sweep.
+ * Entries are stamped with an epoch that every changing insertion
+ * advances. Relocations do not affect results, so they keep it.
+ * <br>
+ * Both caches are lock free, so searches may run from many threads at
+ * once, as long as no insertion runs at the same time, which the trie
+ * itself does not allow either. Searches answered from the caches do not
+ * fire the search events for the levels they skip, but every search fires
+ * searchFinished() with the number of characters consumed.
+ */
+public class CachingTrie extends DoubleArrayTrieImpl {
+
+	// The number of slots in a set of the result cache
+	private static final int WAYS = 4;
+	// The largest prefix table allowed
+	private static final int MAX_PREFIX_TABLE = 1 << 24;
+
+	// Prefix table: generation << 32 | state, per combination of symbols
+	private final int prefixSymbols;
+	private final AtomicLongArray prefixTable;
+	private volatile int generation = 1;
+
+	// Result cache: the entries, their reference bits and a hand per set
+	private final AtomicReferenceArray<Entry> entries;
+	private final AtomicIntegerArray referenced;
+	private final AtomicIntegerArray hands;
+	private final int setMask;
+	private final AtomicInteger epoch = new AtomicInteger();
+
+	private final AtomicLong prefixHits = new AtomicLong();
+	private final AtomicLong prefixMisses = new AtomicLong();
+	private final AtomicLong resultHits = new AtomicLong();
+	private final AtomicLong resultMisses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Constructs a caching trie.
+	 *
+	 * @param alphabetLength The size of the alphabet
+	 * @param prefixSymbols The number of leading symbols the prefix table
+	 * 			resolves, 0 for no prefix table
+	 * @param resultCapacity The number of lookups the result cache holds,
+	 * 			rounded up to a power of two, 0 for no result cache
+	 */
+	public CachingTrie(int alphabetLength, int prefixSymbols, int resultCapacity) {
+		this(alphabetLength, prefixSymbols, resultCapacity, IntegerArrayListFactory.newInstance());
+	}
+
+	/**
+	 * Constructs a caching trie that uses the provided IntegerListFactory
+	 * for creating the storage.
+	 *
+	 * @see #CachingTrie(int, int, int)
+	 */
+	public CachingTrie(int alphabetLength, int prefixSymbols, int resultCapacity,
+			IntegerListFactory listFactory) {
+		super(alphabetLength, listFactory);
+		if (prefixSymbols < 0 || resultCapacity < 0) {
+			throw new IllegalArgumentException("Negative cache size");
+		}
+		long tableSize = 1;
+		for (int i = 0; i < prefixSymbols; i++) {
+			tableSize *= alphabetLength;
+			if (tableSize > MAX_PREFIX_TABLE) {
+				throw new IllegalArgumentException("A prefix table for " + prefixSymbols
+						+ " symbols of an alphabet of " + alphabetLength + " is too large");
+			}
+		}
+		this.prefixSymbols = prefixSymbols;
+		this.prefixTable = prefixSymbols == 0 ? null : new AtomicLongArray((int) tableSize);
+
+		if (resultCapacity > 0) {
+			int sets = 1;
+			while (sets * WAYS < resultCapacity) {
+				sets <<= 1;
+			}
+			entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+			referenced = new AtomicIntegerArray(sets * WAYS);
+			hands = new AtomicIntegerArray(sets);
+			setMask = sets - 1;
+		} else {
+			entries = null;
+			referenced = null;
+			hands = null;
+			setMask = 0;
+		}
+		addListener(new Invalidator());
+	}
+
+	@Override
+	public SearchResult containsPrefix(IntegerList prefix) {
+		if (entries == null) {
+			SearchState state = walk(prefix);
+			updateSearchFinished(prefix, state.getDepth(), state.result);
+			return state.result;
+		}
+		int currentEpoch = epoch.get();
+		int hash = hash(prefix);
+		int set = (hash & setMask) * WAYS;
+		for (int i = set; i < set + WAYS; i++) {
+			Entry entry = entries.get(i);
+			if (entry != null && entry.epoch == currentEpoch && entry.hash == hash && entry.matches(prefix)) {
+				if (referenced.get(i) == 0) {
+					referenced.set(i, 1);
+				}
+				resultHits.incrementAndGet();
+				updateSearchFinished(prefix, entry.depth, entry.result);
+				return entry.result;
+			}
+		}
+		resultMisses.incrementAndGet();
+		SearchState state = walk(prefix);
+		store(set, new Entry(prefix, hash, state.result, state.getDepth(), currentEpoch));
+		updateSearchFinished(prefix, state.getDepth(), state.result);
+		return state.result;
+	}
+
+	/**
+	 * Walks the trie, starting below the top levels when the prefix table
+	 * knows where they lead.
+	 */
+	private SearchState walk(IntegerList prefix) {
+		if (prefixTable == null || prefix.size() <= prefixSymbols) {
+			return runPrefix(prefix);
+		}
+		int slot = 0;
+		for (int i = prefixSymbols - 1; i >= 0; i--) {
+			int symbol = prefix.get(i);
+			if (symbol < 0 || symbol >= alphabetLength) {
+				return runPrefix(prefix);
+			}
+			slot = slot * alphabetLength + symbol;
+		}
+		int currentGeneration = generation;
+		long packed = prefixTable.get(slot);
+		if ((int) (packed >>> 32) == currentGeneration) {
+			prefixHits.incrementAndGet();
+			return runPrefix(prefix, (int) packed, prefixSymbols);
+		}
+		prefixMisses.incrementAndGet();
+		int state = 0;
+		for (int i = 0; i < prefixSymbols; i++) {
+			state = getChild(state, prefix.get(i));
+			if (state < 0 || getBase(state) == LEAF_BASE_VALUE) {
+				// Missing or ending early, nothing to remember
+				return runPrefix(prefix);
+			}
+		}
+		prefixTable.set(slot, ((long) currentGeneration << 32) | state);
+		return runPrefix(prefix, state, prefixSymbols);
+	}
+
+	/**
+	 * Puts the entry in the first slot of the set that is free, stale or
+	 * not referenced since the hand last passed it.
+	 */
+	private void store(int set, Entry entry) {
+		int hand = hands.get(set / WAYS);
+		for (int step = 0; step < 2 * WAYS; step++) {
+			int i = set + (hand + step) % WAYS;
+			Entry old = entries.get(i);
+			if (old == null || old.epoch != entry.epoch) {
+				entries.set(i, entry);
+				referenced.set(i, 0);
+				hands.set(set / WAYS, (hand + step + 1) % WAYS);
+				return;
+			}
+			if (referenced.get(i) == 1) {
+				// Second chance
+				referenced.set(i, 0);
+				continue;
+			}
+			entries.set(i, entry);
+			hands.set(set / WAYS, (hand + step + 1) % WAYS);
+			evictions.incrementAndGet();
+			return;
+		}
+		// Every slot was hit again while sweeping, give up on this one
+	}
+
+	private static int hash(IntegerList string) {
+		int hash = 1;
+		for (int i = 0; i < string.size(); i++) {
+			hash = 31 * hash + string.get(i);
+		}
+		// Spread the low bits, which pick the set
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Drops everything held in both caches.
+	 */
+	public void clearCaches() {
+		generation++;
+		epoch.incrementAndGet();
+	}
+
+	public long getPrefixHits() {
+		return prefixHits.get();
+	}
+
+	public long getPrefixMisses() {
+		return prefixMisses.get();
+	}
+
+	public long getResultHits() {
+		return resultHits.get();
+	}
+
+	public long getResultMisses() {
+		return resultMisses.get();
+	}
+
+	/**
+	 * Returns the number of entries of the result cache replaced
+	 * while still valid.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of times the result cache was invalidated
+	 * by an insertion.
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups answered by the result cache.
+	 */
+	public double getResultHitRate() {
+		long hits = resultHits.get();
+		long total = hits + resultMisses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the fraction of walks that started from the prefix table.
+	 */
+	public double getPrefixHitRate() {
+		long hits = prefixHits.get();
+		long total = hits + prefixMisses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public void resetStatistics() {
+		prefixHits.set(0);
+		prefixMisses.set(0);
+		resultHits.set(0);
+		resultMisses.set(0);
+		evictions.set(0);
+		invalidations.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "prefix table " + prefixHits + " hits / " + prefixMisses + " misses, result cache "
+				+ resultHits + " hits / " + resultMisses + " misses, " + evictions
+				+ " evictions, " + invalidations + " invalidations";
+	}
+
+	/**
+	 * A cached lookup. Immutable, so that it can be published through
+	 * the entry array without locking.
+	 */
+	private static final class Entry {
+
+		final int[] key;
+		final int hash;
+		final SearchResult result;
+		final int depth;
+		final int epoch;
+
+		Entry(IntegerList string, int hash, SearchResult result, int depth, int epoch) {
+			key = new int[string.size()];
+			for (int i = 0; i < key.length; i++) {
+				key[i] = string.get(i);
+			}
+			this.hash = hash;
+			this.result = result;
+			this.depth = depth;
+			this.epoch = epoch;
+		}
+
+		boolean matches(IntegerList string) {
+			if (string.size() != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (string.get(i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Invalidates the caches as the trie changes.
+	 */
+	private class Invalidator extends TrieListenerAdapter {
+
+		@Override
+		public void stateMoved(int stateIndex, int newBase) {
+			if (prefixTable != null) {
+				// Children of the moved state changed index, cached states may be stale
+				generation++;
+			}
+		}
+
+		@Override
+		public void insertFinished(IntegerList string, boolean changed) {
+			if (changed && entries != null) {
+				epoch.incrementAndGet();
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+}
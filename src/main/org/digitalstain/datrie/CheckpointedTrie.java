@@ -0,0 +1,365 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Keeps a mutable trie recoverable across restarts without ever
+ * serializing it while writes are blocked.
+ * <br>
+ * Every key that changes the trie is appended to a log before the call
+ * returns. A checkpoint copies the arrays of the trie in memory, which is
+ * the only time inserts wait, switches to a new log and then writes the
+ * copy out as a snapshot in the background of further inserts. Once the
+ * snapshot is safely on disk, the previous snapshot and log are deleted.
+ * <br>
+ * The directory holds files named <tt>snapshot-N</tt> and <tt>log-N</tt>.
+ * Snapshot N contains every insert of the logs before N, so recovery maps
+ * the newest snapshot and replays only the logs from its generation on.
+ * Restart time is therefore bounded by the length of the log tail plus a
+ * sequential read of the arrays, not by rebuilding the dictionary.
+ * <br>
+ * Search counts of a CountingTrie are persisted with every snapshot, but
+ * searches made after the last checkpoint are not logged and are lost.
+ * <br>
+ * All access to the wrapped trie must go through this class, which
+ * serializes it.
+ */
+public class CheckpointedTrie {
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String LOG_PREFIX = "log-";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private final File directory;
+	private final DoubleArrayTrieImpl trie;
+	// Guards the trie and the current log
+	private final Object lock = new Object();
+	// Serializes checkpoints among themselves
+	private final Object checkpointLock = new Object();
+
+	private int generation;
+	private FileOutputStream logFile;
+	private DataOutputStream log;
+	private volatile IOException lastCheckpointFailure;
+
+	private CheckpointedTrie(File directory, DoubleArrayTrieImpl trie) {
+		this.directory = directory;
+		this.trie = trie;
+	}
+
+	/**
+	 * Opens the checkpoint directory, recovering its contents into
+	 * <tt>emptyTrie</tt>. The directory is created if it does not exist.
+	 *
+	 * @param directory Where snapshots and logs are kept
+	 * @param emptyTrie A freshly constructed trie to recover into. Must be
+	 * 			of the same type and alphabet size as the one checkpointed.
+	 * @return The recovered trie, ready to accept writes
+	 * @throws IOException If recovery fails
+	 */
+	public static CheckpointedTrie open(File directory, DoubleArrayTrieImpl emptyTrie) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create checkpoint directory " + directory);
+		}
+		CheckpointedTrie result = new CheckpointedTrie(directory, emptyTrie);
+		result.recover();
+		return result;
+	}
+
+	private void recover() throws IOException {
+		SortedMap<Integer, File> snapshots = new TreeMap<Integer, File>();
+		SortedMap<Integer, File> logs = new TreeMap<Integer, File>();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + directory);
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMPORARY_SUFFIX)) {
+				// A snapshot that was being written when we went down
+				file.delete();
+			}
+			else if (name.startsWith(SNAPSHOT_PREFIX)) {
+				snapshots.put(parseGeneration(name, SNAPSHOT_PREFIX), file);
+			}
+			else if (name.startsWith(LOG_PREFIX)) {
+				logs.put(parseGeneration(name, LOG_PREFIX), file);
+			}
+		}
+
+		generation = 0;
+		if (!snapshots.isEmpty()) {
+			generation = snapshots.lastKey();
+			TrieSnapshot.restore(snapshots.get(generation), trie);
+		}
+		for (File log : logs.tailMap(generation).values()) {
+			replay(log);
+		}
+		if (!logs.isEmpty() && logs.lastKey() > generation) {
+			generation = logs.lastKey();
+		}
+		openLog(generation);
+	}
+
+	private static int parseGeneration(String name, String prefix) throws IOException {
+		try {
+			return Integer.parseInt(name.substring(prefix.length()));
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Unexpected file in checkpoint directory: " + name);
+		}
+	}
+
+	/**
+	 * Adds every key recorded in <tt>file</tt> to the trie. A record cut
+	 * short by a crash, or one that cannot have been written by addToTrie,
+	 * ends the log: it and everything after it are truncated away, so
+	 * that appending to the log can resume.
+	 */
+	private void replay(File file) throws IOException {
+		long valid = 0;
+		long remaining = file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (remaining >= 4) {
+				int length = in.readInt();
+				if (length < 1 || length > (remaining - 4) / 4) {
+					break;
+				}
+				IntegerList key = new IntegerArrayList(length);
+				for (int i = 0; i < length; i++) {
+					key.add(in.readInt());
+				}
+				if (!isValidRecord(key)) {
+					break;
+				}
+				trie.addToTrie(key);
+				valid += 4 * (length + 1);
+				remaining -= 4 * (length + 1);
+			}
+		}
+		finally {
+			in.close();
+		}
+		if (valid < file.length()) {
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try {
+				truncate.setLength(valid);
+			}
+			finally {
+				truncate.close();
+			}
+		}
+	}
+
+	/**
+	 * Tells whether <tt>key</tt> could have been logged: its symbols are
+	 * in the alphabet and adding it keeps the trie prefix free.
+	 */
+	private boolean isValidRecord(IntegerList key) {
+		TrieCursor cursor = new TrieCursor(trie);
+		for (int i = 0; i < key.size(); i++) {
+			int symbol = key.get(i);
+			if (symbol < 0 || symbol >= trie.getAlphabetSize()) {
+				return false;
+			}
+			if (cursor.isTerminal()) {
+				// A stored key is a proper prefix of this one
+				return false;
+			}
+			if (!cursor.step(symbol)) {
+				// Diverges from the trie, so the rest is only checked for range
+				for (i++; i < key.size(); i++) {
+					if (key.get(i) < 0 || key.get(i) >= trie.getAlphabetSize()) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		// Either a stored key or a proper prefix of stored keys
+		return cursor.isTerminal();
+	}
+
+	private void openLog(int forGeneration) throws IOException {
+		File file = new File(directory, LOG_PREFIX + forGeneration);
+		logFile = new FileOutputStream(file, true);
+		log = new DataOutputStream(new BufferedOutputStream(logFile));
+	}
+
+	/**
+	 * Adds <tt>string</tt> to the trie, logging it if it changed the trie.
+	 * The log is flushed to the operating system before returning, so the
+	 * key survives a crash of the process but not of the machine until
+	 * the next checkpoint or {@link #sync()}.
+	 *
+	 * @param string The key to add
+	 * @return true if the trie was changed
+	 * @throws IOException If the key could not be logged. The trie is
+	 * 			already changed in this case.
+	 */
+	public boolean addToTrie(IntegerList string) throws IOException {
+		synchronized (lock) {
+			boolean changed = trie.addToTrie(string);
+			if (changed) {
+				log.writeInt(string.size());
+				for (int i = 0; i < string.size(); i++) {
+					log.writeInt(string.get(i));
+				}
+				log.flush();
+			}
+			return changed;
+		}
+	}
+
+	public SearchResult containsPrefix(IntegerList prefix) {
+		synchronized (lock) {
+			return trie.containsPrefix(prefix);
+		}
+	}
+
+	/**
+	 * Forces the current log to the storage device.
+	 *
+	 * @throws IOException If the log cannot be synced
+	 */
+	public void sync() throws IOException {
+		synchronized (lock) {
+			log.flush();
+			logFile.getFD().sync();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the trie and discards the log it supersedes.
+	 * Inserts are blocked only while the arrays are copied in memory.
+	 *
+	 * @throws IOException If the snapshot cannot be written. The log is
+	 * 			kept in this case and nothing is lost.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			TrieSnapshot snapshot;
+			int snapshotGeneration;
+			synchronized (lock) {
+				snapshot = TrieSnapshot.capture(trie);
+				log.close();
+				generation++;
+				snapshotGeneration = generation;
+				openLog(snapshotGeneration);
+			}
+			File temporary = new File(directory, SNAPSHOT_PREFIX + snapshotGeneration + TEMPORARY_SUFFIX);
+			snapshot.writeTo(temporary);
+			File target = new File(directory, SNAPSHOT_PREFIX + snapshotGeneration);
+			if (!temporary.renameTo(target)) {
+				throw new IOException("Cannot rename " + temporary + " to " + target);
+			}
+			// Everything older is now covered by the new snapshot
+			File[] files = directory.listFiles();
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				String name = file.getName();
+				if ((name.startsWith(SNAPSHOT_PREFIX) && !name.endsWith(TEMPORARY_SUFFIX)
+						&& parseGeneration(name, SNAPSHOT_PREFIX) < snapshotGeneration)
+						|| (name.startsWith(LOG_PREFIX)
+						&& parseGeneration(name, LOG_PREFIX) < snapshotGeneration)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checkpoints periodically on the given executor. A failed checkpoint
+	 * does not cancel the following ones; the latest failure is available
+	 * from {@link #getLastCheckpointFailure()}.
+	 *
+	 * @param executor The executor to run checkpoints on
+	 * @param period The time between two checkpoints
+	 * @param unit The unit of <tt>period</tt>
+	 * @return The handle for cancelling the checkpoints
+	 */
+	public ScheduledFuture<?> scheduleCheckpoints(ScheduledExecutorService executor, long period,
+			TimeUnit unit) {
+		return executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkpoint();
+					lastCheckpointFailure = null;
+				}
+				catch (IOException e) {
+					lastCheckpointFailure = e;
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Returns the failure of the last scheduled checkpoint, or null if
+	 * it succeeded.
+	 *
+	 * @return The last checkpoint failure, null if none
+	 */
+	public IOException getLastCheckpointFailure() {
+		return lastCheckpointFailure;
+	}
+
+	/**
+	 * Syncs and closes the current log. The trie must not be
+	 * modified through this instance afterwards.
+	 *
+	 * @throws IOException If the log cannot be closed
+	 */
+	public void close() throws IOException {
+		synchronized (lock) {
+			sync();
+			log.close();
+		}
+	}
+
+	/**
+	 * Returns the wrapped trie. Modifying it directly bypasses the log.
+	 *
+	 * @return The wrapped trie
+	 */
+	public DoubleArrayTrieImpl getTrie() {
+		return trie;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Forwards every event to a fixed list of listeners, in order. A trie
+ * uses one when more than one listener is registered, and replaces it
+ * with a new one whenever the list changes.
+ */
+class CompositeTrieListener implements TrieListener {
+
+	private final TrieListener[] listeners;
+
+	CompositeTrieListener(TrieListener[] listeners) {
+		this.listeners = listeners;
+	}
+
+	TrieListener[] getListeners() {
+		return listeners;
+	}
+
+	public void insertTransition(int state, int stringIndex, IntegerList insertString) {
+		for (TrieListener listener : listeners) {
+			listener.insertTransition(state, stringIndex, insertString);
+		}
+	}
+
+	public void searchTransition(int state, int stringIndex, IntegerList searchString) {
+		for (TrieListener listener : listeners) {
+			listener.searchTransition(state, stringIndex, searchString);
+		}
+	}
+
+	public void childMoved(int parentIndex, int forCharacter, int oldParentBase, int newParentBase) {
+		for (TrieListener listener : listeners) {
+			listener.childMoved(parentIndex, forCharacter, oldParentBase, newParentBase);
+		}
+	}
+
+	public void stateMoved(int stateIndex, int newBase) {
+		for (TrieListener listener : listeners) {
+			listener.stateMoved(stateIndex, newBase);
+		}
+	}
+
+	public void insertFinished(IntegerList string, boolean changed) {
+		for (TrieListener listener : listeners) {
+			listener.insertFinished(string, changed);
+		}
+	}
+
+	public void searchFinished(IntegerList string, int depth, SearchResult result) {
+		for (TrieListener listener : listeners) {
+			listener.searchFinished(string, depth, result);
+		}
+	}
+}
@@ -36,6 +36,7 @@ public class CountingTrie extends DoubleArrayTrieImpl {
 		existCounts.add(0);
 		searchCounts = IntegerArrayListFactory.newInstance().getNewIntegerList();
 		searchCounts.add(0);
+		addListener(new Counter());
 	}
 
 	@Override
@@ -49,33 +50,18 @@ public class CountingTrie extends DoubleArrayTrieImpl {
 		}
 	}
 
-	@Override
-	protected void updateChildMove(int parentIndex, int forCharacter,
-			int newParentBase) {
-		super.updateChildMove(parentIndex, forCharacter, newParentBase);
-		int oldCount = existCounts.get(getBase(parentIndex)+forCharacter);
-		existCounts.set(newParentBase+forCharacter, oldCount);
-		existCounts.set(getBase(parentIndex)+forCharacter, 0);
-		
-		oldCount = searchCounts.get(getBase(parentIndex)+forCharacter);
-		searchCounts.set(newParentBase+forCharacter, oldCount);
-		searchCounts.set(getBase(parentIndex)+forCharacter, 0);
+	/**
+	 * The per state insertion counts, for persisting them.
+	 */
+	IntegerList getExistCounts() {
+		return existCounts;
 	}
 
-	@Override
-	protected void updateInsert(int state, int stringIndex,
-			IntegerList insertString) {
-		super.updateInsert(state, stringIndex, insertString);
-		existCounts.set(state, existCounts.get(state)+1);
-	}
-
-	@Override
-	protected void updateSearch(int state, int stringIndex,
-			IntegerList searchString) {
-		// TODO Auto-generated method stub
-		super.updateSearch(state, stringIndex, searchString);
-		if (stringIndex == searchString.size() - 1)
-			searchCounts.set(state, searchCounts.get(state)+1);
+	/**
+	 * The per state search counts, for persisting them.
+	 */
+	IntegerList getSearchCounts() {
+		return searchCounts;
 	}
 
 	public int getSearchCountFor(IntegerList prefix) {
@@ -84,4 +70,35 @@ public class CountingTrie extends DoubleArrayTrieImpl {
 			return searchCounts.get(state.finishedAtState);
 		else return 0;
 	}
+
+	/**
+	 * Keeps the counts up to date, moving them along with their states.
+	 */
+	private class Counter extends TrieListenerAdapter {
+
+		@Override
+		public void childMoved(int parentIndex, int forCharacter,
+				int oldParentBase, int newParentBase) {
+			int oldCount = existCounts.get(oldParentBase+forCharacter);
+			existCounts.set(newParentBase+forCharacter, oldCount);
+			existCounts.set(oldParentBase+forCharacter, 0);
+
+			oldCount = searchCounts.get(oldParentBase+forCharacter);
+			searchCounts.set(newParentBase+forCharacter, oldCount);
+			searchCounts.set(oldParentBase+forCharacter, 0);
+		}
+
+		@Override
+		public void insertTransition(int state, int stringIndex,
+				IntegerList insertString) {
+			existCounts.set(state, existCounts.get(state)+1);
+		}
+
+		@Override
+		public void searchTransition(int state, int stringIndex,
+				IntegerList searchString) {
+			if (stringIndex == searchString.size() - 1)
+				searchCounts.set(state, searchCounts.get(state)+1);
+		}
+	}
 }
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A minimized, read only automaton that accepts the same keys as a trie,
+ * encoded in base and check arrays.
+ * <br>
+ * A trie keeps a separate copy of every common suffix. Building the DAWG
+ * walks the trie bottom up and gives every state a signature made of its
+ * outgoing symbols and the ids of its targets; states with equal
+ * signatures accept the same suffixes, so a register of signatures merges
+ * them into one node. All leaves become a single final node.
+ * <br>
+ * Since a node may now have many parents, a cell can no longer record its
+ * parent in check. Instead, the cell of the edge on symbol c holds c in
+ * check and the base of the target node in base. That is unambiguous
+ * because every node gets a base no other node uses: the only way to reach
+ * the cell base + c with symbol c is from the node owning that base.
+ * <br>
+ * Instances are immutable and safe for concurrent lookups.
+ */
+public class DoubleArrayDawg {
+
+	// The id of the node all leaves are merged into
+	private static final int FINAL_NODE = 0;
+
+	private final int alphabetLength;
+	// Cell 0 holds the base of the root, every other used cell an edge
+	private final int[] base;
+	private final int[] check;
+
+	// Statistics, for comparison with the source trie
+	private final int nodeCount;
+	private final int edgeCount;
+	private final int trieStates;
+	private final int trieCells;
+
+	private DoubleArrayDawg(int alphabetLength, int[] base, int[] check,
+			int nodeCount, int edgeCount, int trieStates, int trieCells) {
+		this.alphabetLength = alphabetLength;
+		this.base = base;
+		this.check = check;
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		this.trieStates = trieStates;
+		this.trieCells = trieCells;
+	}
+
+	/**
+	 * Builds the minimized automaton for the keys of <tt>trie</tt>. The
+	 * trie is only read.
+	 *
+	 * @param trie The trie to minimize
+	 * @return The automaton
+	 */
+	public static DoubleArrayDawg build(AbstractDoubleArrayTrie trie) {
+		int size = trie.getSize();
+
+		// States in preorder, so that reading it backwards sees children first
+		IntegerList order = new IntegerArrayList();
+		IntegerList stack = new IntegerArrayList();
+		stack.add(0);
+		while (!stack.isEmpty()) {
+			int state = stack.remove(stack.size() - 1);
+			order.add(state);
+			int stateBase = trie.getBase(state);
+			int limit = Math.min(trie.getAlphabetSize(), size - stateBase);
+			for (int symbol = 0; stateBase >= 0 && symbol < limit; symbol++) {
+				if (trie.getCheck(stateBase + symbol) == state) {
+					stack.add(stateBase + symbol);
+				}
+			}
+		}
+
+		/*
+		 * Edges of the nodes, in compressed rows: node n has the edges
+		 * from edgeStart[n - 1] up to edgeStart[n].
+		 */
+		IntegerList edgeStart = new IntegerArrayList();
+		IntegerList edgeSymbols = new IntegerArrayList();
+		IntegerList edgeTargets = new IntegerArrayList();
+		edgeStart.add(0); // The final node has no edges
+
+		Map<Signature, Integer> register = new HashMap<Signature, Integer>();
+		int[] nodeOf = new int[size];
+		IntegerList signature = new IntegerArrayList();
+		for (int i = order.size() - 1; i >= 0; i--) {
+			int state = order.get(i);
+			int stateBase = trie.getBase(state);
+			if (stateBase == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+				nodeOf[state] = FINAL_NODE;
+				continue;
+			}
+			while (!signature.isEmpty()) {
+				signature.remove(signature.size() - 1);
+			}
+			int limit = Math.min(trie.getAlphabetSize(), size - stateBase);
+			for (int symbol = 0; stateBase >= 0 && symbol < limit; symbol++) {
+				if (trie.getCheck(stateBase + symbol) == state) {
+					signature.add(symbol);
+					signature.add(nodeOf[stateBase + symbol]);
+				}
+			}
+			Signature key = new Signature(signature);
+			Integer node = register.get(key);
+			if (node == null) {
+				node = edgeStart.size();
+				register.put(key, node);
+				for (int j = 0; j < signature.size(); j += 2) {
+					edgeSymbols.add(signature.get(j));
+					edgeTargets.add(signature.get(j + 1));
+				}
+				edgeStart.add(edgeSymbols.size());
+			}
+			nodeOf[state] = node;
+		}
+		int nodes = edgeStart.size();
+		int root = nodeOf[0];
+
+		FirstFitPlacement placement = new FirstFitPlacement(true);
+		int[] nodeBase = new int[nodes];
+		nodeBase[FINAL_NODE] = AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+		// Place nodes breadth first, which keeps the upper levels close together
+		BitSet placed = new BitSet(nodes);
+		IntegerList queue = new IntegerArrayList();
+		queue.add(root);
+		placed.set(root);
+		for (int head = 0; head < queue.size(); head++) {
+			int node = queue.get(head);
+			int from = edgeStart.get(node - 1);
+			int to = edgeStart.get(node);
+			nodeBase[node] = placement.place(edgeSymbols, from, to);
+			for (int e = from; e < to; e++) {
+				int target = edgeTargets.get(e);
+				if (target != FINAL_NODE && !placed.get(target)) {
+					placed.set(target);
+					queue.add(target);
+				}
+			}
+		}
+
+		int cells = placement.getEnd();
+		int[] base = new int[cells];
+		int[] check = Arrays.copyOf(placement.getCheck(), cells);
+		Arrays.fill(base, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		base[0] = nodeBase[root];
+		check[0] = AbstractDoubleArrayTrie.ROOT_CHECK_VALUE;
+		for (int node = 1; node < nodes; node++) {
+			for (int e = edgeStart.get(node - 1); e < edgeStart.get(node); e++) {
+				base[nodeBase[node] + edgeSymbols.get(e)] = nodeBase[edgeTargets.get(e)];
+			}
+		}
+
+		int trieStates = 0;
+		for (int i = 0; i < size; i++) {
+			if (trie.getCheck(i) != AbstractDoubleArrayTrie.EMPTY_VALUE) {
+				trieStates++;
+			}
+		}
+		return new DoubleArrayDawg(trie.getAlphabetSize(), base, check,
+				nodes, edgeSymbols.size(), trieStates, size);
+	}
+
+	/**
+	 * Walks <tt>prefix</tt> on the automaton, with the same results
+	 * as AbstractDoubleArrayTrie.containsPrefix() on the source trie.
+	 *
+	 * @param prefix The string to look for
+	 * @return PERFECT_MATCH if it is a key, PURE_PREFIX if it is a proper
+	 * 			prefix of keys, NOT_FOUND otherwise
+	 */
+	public SearchResult containsPrefix(IntegerList prefix) {
+		int nodeBase = base[0];
+		for (int i = 0; i < prefix.size(); i++) {
+			int symbol = prefix.get(i);
+			if (nodeBase < 0 || symbol < 0 || symbol >= alphabetLength) {
+				return SearchResult.NOT_FOUND;
+			}
+			int transition = nodeBase + symbol;
+			if (transition >= check.length || check[transition] != symbol) {
+				return SearchResult.NOT_FOUND;
+			}
+			nodeBase = base[transition];
+		}
+		return nodeBase == AbstractDoubleArrayTrie.LEAF_BASE_VALUE
+				? SearchResult.PERFECT_MATCH : SearchResult.PURE_PREFIX;
+	}
+
+	public int getAlphabetSize() {
+		return alphabetLength;
+	}
+
+	/**
+	 * Returns the number of nodes after minimization, the final node
+	 * included.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * Returns the length of the base and check arrays.
+	 */
+	public int getSize() {
+		return base.length;
+	}
+
+	/**
+	 * Returns the number of used cells of the source trie.
+	 */
+	public int getTrieStateCount() {
+		return trieStates;
+	}
+
+	/**
+	 * Returns the length of the base and check arrays of the source trie.
+	 */
+	public int getTrieSize() {
+		return trieCells;
+	}
+
+	/**
+	 * Returns the bytes held by the base and check arrays.
+	 */
+	public long getMemoryBytes() {
+		return 8L * base.length;
+	}
+
+	/**
+	 * Returns the bytes the base and check arrays of the source trie hold,
+	 * not counting the overhead of its growable lists and free set.
+	 */
+	public long getTrieMemoryBytes() {
+		return 8L * trieCells;
+	}
+
+	@Override
+	public String toString() {
+		return "DAWG of " + nodeCount + " nodes, " + edgeCount + " edges in "
+				+ base.length + " cells (" + getMemoryBytes() + " bytes), trie of "
+				+ trieStates + " states in " + trieCells + " cells ("
+				+ getTrieMemoryBytes() + " bytes), "
+				+ (100 * base.length / Math.max(trieCells, 1)) + "% of the trie";
+	}
+
+	/**
+	 * The outgoing symbols and targets of a node, as a register key.
+	 */
+	private static final class Signature {
+
+		private final int[] values;
+		private final int hash;
+
+		Signature(IntegerList list) {
+			values = new int[list.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = list.get(i);
+			}
+			hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Signature
+					&& Arrays.equals(values, ((Signature) other).values);
+		}
+	}
+}
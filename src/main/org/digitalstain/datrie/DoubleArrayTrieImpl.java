@@ -18,6 +18,7 @@
  */
 package org.digitalstain.datrie;
 
+import java.nio.IntBuffer;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -38,6 +39,9 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 	private IntegerList check;
 	// The free positions, for quick access
 	private TreeSet<Integer> freePositions;
+	// Chooses the bases of states, looking at the arrays through cells
+	private final PlacementPolicy placement;
+	private final PlacementPolicy.Cells cells = new ArrayCells();
 
 	/**
 	 * Constructs a DoubleArrayTrie for the given alphabet length.
@@ -60,7 +64,24 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 	 * 				the storage.
 	 */
 	public DoubleArrayTrieImpl(int alphabetLength, IntegerListFactory listFactory) {
+		this(alphabetLength, listFactory, new FirstFitPolicy());
+	}
+
+	/**
+	 * Constructs a DoubleArrayTrie for the given alphabet length that
+	 * uses the provided IntegerListFactory for creating the storage and
+	 * places states as the provided PlacementPolicy chooses.
+	 *
+	 * @param alphabetLength The size of the set of values that
+	 * 				are to be stored.
+	 * @param listFactory The IntegerListFactory to use for creating
+	 * 				the storage.
+	 * @param placement The policy that places the states, which
+	 * 				must not be shared with other tries.
+	 */
+	public DoubleArrayTrieImpl(int alphabetLength, IntegerListFactory listFactory, PlacementPolicy placement) {
 		super(alphabetLength);
+		this.placement = placement;
 		init(listFactory);
 	}
 
@@ -74,6 +95,37 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 		freePositions = new TreeSet<Integer>();
 	}
 
+	/**
+	 * Replaces the contents of this empty trie with <tt>size</tt> cells
+	 * read from the given buffers, as written out from another instance.
+	 * The free positions are recomputed from the check values.
+	 * Both buffers are read from their current position.
+	 *
+	 * @param size The number of cells to restore
+	 * @param newBase The contents of the base array
+	 * @param newCheck The contents of the check array
+	 */
+	void restore(int size, IntBuffer newBase, IntBuffer newCheck) {
+		if (getSize() != 1 || base.get(0) != INITIAL_ROOT_BASE) {
+			throw new IllegalStateException("Can only restore into an empty trie");
+		}
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid number of cells " + size);
+		}
+		base.set(0, newBase.get());
+		check.set(0, newCheck.get());
+		for (int i = 1; i < size; i++) {
+			int checkValue = newCheck.get();
+			base.add(newBase.get());
+			check.add(checkValue);
+			if (checkValue == EMPTY_VALUE) {
+				freePositions.add(i);
+			}
+		}
+		// Lets extending classes size their own per state storage.
+		ensureReachableIndex(size - 1);
+	}
+
 	/**
 	 * Ensures that the index == <tt>limit</tt> is available from
 	 * the backing arrays. If it already available, this call is
@@ -100,27 +152,15 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 	 */
 	@Override
 	protected int nextAvailableHop(int forValue) {
+		return placement.placeState(cells, -1, forValue);
+	}
 
-		Integer value = new Integer(forValue);
-		/*
-		 * First we make sure that there exists a free location that is
-		 * strictly greater than the value.
-		 */
-		while (freePositions.higher(value) == null) {
-			ensureReachableIndex(base.size() + 1); // This adds to the freePositions store
-		}
-		/*
-		 * From the termination condition of the loop above, the next line
-		 * CANNOT throw NullPointerException
-		 * Note that we return the position minus the value. That is because
-		 * the result is the ordinal of the new state which is translated
-		 * to a store index. Therefore, since we add the value to the base
-		 * to find the next state, here we must subtract.
-		 */
-		int result = freePositions.higher(value).intValue() - forValue;
-		// This assertion must pass thanks to the loop above
-		assert result >= 0;
-		return result;
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#nextAvailableHop(int, int)
+	 */
+	@Override
+	protected int nextAvailableHop(int state, int forValue) {
+		return placement.placeState(cells, state, forValue);
 	}
 
 	/** 
@@ -128,22 +168,22 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 	 */
 	@Override
 	protected int nextAvailableMove(SortedSet<Integer> values) {
-		// In the case of a single child, the problem is solved.
-		if (values.size() == 1) {
-			return nextAvailableHop(values.first());
-		}
-
-		int minValue = values.first();
-		int maxValue = values.last();
-		int neededPositions = maxValue - minValue + 1;
+		return placement.placeChildren(cells, -1, values);
+	}
 
-		int possible = findConsecutiveFree(neededPositions);
-		if (possible - minValue >= 0) {
-			return possible - minValue;
-		}
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#nextAvailableMove(int, java.util.SortedSet)
+	 */
+	@Override
+	protected int nextAvailableMove(int state, SortedSet<Integer> values) {
+		return placement.placeChildren(cells, state, values);
+	}
 
-		ensureReachableIndex(base.size() + neededPositions);
-		return base.size() - neededPositions - minValue;
+	/**
+	 * Returns the policy that places the states.
+	 */
+	public PlacementPolicy getPlacementPolicy() {
+		return placement;
 	}
 
 	/**
@@ -171,11 +211,13 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 		Integer previous;	// The previously checked index
 		int consecutive;	// How many consecutive positions have we seen so far 
 		
+		int scanned = 1;	// How many free positions have been looked at
 		from = it.next();	// Guaranteed to succeed, from the if at the start
 		previous = from;	// The first previous is the first in the series
 		consecutive = 1;	// 1, since from is a valid location
 		while(consecutive < amount && it.hasNext()) {
 			current = it.next();
+			scanned++;
 			if (current - previous == 1) {
 				previous = current;
 				consecutive++;
@@ -186,6 +228,7 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 				consecutive = 1;
 			}
 		}
+		updateFreeScan(scanned, amount, consecutive == amount);
 		if (consecutive == amount) {
 			return from;
 		}
@@ -194,6 +237,36 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 		}
 	}
 
+	/**
+	 * The base array, for inspecting its storage.
+	 */
+	IntegerList getBaseList() {
+		return base;
+	}
+
+	/**
+	 * The check array, for inspecting its storage.
+	 */
+	IntegerList getCheckList() {
+		return check;
+	}
+
+	/**
+	 * The free positions, for inspecting fragmentation. Must not be modified.
+	 */
+	SortedSet<Integer> getFreePositions() {
+		return freePositions;
+	}
+
+	/**
+	 * Returns the number of free positions within the arrays.
+	 * 
+	 * @return The number of free positions
+	 */
+	protected int getFreeCount() {
+		return freePositions.size();
+	}
+
 	/**
 	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#getBase(int)
 	 */
@@ -247,35 +320,53 @@ public class DoubleArrayTrieImpl extends AbstractDoubleArrayTrie {
 	}
 	
 	/**
-	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#updateSearch(int, int, org.digitalstain.datrie.store.IntegerList)
+	 * After a search for consecutive free positions while relocating the
+	 * children of a state, this method is called with the length of the scan.
+	 * 
+	 * @param scanned The number of free positions looked at
+	 * @param amount The number of consecutive positions needed
+	 * @param found Whether the positions were found or the arrays must grow
 	 */
-	@Override
-	protected void updateSearch(int state, int stringIndex, IntegerList searchString) {
+	protected void updateFreeScan(int scanned, int amount, boolean found) {
 		// No op
 	}
 
 	/**
-	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#updateInsert(int, int, org.digitalstain.datrie.store.IntegerList)
+	 * The arrays as the placement policy sees them.
 	 */
-	@Override
-	protected void updateInsert(int state, int stringIndex, IntegerList insertString) {
-		// No op
-	}
+	private class ArrayCells implements PlacementPolicy.Cells {
 
-	/**
-	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#updateChildMove(int, int, int)
-	 */
-	@Override
-	protected void updateChildMove(int parentIndex, int forCharacter,
-			int newParentBase) {
-		assert getCheck(getBase(parentIndex) + forCharacter) == parentIndex;  
-	}
+		public int getSize() {
+			return base.size();
+		}
 
-	/**
-	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#updateStateMove(int, int)
-	 */
-	@Override
-	protected void updateStateMove(int stateIndex, int newBase) {
-		// No op
+		public boolean isFree(int position) {
+			return position >= check.size() || check.get(position) == EMPTY_VALUE;
+		}
+
+		public int higherFree(int position) {
+			Integer higher = freePositions.higher(new Integer(position));
+			return higher == null ? -1 : higher.intValue();
+		}
+
+		public int findConsecutiveFree(int amount) {
+			return DoubleArrayTrieImpl.this.findConsecutiveFree(amount);
+		}
+
+		public void ensureReachableIndex(int limit) {
+			DoubleArrayTrieImpl.this.ensureReachableIndex(limit);
+		}
+
+		public int getDepth(int state) {
+			if (state < 0) {
+				return -1;
+			}
+			int depth = 0;
+			while (state != 0) {
+				state = check.get(state);
+				depth++;
+			}
+			return depth;
+		}
 	}
 }
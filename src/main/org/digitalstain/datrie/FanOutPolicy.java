@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+
+/**
+ * Leaves room for the children a state is expected to get, judged by
+ * the states at the same depth.
+ * <br>
+ * Every relocation shows how many children a state at its depth had when
+ * its family outgrew its place. The mean of those per depth is the fan-out
+ * expected there: a new state at a depth whose states tend to get several
+ * children is placed at the start of a run of free cells that many long,
+ * and moving children get that many free cells beyond their span, so that
+ * the next siblings are likely to find their cells free. Depths that have
+ * seen no relocation, and states whose depth is not known, are placed
+ * first fit.
+ * <br>
+ * The room is only a preference: nothing keeps other states out of it.
+ * The arrays are sparser than with first fit, in exchange for fewer
+ * relocations on tries with many branching states.
+ */
+public class FanOutPolicy implements PlacementPolicy {
+
+	private final FirstFitPolicy firstFit = new FirstFitPolicy();
+	// Per depth, the relocations seen and the children they moved
+	private int[] relocations = new int[16];
+	private long[] children = new long[16];
+
+	public int placeState(Cells cells, int state, int symbol) {
+		int reserve = expectedFanOut(cells.getDepth(state));
+		if (reserve <= 1) {
+			return firstFit.placeState(cells, state, symbol);
+		}
+		int run = cells.findConsecutiveFree(reserve);
+		if (run - symbol > 0) {
+			return run - symbol;
+		}
+		int location = Math.max(cells.getSize(), symbol + 1);
+		cells.ensureReachableIndex(location + reserve - 1);
+		return location - symbol;
+	}
+
+	public int placeChildren(Cells cells, int state, SortedSet<Integer> symbols) {
+		int depth = cells.getDepth(state);
+		if (depth < 0) {
+			return firstFit.placeChildren(cells, state, symbols);
+		}
+		record(depth, symbols.size());
+		int minValue = symbols.first();
+		int maxValue = symbols.last();
+		int extra = Math.max(expectedFanOut(depth) - symbols.size(), 0);
+		int run = cells.findConsecutiveFree(maxValue - minValue + 1 + extra);
+		if (run - minValue > 0) {
+			return run - minValue;
+		}
+		int location = Math.max(cells.getSize() - minValue, 1);
+		cells.ensureReachableIndex(location + maxValue + extra);
+		return location;
+	}
+
+	/**
+	 * Returns the mean number of children of the states at
+	 * <tt>depth</tt> when they were relocated, 0 if none was.
+	 */
+	public int expectedFanOut(int depth) {
+		if (depth < 0 || depth >= relocations.length || relocations[depth] == 0) {
+			return 0;
+		}
+		return (int) Math.round((double) children[depth] / relocations[depth]);
+	}
+
+	private void record(int depth, int count) {
+		if (depth >= relocations.length) {
+			int length = Math.max(depth + 1, relocations.length * 2);
+			relocations = Arrays.copyOf(relocations, length);
+			children = Arrays.copyOf(children, length);
+		}
+		relocations[depth]++;
+		children[depth] += count;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Allocates bases in a check array that is built offline, placing every
+ * set of children at the first base where all of their cells are free.
+ * Cells are claimed by writing the symbol into check, which the caller may
+ * overwrite with the owner afterwards. Cell 0 is reserved for the root.
+ */
+class FirstFitPlacement {
+
+	private int[] check = new int[1024];
+	// One past the last used cell
+	private int end = 1;
+	// No cell before this is free
+	private int firstFree = 1;
+	// The bases given out so far, if they must be unique
+	private final BitSet usedBases;
+
+	/**
+	 * @param uniqueBases true if no two calls to place() may return
+	 * 			the same base
+	 */
+	FirstFitPlacement(boolean uniqueBases) {
+		usedBases = uniqueBases ? new BitSet() : null;
+		Arrays.fill(check, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		check[0] = AbstractDoubleArrayTrie.ROOT_CHECK_VALUE;
+	}
+
+	/**
+	 * Finds a base for the symbols from index <tt>from</tt> up to
+	 * <tt>to</tt> of <tt>symbols</tt>, which are in increasing order,
+	 * and claims their cells.
+	 *
+	 * @return The base, at least 1
+	 */
+	int place(IntegerList symbols, int from, int to) {
+		int candidate = 1;
+		if (from < to) {
+			candidate = Math.max(firstFree - symbols.get(from), 1);
+		}
+		while ((usedBases != null && usedBases.get(candidate)) || !fits(candidate, symbols, from, to)) {
+			candidate++;
+		}
+		if (usedBases != null) {
+			usedBases.set(candidate);
+		}
+		for (int i = from; i < to; i++) {
+			int cell = candidate + symbols.get(i);
+			check[cell] = symbols.get(i);
+			end = Math.max(end, cell + 1);
+		}
+		while (firstFree < check.length && check[firstFree] != AbstractDoubleArrayTrie.EMPTY_VALUE) {
+			firstFree++;
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the check array, which may be longer than getEnd().
+	 */
+	int[] getCheck() {
+		return check;
+	}
+
+	/**
+	 * Returns one past the last claimed cell.
+	 */
+	int getEnd() {
+		return end;
+	}
+
+	private boolean fits(int candidate, IntegerList symbols, int from, int to) {
+		if (from == to) {
+			return true;
+		}
+		ensureCapacity(candidate + symbols.get(to - 1) + 1);
+		for (int i = from; i < to; i++) {
+			if (check[candidate + symbols.get(i)] != AbstractDoubleArrayTrie.EMPTY_VALUE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void ensureCapacity(int length) {
+		if (length > check.length) {
+			int oldLength = check.length;
+			check = Arrays.copyOf(check, Math.max(length, oldLength * 2));
+			Arrays.fill(check, oldLength, check.length, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		}
+	}
+}
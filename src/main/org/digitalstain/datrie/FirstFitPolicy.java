@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.SortedSet;
+
+/**
+ * Places a new state at the first free cell above the symbol of its
+ * child, and moves children to the first run of free cells as long as the
+ * span of their symbols. The default policy of DoubleArrayTrieImpl.
+ */
+public class FirstFitPolicy implements PlacementPolicy {
+
+	public int placeState(Cells cells, int state, int symbol) {
+		/*
+		 * First we make sure that there exists a free location that is
+		 * strictly greater than the value.
+		 */
+		while (cells.higherFree(symbol) < 0) {
+			cells.ensureReachableIndex(cells.getSize() + 1);
+		}
+		/*
+		 * The result is the ordinal of the new state which is translated
+		 * to a store index. Therefore, since we add the value to the base
+		 * to find the next state, here we must subtract.
+		 */
+		int result = cells.higherFree(symbol) - symbol;
+		assert result >= 0;
+		return result;
+	}
+
+	public int placeChildren(Cells cells, int state, SortedSet<Integer> symbols) {
+		// In the case of a single child, the problem is solved.
+		if (symbols.size() == 1) {
+			return placeState(cells, state, symbols.first());
+		}
+
+		int minValue = symbols.first();
+		int maxValue = symbols.last();
+		int neededPositions = maxValue - minValue + 1;
+
+		/*
+		 * The new base must be positive: a base of 0 would send symbol 0 to
+		 * the root cell and negative values are reserved for markers.
+		 */
+		int possible = cells.findConsecutiveFree(neededPositions);
+		if (possible - minValue > 0) {
+			return possible - minValue;
+		}
+
+		// Place the children right after the current end of the store
+		int location = Math.max(cells.getSize() - minValue, 1);
+		cells.ensureReachableIndex(location + maxValue);
+		return location;
+	}
+}
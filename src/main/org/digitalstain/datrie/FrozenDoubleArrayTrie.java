@@ -0,0 +1,393 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * An immutable double array trie, backed by plain arrays, for dictionaries
+ * that are built once and then only read.
+ * <br>
+ * Freezing annotates every state with its rank: the number of keys that
+ * come before its subtree in lexicographic order. The rank of a leaf is
+ * therefore a dense id for its key, in [0, getKeyCount()), and keys can be
+ * mapped to ids and back by walking the trie, without any side table.
+ * <br>
+ * Searches are safe from many threads at once. Adding a key that is not
+ * already present throws UnsupportedOperationException.
+ * <br>
+ * For small alphabets, withJumpTable() adds a dense table from the first
+ * two symbols of a string to the state they lead to, which saves the two
+ * dependent loads through the root and a second level state that every
+ * lookup would otherwise pay.
+ */
+public class FrozenDoubleArrayTrie extends AbstractDoubleArrayTrie {
+
+	/**
+	 * The largest alphabet for which a jump table is built, which
+	 * then takes 256 KiB.
+	 */
+	public static final int MAX_JUMP_TABLE_ALPHABET = 256;
+
+	// The base array.
+	final int[] base;
+	// The check array.
+	final int[] check;
+	// The number of keys before the subtree of every state
+	private final int[] ranks;
+	// The number of keys, i.e. of leaves
+	private final int keyCount;
+	// The state after the first two symbols, -1 if none, null if not built
+	private final int[] jumpTable;
+
+	/**
+	 * Constructs a frozen trie over the given arrays, which are used as is
+	 * and must not be changed afterwards.
+	 *
+	 * @param alphabetLength The size of the alphabet of the trie
+	 * @param base The base array
+	 * @param check The check array, of the same length
+	 */
+	FrozenDoubleArrayTrie(int alphabetLength, int[] base, int[] check) {
+		super(alphabetLength);
+		if (base.length != check.length || base.length == 0) {
+			throw new IllegalArgumentException("Invalid array lengths " + base.length + ", " + check.length);
+		}
+		this.base = base;
+		this.check = check;
+		this.ranks = new int[base.length];
+		this.keyCount = computeRanks();
+		this.jumpTable = null;
+	}
+
+	/**
+	 * Constructs a frozen trie over arrays whose ranks are already known,
+	 * as when loaded from a file. Nothing is checked or computed.
+	 */
+	FrozenDoubleArrayTrie(int alphabetLength, int[] base, int[] check, int[] ranks, int keyCount) {
+		super(alphabetLength);
+		this.base = base;
+		this.check = check;
+		this.ranks = ranks;
+		this.keyCount = keyCount;
+		this.jumpTable = null;
+	}
+
+	private FrozenDoubleArrayTrie(FrozenDoubleArrayTrie source, int[] jumpTable) {
+		super(source.alphabetLength);
+		this.base = source.base;
+		this.check = source.check;
+		this.ranks = source.ranks;
+		this.keyCount = source.keyCount;
+		this.jumpTable = jumpTable;
+	}
+
+	/**
+	 * Returns a frozen copy of <tt>trie</tt>. The copy does not see later
+	 * changes to the original.
+	 *
+	 * @param trie The trie to copy
+	 * @return The frozen copy
+	 */
+	public static FrozenDoubleArrayTrie freeze(AbstractDoubleArrayTrie trie) {
+		int size = trie.getSize();
+		int[] base = new int[size];
+		int[] check = new int[size];
+		for (int i = 0; i < size; i++) {
+			base[i] = trie.getBase(i);
+			check[i] = trie.getCheck(i);
+		}
+		return new FrozenDoubleArrayTrie(trie.getAlphabetSize(), base, check);
+	}
+
+	/**
+	 * Returns a trie sharing the arrays of this one that resolves the first
+	 * two symbols of a lookup through a table of alphabet size squared
+	 * entries. The table is derived from the arrays, which never change,
+	 * so it stays consistent for the life of the trie.
+	 *
+	 * @return The trie with the jump table, or this one if it already has
+	 * 			one
+	 * @throws IllegalStateException If the alphabet is larger than
+	 * 			MAX_JUMP_TABLE_ALPHABET
+	 */
+	public FrozenDoubleArrayTrie withJumpTable() {
+		if (jumpTable != null) {
+			return this;
+		}
+		if (alphabetLength > MAX_JUMP_TABLE_ALPHABET) {
+			throw new IllegalStateException("No jump table for an alphabet of " + alphabetLength);
+		}
+		int[] table = new int[alphabetLength * alphabetLength];
+		Arrays.fill(table, -1);
+		for (int first = 0; first < alphabetLength; first++) {
+			int child = getChild(0, first);
+			if (child < 0) {
+				continue;
+			}
+			// getChild() finds nothing below a leaf, so those stay -1
+			for (int second = 0; second < alphabetLength; second++) {
+				table[first * alphabetLength + second] = getChild(child, second);
+			}
+		}
+		return new FrozenDoubleArrayTrie(this, table);
+	}
+
+	/**
+	 * Returns true if lookups go through a jump table.
+	 */
+	public boolean hasJumpTable() {
+		return jumpTable != null;
+	}
+
+	/**
+	 * Walks the arrays directly rather than through the accessors and
+	 * events, with the same results as the walk of the superclass. Symbols
+	 * outside the alphabet are not found. With listeners registered, the
+	 * walk of the superclass is used, so that they see every event.
+	 *
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#containsPrefix(org.digitalstain.datrie.store.IntegerList)
+	 */
+	@Override
+	public SearchResult containsPrefix(IntegerList prefix) {
+		if (hasListeners()) {
+			return super.containsPrefix(prefix);
+		}
+		int length = prefix.size();
+		int state = 0;
+		int i = 0;
+		if (jumpTable != null && length >= 2) {
+			int first = prefix.get(0);
+			int second = prefix.get(1);
+			if (first < 0 || first >= alphabetLength || second < 0 || second >= alphabetLength) {
+				return SearchResult.NOT_FOUND;
+			}
+			state = jumpTable[first * alphabetLength + second];
+			if (state < 0) {
+				return SearchResult.NOT_FOUND;
+			}
+			if (base[state] == LEAF_BASE_VALUE) {
+				return length == 2 ? SearchResult.PERFECT_MATCH : SearchResult.NOT_FOUND;
+			}
+			i = 2;
+		}
+		for (; i < length; i++) {
+			int symbol = prefix.get(i);
+			int transition = base[state] + symbol;
+			if (symbol < 0 || symbol >= alphabetLength || transition >= check.length
+					|| check[transition] != state) {
+				return SearchResult.NOT_FOUND;
+			}
+			if (base[transition] == LEAF_BASE_VALUE) {
+				return i == length - 1 ? SearchResult.PERFECT_MATCH : SearchResult.NOT_FOUND;
+			}
+			state = transition;
+		}
+		return SearchResult.PURE_PREFIX;
+	}
+
+	/**
+	 * The rank of every state, for writing it out. Must not be modified.
+	 */
+	int[] getRanks() {
+		return ranks;
+	}
+
+	/**
+	 * Numbers the states in a preorder walk that visits children by
+	 * increasing symbol, which is lexicographic order of the keys.
+	 *
+	 * @return The number of leaves
+	 */
+	private int computeRanks() {
+		IntegerList stack = new IntegerArrayList();
+		stack.add(0);
+		int rank = 0;
+		while (!stack.isEmpty()) {
+			int state = stack.remove(stack.size() - 1);
+			ranks[state] = rank;
+			int stateBase = base[state];
+			if (stateBase == LEAF_BASE_VALUE) {
+				rank++;
+				continue;
+			}
+			// Push in reverse so that the smallest symbol is visited first
+			int symbol = Math.min(alphabetLength, base.length - stateBase) - 1;
+			for (; stateBase >= 0 && symbol >= 0; symbol--) {
+				if (check[stateBase + symbol] == state) {
+					stack.add(stateBase + symbol);
+				}
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Returns the number of keys in this trie.
+	 *
+	 * @return The number of keys
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Returns the dense id of <tt>key</tt>, its position among all keys in
+	 * lexicographic order. Takes O(length of key).
+	 *
+	 * @param key The key to look up
+	 * @return The id of the key, in [0, getKeyCount()), or -1 if absent
+	 */
+	public int keyToId(IntegerList key) {
+		int state = 0;
+		for (int i = 0; i < key.size(); i++) {
+			int symbol = key.get(i);
+			if (symbol < 0 || symbol >= alphabetLength) {
+				return -1;
+			}
+			state = getChild(state, symbol);
+			if (state < 0) {
+				return -1;
+			}
+		}
+		return base[state] == LEAF_BASE_VALUE ? ranks[state] : -1;
+	}
+
+	/**
+	 * Appends the key with the given id to <tt>key</tt>. At every state the
+	 * walk takes the last child whose rank does not exceed the id, so it
+	 * costs O(length of key) transitions, each scanning the children of one
+	 * state.
+	 *
+	 * @param id The id of the key
+	 * @param key The list to append the key to
+	 * @return false if there is no key with this id
+	 */
+	public boolean idToKey(int id, IntegerList key) {
+		if (id < 0 || id >= keyCount) {
+			return false;
+		}
+		int state = 0;
+		while (base[state] != LEAF_BASE_VALUE) {
+			int stateBase = base[state];
+			int limit = Math.min(alphabetLength, base.length - stateBase);
+			int chosen = -1;
+			int chosenSymbol = -1;
+			for (int symbol = 0; symbol < limit; symbol++) {
+				int child = stateBase + symbol;
+				if (check[child] == state) {
+					if (ranks[child] > id) {
+						break;
+					}
+					chosen = child;
+					chosenSymbol = symbol;
+				}
+			}
+			// Cannot fail for a valid id, since every key has a leaf
+			assert chosen >= 0;
+			key.add(chosenSymbol);
+			state = chosen;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the key with the given id.
+	 *
+	 * @param id The id of the key
+	 * @return The key, or null if there is no key with this id
+	 */
+	public IntegerList idToKey(int id) {
+		IntegerList key = new IntegerArrayList();
+		return idToKey(id, key) ? key : null;
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#getBase(int)
+	 */
+	@Override
+	protected int getBase(int position) {
+		return base[position];
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#getCheck(int)
+	 */
+	@Override
+	protected int getCheck(int position) {
+		return check[position];
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#getSize()
+	 */
+	@Override
+	protected int getSize() {
+		return base.length;
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#setBase(int, int)
+	 */
+	@Override
+	protected void setBase(int position, int value) {
+		throw new UnsupportedOperationException("The trie is frozen");
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#setCheck(int, int)
+	 */
+	@Override
+	protected void setCheck(int position, int value) {
+		throw new UnsupportedOperationException("The trie is frozen");
+	}
+
+	/**
+	 * Indexes within the arrays are always reachable, anything
+	 * beyond would need the trie to grow.
+	 *
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#ensureReachableIndex(int)
+	 */
+	@Override
+	protected void ensureReachableIndex(int index) {
+		if (index >= base.length) {
+			throw new UnsupportedOperationException("The trie is frozen");
+		}
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#nextAvailableHop(int)
+	 */
+	@Override
+	protected int nextAvailableHop(int forValue) {
+		throw new UnsupportedOperationException("The trie is frozen");
+	}
+
+	/**
+	 * @see org.digitalstain.datrie.AbstractDoubleArrayTrie#nextAvailableMove(java.util.SortedSet)
+	 */
+	@Override
+	protected int nextAvailableMove(SortedSet<Integer> values) {
+		throw new UnsupportedOperationException("The trie is frozen");
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Receives the keys found by a FuzzySearcher.
+ */
+public interface FuzzyMatchHandler {
+
+	/**
+	 * Called once for every key within the requested edit distance.
+	 *
+	 * @param key The key found. The list is reused by the searcher and
+	 * 			must not be modified or retained.
+	 * @param distance The edit distance of the key from the query
+	 * @return true to continue the search, false to stop
+	 */
+	public boolean match(IntegerList key, int distance);
+}
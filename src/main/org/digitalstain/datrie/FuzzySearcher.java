@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Finds every key of a trie within a bounded Levenshtein distance of
+ * a query.
+ * <br>
+ * The trie is walked depth first while one row of the edit distance
+ * table is kept per depth: the row at depth d holds the distances between
+ * the path to the current state and every prefix of the query. A subtree
+ * is abandoned as soon as the smallest value of its row exceeds the bound,
+ * since distances can only grow further down. Rows, the walk stack and the
+ * key buffer are kept between searches and only ever grow, so a search
+ * allocates nothing per visited state.
+ * <br>
+ * Instances are not thread safe; use one searcher per thread. The trie
+ * must not change while a search is running.
+ */
+public class FuzzySearcher {
+
+	private final AbstractDoubleArrayTrie trie;
+
+	// One edit distance row per depth of the walk
+	private int[][] rows = new int[0][];
+	// The state at every depth of the walk
+	private int[] states = new int[0];
+	// The next symbol to try at every depth of the walk
+	private int[] nextSymbols = new int[0];
+	// The symbols on the path to the current state
+	private final IntegerList key = new IntegerArrayList();
+
+	public FuzzySearcher(AbstractDoubleArrayTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Reports every key whose edit distance from <tt>query</tt> is at most
+	 * <tt>maxDistance</tt>, in lexicographic order.
+	 *
+	 * @param query The string to look for
+	 * @param maxDistance The largest edit distance to accept
+	 * @param handler The receiver of the keys found
+	 * @return The number of keys reported
+	 */
+	public int search(IntegerList query, int maxDistance, FuzzyMatchHandler handler) {
+		if (maxDistance < 0) {
+			throw new IllegalArgumentException("Negative distance " + maxDistance);
+		}
+		int queryLength = query.size();
+		int alphabetLength = trie.getAlphabetSize();
+		ensureDepth(0, queryLength);
+		while (key.size() > 0) {
+			key.remove(key.size() - 1);
+		}
+
+		int[] first = rows[0];
+		for (int j = 0; j <= queryLength; j++) {
+			first[j] = j;
+		}
+		states[0] = 0;
+		nextSymbols[0] = 0;
+		int depth = 0;
+		int found = 0;
+
+		while (depth >= 0) {
+			int state = states[depth];
+			int stateBase = trie.getBase(state);
+			/*
+			 * Children live at base + symbol, so symbols that would land beyond
+			 * the end of the store cannot be children.
+			 */
+			int symbolLimit = Math.min(alphabetLength, trie.getSize() - stateBase);
+			int child = -1;
+			int symbol = nextSymbols[depth];
+			for (; stateBase >= 0 && symbol < symbolLimit; symbol++) {
+				child = trie.getChild(state, symbol);
+				if (child >= 0) {
+					break;
+				}
+			}
+			if (child < 0) {
+				// All children of this state are done
+				depth--;
+				if (depth >= 0) {
+					key.remove(key.size() - 1);
+				}
+				continue;
+			}
+			nextSymbols[depth] = symbol + 1;
+
+			ensureDepth(depth + 1, queryLength);
+			int[] previous = rows[depth];
+			int[] row = rows[depth + 1];
+			row[0] = previous[0] + 1;
+			int rowMinimum = row[0];
+			for (int j = 1; j <= queryLength; j++) {
+				int substitution = previous[j - 1] + (query.get(j - 1) == symbol ? 0 : 1);
+				int deletion = previous[j] + 1;
+				int insertion = row[j - 1] + 1;
+				int value = Math.min(substitution, Math.min(deletion, insertion));
+				row[j] = value;
+				if (value < rowMinimum) {
+					rowMinimum = value;
+				}
+			}
+			if (rowMinimum > maxDistance) {
+				// Nothing below this child can get back within the bound
+				continue;
+			}
+
+			key.add(symbol);
+			if (trie.getBase(child) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+				if (row[queryLength] <= maxDistance) {
+					found++;
+					if (!handler.match(key, row[queryLength])) {
+						break;
+					}
+				}
+				key.remove(key.size() - 1);
+				continue;
+			}
+			depth++;
+			states[depth] = child;
+			nextSymbols[depth] = 0;
+		}
+		return found;
+	}
+
+	/**
+	 * Makes room for level <tt>depth</tt> of the walk, with a row
+	 * long enough for a query of <tt>queryLength</tt> symbols.
+	 */
+	private void ensureDepth(int depth, int queryLength) {
+		if (rows.length <= depth) {
+			int newLength = Math.max(depth + 1, rows.length * 2);
+			int[][] newRows = new int[newLength][];
+			System.arraycopy(rows, 0, newRows, 0, rows.length);
+			rows = newRows;
+			int[] newStates = new int[newLength];
+			System.arraycopy(states, 0, newStates, 0, states.length);
+			states = newStates;
+			int[] newSymbols = new int[newLength];
+			System.arraycopy(nextSymbols, 0, newSymbols, 0, nextSymbols.length);
+			nextSymbols = newSymbols;
+		}
+		if (rows[depth] == null || rows[depth].length <= queryLength) {
+			rows[depth] = new int[queryLength + 1];
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.digitalstain.datrie.store.IntegerArrayListFactory;
+import org.digitalstain.datrie.store.IntegerList;
+import org.digitalstain.datrie.store.IntegerListFactory;
+
+/**
+ * A trie that keeps statistics about its own operation, to explain slow
+ * insertions and typical lookups.
+ * <br>
+ * On the write side it counts conflict resolutions, relocated children,
+ * the scans for consecutive free positions and their lengths, growth of
+ * the arrays and the time of every insertion. On the read side it keeps a
+ * histogram of the depth at which lookups end. Everything is gathered
+ * from the events of the trie and the allocator hooks. When collection is
+ * disabled the listener that gathers the events is removed, so that they
+ * cost no more than on a plain trie, and the hooks return after reading a
+ * single volatile flag. A thread that has not yet seen the removal may
+ * still call the listener, which then checks the flag too.
+ * <br>
+ * Write side counters follow the trie in assuming a single writer. The
+ * lookup counters may be updated from many threads. TrieMetrics exposes
+ * all of them through JMX.
+ */
+public class InstrumentedTrie extends DoubleArrayTrieImpl {
+
+	/**
+	 * The number of buckets of the lookup depth histogram. Lookups that
+	 * end deeper are counted in the last bucket.
+	 */
+	public static final int DEPTH_BUCKETS = 64;
+
+	private volatile boolean enabled = true;
+
+	private volatile long inserts;
+	private volatile long insertNanos;
+	private volatile long maxInsertNanos;
+	private volatile long conflictResolutions;
+	private volatile long relocatedChildren;
+	private volatile long maxRelocatedChildren;
+	private volatile long freeScans;
+	private volatile long freeScanLength;
+	private volatile long maxFreeScanLength;
+	private volatile long failedFreeScans;
+	private volatile long growthEvents;
+	// The children relocated by the insertion in progress
+	private long insertRelocations;
+
+	private final AtomicLongArray lookupDepths = new AtomicLongArray(DEPTH_BUCKETS);
+	private final Collector collector = new Collector();
+
+	public InstrumentedTrie(int alphabetLength) {
+		this(alphabetLength, IntegerArrayListFactory.newInstance());
+	}
+
+	public InstrumentedTrie(int alphabetLength, IntegerListFactory listFactory) {
+		this(alphabetLength, listFactory, new FirstFitPolicy());
+	}
+
+	/**
+	 * Constructs an instrumented trie that places states as
+	 * <tt>placement</tt> chooses, to compare placement policies.
+	 */
+	public InstrumentedTrie(int alphabetLength, PlacementPolicy placement) {
+		this(alphabetLength, IntegerArrayListFactory.newInstance(), placement);
+	}
+
+	public InstrumentedTrie(int alphabetLength, IntegerListFactory listFactory, PlacementPolicy placement) {
+		super(alphabetLength, listFactory, placement);
+		addListener(collector);
+	}
+
+	/**
+	 * Turns collection on or off. Collection starts enabled. Turning it
+	 * back on registers the collecting listener after any listeners added
+	 * meanwhile.
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		if (enabled == this.enabled) {
+			return;
+		}
+		this.enabled = enabled;
+		if (enabled) {
+			addListener(collector);
+		} else {
+			removeListener(collector);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public boolean addToTrie(IntegerList string) {
+		if (!enabled) {
+			return super.addToTrie(string);
+		}
+		insertRelocations = 0;
+		long start = System.nanoTime();
+		boolean changed = super.addToTrie(string);
+		long elapsed = System.nanoTime() - start;
+		inserts++;
+		insertNanos += elapsed;
+		if (elapsed > maxInsertNanos) {
+			maxInsertNanos = elapsed;
+		}
+		if (insertRelocations > maxRelocatedChildren) {
+			maxRelocatedChildren = insertRelocations;
+		}
+		return changed;
+	}
+
+	@Override
+	protected void ensureReachableIndex(int limit) {
+		if (enabled && limit >= getSize()) {
+			growthEvents++;
+		}
+		super.ensureReachableIndex(limit);
+	}
+
+	@Override
+	protected void updateFreeScan(int scanned, int amount, boolean found) {
+		super.updateFreeScan(scanned, amount, found);
+		if (enabled) {
+			freeScans++;
+			freeScanLength += scanned;
+			if (scanned > maxFreeScanLength) {
+				maxFreeScanLength = scanned;
+			}
+			if (!found) {
+				failedFreeScans++;
+			}
+		}
+	}
+
+	/**
+	 * Clears all statistics.
+	 */
+	public void reset() {
+		inserts = 0;
+		insertNanos = 0;
+		maxInsertNanos = 0;
+		conflictResolutions = 0;
+		relocatedChildren = 0;
+		maxRelocatedChildren = 0;
+		freeScans = 0;
+		freeScanLength = 0;
+		maxFreeScanLength = 0;
+		failedFreeScans = 0;
+		growthEvents = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			lookupDepths.set(i, 0);
+		}
+	}
+
+	public long getInserts() {
+		return inserts;
+	}
+
+	public long getInsertNanos() {
+		return insertNanos;
+	}
+
+	public long getMaxInsertNanos() {
+		return maxInsertNanos;
+	}
+
+	/**
+	 * Returns the number of times the children of a state had to be
+	 * moved to make room for a new one.
+	 */
+	public long getConflictResolutions() {
+		return conflictResolutions;
+	}
+
+	public long getRelocatedChildren() {
+		return relocatedChildren;
+	}
+
+	/**
+	 * Returns the most children relocated by a single insertion.
+	 */
+	public long getMaxRelocatedChildren() {
+		return maxRelocatedChildren;
+	}
+
+	public long getFreeScans() {
+		return freeScans;
+	}
+
+	/**
+	 * Returns the total number of free positions looked at by
+	 * all scans for consecutive free positions.
+	 */
+	public long getFreeScanLength() {
+		return freeScanLength;
+	}
+
+	public long getMaxFreeScanLength() {
+		return maxFreeScanLength;
+	}
+
+	/**
+	 * Returns the number of scans that found no room and
+	 * made the arrays grow instead.
+	 */
+	public long getFailedFreeScans() {
+		return failedFreeScans;
+	}
+
+	/**
+	 * Returns the number of times the arrays were extended.
+	 */
+	public long getGrowthEvents() {
+		return growthEvents;
+	}
+
+	/**
+	 * Returns the length of the base and check arrays.
+	 */
+	public int getCellCount() {
+		return getSize();
+	}
+
+	public int getFreeCellCount() {
+		return getFreeCount();
+	}
+
+	/**
+	 * Returns the fraction of cells that hold a state.
+	 */
+	public double getFillRatio() {
+		int size = getSize();
+		return size == 0 ? 0 : (double) (size - getFreeCount()) / size;
+	}
+
+	/**
+	 * Returns the number of lookups that ended at every depth, the last
+	 * bucket counting all deeper ones as well.
+	 */
+	public long[] getLookupDepthHistogram() {
+		long[] histogram = new long[DEPTH_BUCKETS];
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			histogram[i] = lookupDepths.get(i);
+		}
+		return histogram;
+	}
+
+	public long getLookups() {
+		long total = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			total += lookupDepths.get(i);
+		}
+		return total;
+	}
+
+	public double getMeanLookupDepth() {
+		long total = 0;
+		long weighted = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			long count = lookupDepths.get(i);
+			total += count;
+			weighted += count * i;
+		}
+		return total == 0 ? 0 : (double) weighted / total;
+	}
+
+	/**
+	 * Gathers the statistics that come with the events of the trie.
+	 */
+	private class Collector extends TrieListenerAdapter {
+
+		@Override
+		public void childMoved(int parentIndex, int forCharacter, int oldParentBase, int newParentBase) {
+			if (enabled) {
+				relocatedChildren++;
+				insertRelocations++;
+			}
+		}
+
+		@Override
+		public void stateMoved(int stateIndex, int newBase) {
+			if (enabled) {
+				conflictResolutions++;
+			}
+		}
+
+		@Override
+		public void searchFinished(IntegerList string, int depth, SearchResult result) {
+			if (enabled) {
+				lookupDepths.incrementAndGet(Math.min(depth, DEPTH_BUCKETS - 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A cursor over the keys of a trie in lexicographic order of their symbols.
+ * <br>
+ * The children of every state are laid out at base + symbol, so walking
+ * them by increasing symbol visits the keys in order without sorting. The
+ * cursor keeps the path from the root to the current key as an explicit
+ * stack, which lets it move to the next or previous key from where it
+ * stands: a page of n keys costs O(n) amortized steps, wherever in the
+ * dictionary the page starts. Nothing is allocated per key; the stack and
+ * the key buffer only grow when a longer key is met.
+ * <br>
+ * A cursor is either positioned on a key or invalid, after running off
+ * either end or failing a seek. The trie must not change while a cursor
+ * is in use.
+ */
+public class KeyCursor {
+
+	private final AbstractDoubleArrayTrie trie;
+
+	// The states on the path to the current key, states[0] is the root
+	private int[] states = new int[16];
+	// The index of the current state in states, -1 when invalid
+	private int depth = -1;
+	// The symbols on the path to the current key
+	private final IntegerList key = new IntegerArrayList();
+	// The exclusive upper bound for next(), null if none
+	private IntegerList upperBound;
+
+	public KeyCursor(AbstractDoubleArrayTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Returns true if the cursor is positioned on a key.
+	 *
+	 * @return true if key() is a key of the trie
+	 */
+	public boolean isValid() {
+		return depth >= 0;
+	}
+
+	/**
+	 * Returns the key the cursor is positioned on. The list is reused and
+	 * changes as the cursor moves.
+	 *
+	 * @return The current key
+	 * @throws IllegalStateException If the cursor is not positioned on a key
+	 */
+	public IntegerList key() {
+		if (depth < 0) {
+			throw new IllegalStateException("Cursor is not positioned on a key");
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the index in the base array of the leaf of the current key.
+	 *
+	 * @return The state of the current key
+	 * @throws IllegalStateException If the cursor is not positioned on a key
+	 */
+	public int state() {
+		if (depth < 0) {
+			throw new IllegalStateException("Cursor is not positioned on a key");
+		}
+		return states[depth];
+	}
+
+	/**
+	 * Moves to the smallest key.
+	 *
+	 * @return true if the trie is not empty
+	 */
+	public boolean first() {
+		upperBound = null;
+		reset();
+		return descendLeftmost() || advance();
+	}
+
+	/**
+	 * Moves to the greatest key.
+	 *
+	 * @return true if the trie is not empty
+	 */
+	public boolean last() {
+		upperBound = null;
+		reset();
+		return descendRightmost() || retreat();
+	}
+
+	/**
+	 * Moves to the smallest key greater than or equal to <tt>target</tt>.
+	 *
+	 * @param target The key to seek
+	 * @return true if there is such a key
+	 */
+	public boolean ceiling(IntegerList target) {
+		upperBound = null;
+		return seekCeiling(target);
+	}
+
+	/**
+	 * Moves to the greatest key less than or equal to <tt>target</tt>.
+	 *
+	 * @param target The key to seek
+	 * @return true if there is such a key
+	 */
+	public boolean floor(IntegerList target) {
+		upperBound = null;
+		reset();
+		for (int i = 0; i < target.size(); i++) {
+			int state = states[depth];
+			if (isLeaf(state)) {
+				// The current key is a proper prefix of the target, so it is smaller
+				return true;
+			}
+			int symbol = target.get(i);
+			int child = trie.getChild(state, symbol);
+			if (child >= 0) {
+				push(symbol, child);
+				continue;
+			}
+			int smaller = previousChild(state, symbol - 1);
+			if (smaller < 0) {
+				// Everything under this state is greater than the target
+				return retreat();
+			}
+			push(smaller, trie.getChild(state, smaller));
+			return descendRightmost() || retreat();
+		}
+		if (isLeaf(states[depth])) {
+			return true;
+		}
+		// The target is a proper prefix of every key below, all of them greater
+		return retreat();
+	}
+
+	/**
+	 * Moves to the first key in <tt>[from, to)</tt> and makes next() stop
+	 * before <tt>to</tt>. This is the starting point of a range scan.
+	 *
+	 * @param from The inclusive lower bound, null for the smallest key
+	 * @param to The exclusive upper bound, null for none
+	 * @return true if the range is not empty
+	 */
+	public boolean range(IntegerList from, IntegerList to) {
+		boolean found = from == null ? first() : seekCeiling(from);
+		if (to != null) {
+			upperBound = new IntegerArrayList(to.size());
+			for (int i = 0; i < to.size(); i++) {
+				upperBound.add(to.get(i));
+			}
+		}
+		return found && checkUpperBound();
+	}
+
+	/**
+	 * Moves to the next key in order, stopping at the upper bound set by
+	 * range(), if any.
+	 *
+	 * @return true if there was a next key
+	 */
+	public boolean next() {
+		if (depth < 0) {
+			return false;
+		}
+		return advance() && checkUpperBound();
+	}
+
+	/**
+	 * Moves to the previous key in order.
+	 *
+	 * @return true if there was a previous key
+	 */
+	public boolean previous() {
+		if (depth < 0) {
+			return false;
+		}
+		return retreat();
+	}
+
+	/**
+	 * Reads up to <tt>max</tt> keys from the current one on, moving the
+	 * cursor past them, and hands them to <tt>visitor</tt>. Calling this
+	 * repeatedly pages through the keys.
+	 *
+	 * @param max The size of the page
+	 * @param visitor The receiver of the keys
+	 * @return The number of keys visited
+	 */
+	public int page(int max, KeyVisitor visitor) {
+		int count = 0;
+		while (count < max && depth >= 0) {
+			count++;
+			boolean more = visitor.visit(key);
+			next();
+			if (!more) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	private boolean seekCeiling(IntegerList target) {
+		reset();
+		for (int i = 0; i < target.size(); i++) {
+			int state = states[depth];
+			if (isLeaf(state)) {
+				// The current key is a proper prefix of the target, so it is smaller
+				return advance();
+			}
+			int symbol = target.get(i);
+			int child = trie.getChild(state, symbol);
+			if (child >= 0) {
+				push(symbol, child);
+				continue;
+			}
+			int greater = nextChild(state, symbol + 1);
+			if (greater < 0) {
+				// Everything under this state is smaller than the target
+				return advance();
+			}
+			push(greater, trie.getChild(state, greater));
+			return descendLeftmost() || advance();
+		}
+		return isLeaf(states[depth]) || descendLeftmost() || advance();
+	}
+
+	private boolean checkUpperBound() {
+		if (depth >= 0 && upperBound != null && compare(key, upperBound) >= 0) {
+			depth = -1;
+		}
+		return depth >= 0;
+	}
+
+	/**
+	 * Compares two strings lexicographically, a proper prefix
+	 * being smaller.
+	 */
+	static int compare(IntegerList first, IntegerList second) {
+		int length = Math.min(first.size(), second.size());
+		for (int i = 0; i < length; i++) {
+			int a = first.get(i);
+			int b = second.get(i);
+			if (a != b) {
+				return a < b ? -1 : 1;
+			}
+		}
+		return first.size() - second.size();
+	}
+
+	// Movement primitives
+
+	private void reset() {
+		while (!key.isEmpty()) {
+			key.remove(key.size() - 1);
+		}
+		depth = 0;
+		states[0] = 0;
+	}
+
+	private void push(int symbol, int state) {
+		if (depth + 1 == states.length) {
+			int[] newStates = new int[states.length * 2];
+			System.arraycopy(states, 0, newStates, 0, states.length);
+			states = newStates;
+		}
+		states[++depth] = state;
+		key.add(symbol);
+	}
+
+	/**
+	 * Pops the current state and returns the symbol that led to it.
+	 */
+	private int pop() {
+		depth--;
+		return key.remove(key.size() - 1);
+	}
+
+	private boolean isLeaf(int state) {
+		return trie.getBase(state) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+	}
+
+	/**
+	 * Follows the smallest children down to a leaf. Returns false on
+	 * reaching a state without children that is not a leaf, which only
+	 * the root of an empty trie is.
+	 */
+	private boolean descendLeftmost() {
+		while (!isLeaf(states[depth])) {
+			int symbol = nextChild(states[depth], 0);
+			if (symbol < 0) {
+				return false;
+			}
+			push(symbol, trie.getChild(states[depth], symbol));
+		}
+		return true;
+	}
+
+	private boolean descendRightmost() {
+		while (!isLeaf(states[depth])) {
+			int symbol = previousChild(states[depth], trie.getAlphabetSize() - 1);
+			if (symbol < 0) {
+				return false;
+			}
+			push(symbol, trie.getChild(states[depth], symbol));
+		}
+		return true;
+	}
+
+	/**
+	 * Moves to the first key after the subtree of the current state.
+	 */
+	private boolean advance() {
+		while (depth > 0) {
+			int symbol = pop();
+			int next = nextChild(states[depth], symbol + 1);
+			if (next >= 0) {
+				push(next, trie.getChild(states[depth], next));
+				if (descendLeftmost()) {
+					return true;
+				}
+			}
+		}
+		depth = -1;
+		return false;
+	}
+
+	/**
+	 * Moves to the last key before the subtree of the current state.
+	 */
+	private boolean retreat() {
+		while (depth > 0) {
+			int symbol = pop();
+			int previous = previousChild(states[depth], symbol - 1);
+			if (previous >= 0) {
+				push(previous, trie.getChild(states[depth], previous));
+				if (descendRightmost()) {
+					return true;
+				}
+			}
+		}
+		depth = -1;
+		return false;
+	}
+
+	/**
+	 * Returns the smallest symbol at least <tt>from</tt> that leads to a
+	 * child of <tt>state</tt>, -1 if none.
+	 */
+	private int nextChild(int state, int from) {
+		int stateBase = trie.getBase(state);
+		if (stateBase < 0) {
+			return -1;
+		}
+		int limit = Math.min(trie.getAlphabetSize(), trie.getSize() - stateBase);
+		for (int symbol = from; symbol < limit; symbol++) {
+			if (trie.getCheck(stateBase + symbol) == state) {
+				return symbol;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the greatest symbol at most <tt>from</tt> that leads to a
+	 * child of <tt>state</tt>, -1 if none.
+	 */
+	private int previousChild(int state, int from) {
+		int stateBase = trie.getBase(state);
+		if (stateBase < 0) {
+			return -1;
+		}
+		int symbol = Math.min(from, trie.getSize() - stateBase - 1);
+		for (; symbol >= 0; symbol--) {
+			if (trie.getCheck(stateBase + symbol) == state) {
+				return symbol;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.digitalstain.datrie.mapping.NaturalMapping;
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A glob or simple regular expression compiled to an automaton over the
+ * symbols of a trie, for enumerating only the keys that match it.
+ * <br>
+ * The pattern is first compiled to a Thompson NFA. The DFA is then built
+ * lazily, one state at a time, while the trie is walked: every trie state is
+ * visited together with the DFA state its path leads to, and a branch is
+ * abandoned as soon as the DFA dies on it. The cost of a match is therefore
+ * proportional to the part of the trie the pattern can still accept, not
+ * to the size of the dictionary. DFA transitions are kept per class of
+ * symbols that no part of the pattern tells apart, so their tables stay
+ * small even for large alphabets.
+ * <br>
+ * Globs support <tt>*</tt> (any sequence), <tt>?</tt> (any symbol),
+ * <tt>[abc]</tt>, <tt>[a-c]</tt>, <tt>[!abc]</tt> and <tt>\</tt> escapes.
+ * Regular expressions support literals, <tt>.</tt>, classes as above with
+ * <tt>^</tt> for negation, <tt>*</tt>, <tt>+</tt>, <tt>?</tt>, <tt>|</tt>
+ * and grouping with parentheses. Patterns always match whole keys.
+ * <br>
+ * The lazily built DFA is cached in the pattern, so instances are not
+ * thread safe.
+ */
+public class KeyPattern {
+
+	// Returned by step() when no key can match any more
+	private static final int DEAD = -1;
+	// Marks a DFA transition that has not been computed yet
+	private static final int UNKNOWN = -2;
+
+	// NFA node kinds
+	private static final int EPSILON = 0;
+	private static final int SYMBOL = 1;
+	private static final int ANY = 2;
+
+	private final int alphabetLength;
+
+	// The NFA, as parallel arrays indexed by node
+	private final IntegerList kinds = new IntegerArrayList();
+	private final IntegerList next1 = new IntegerArrayList();
+	private final IntegerList next2 = new IntegerArrayList();
+	private final IntegerList symbolSets = new IntegerArrayList();
+	private final List<BitSet> sets = new ArrayList<BitSet>();
+	private int acceptNode;
+
+	// Symbol classes, the symbols no part of the pattern distinguishes
+	private int[] classOf;
+	private int classCount;
+
+	// The DFA, built on demand
+	private final List<int[]> dfaStates = new ArrayList<int[]>();
+	private final List<int[]> dfaTransitions = new ArrayList<int[]>();
+	private final IntegerList dfaAccepting = new IntegerArrayList();
+	private final Map<NodeSet, Integer> dfaIndex = new HashMap<NodeSet, Integer>();
+	private int startState;
+
+	private KeyPattern(int alphabetLength) {
+		this.alphabetLength = alphabetLength;
+	}
+
+	/**
+	 * Compiles a glob over the characters mapped by <tt>mapping</tt>.
+	 *
+	 * @param glob The glob
+	 * @param mapping The mapping from characters to trie symbols
+	 * @param alphabetLength The alphabet size of the tries to match
+	 * @return The compiled pattern
+	 * @throws IllegalArgumentException If the glob is malformed
+	 */
+	public static KeyPattern compileGlob(String glob, NaturalMapping<Character> mapping,
+			int alphabetLength) {
+		KeyPattern pattern = new KeyPattern(alphabetLength);
+		Parser parser = pattern.new Parser(glob, mapping, true);
+		pattern.finish(parser.parseGlob());
+		return pattern;
+	}
+
+	/**
+	 * Compiles a regular expression over the characters mapped by
+	 * <tt>mapping</tt>.
+	 *
+	 * @param regex The regular expression
+	 * @param mapping The mapping from characters to trie symbols
+	 * @param alphabetLength The alphabet size of the tries to match
+	 * @return The compiled pattern
+	 * @throws IllegalArgumentException If the expression is malformed
+	 */
+	public static KeyPattern compileRegex(String regex, NaturalMapping<Character> mapping,
+			int alphabetLength) {
+		KeyPattern pattern = new KeyPattern(alphabetLength);
+		Parser parser = pattern.new Parser(regex, mapping, false);
+		int[] fragment = parser.parseAlternation();
+		if (parser.position < regex.length()) {
+			throw new IllegalArgumentException("Unexpected '" + regex.charAt(parser.position)
+					+ "' at " + parser.position + " in " + regex);
+		}
+		pattern.finish(fragment);
+		return pattern;
+	}
+
+	/**
+	 * Reports every key of <tt>trie</tt> that matches this pattern, in
+	 * lexicographic order.
+	 *
+	 * @param trie The trie to search
+	 * @param visitor The receiver of the matching keys
+	 * @return The number of keys reported
+	 */
+	public int match(AbstractDoubleArrayTrie trie, KeyVisitor visitor) {
+		return match(trie, -1, visitor);
+	}
+
+	/**
+	 * Reports every key of <tt>trie</tt> that is a match of this pattern
+	 * followed by <tt>terminator</tt>, for tries that end every key with
+	 * a terminator symbol. Keys are reported with their terminator.
+	 *
+	 * @param trie The trie to search
+	 * @param terminator The symbol every key ends with, -1 for none
+	 * @param visitor The receiver of the matching keys
+	 * @return The number of keys reported
+	 */
+	public int match(AbstractDoubleArrayTrie trie, int terminator, KeyVisitor visitor) {
+		if (trie.getAlphabetSize() != alphabetLength) {
+			throw new IllegalArgumentException("Pattern compiled for alphabet size " + alphabetLength
+					+ ", trie has " + trie.getAlphabetSize());
+		}
+		IntegerList key = new IntegerArrayList();
+		IntegerList trieStates = new IntegerArrayList();
+		IntegerList patternStates = new IntegerArrayList();
+		IntegerList nextSymbols = new IntegerArrayList();
+		trieStates.add(0);
+		patternStates.add(startState);
+		nextSymbols.add(0);
+		int found = 0;
+
+		while (!trieStates.isEmpty()) {
+			int depth = trieStates.size() - 1;
+			int state = trieStates.get(depth);
+			int stateBase = trie.getBase(state);
+			int symbolLimit = Math.min(alphabetLength, trie.getSize() - stateBase);
+			int child = -1;
+			int symbol = nextSymbols.get(depth);
+			for (; stateBase >= 0 && symbol < symbolLimit; symbol++) {
+				child = trie.getChild(state, symbol);
+				if (child >= 0) {
+					break;
+				}
+			}
+			if (child < 0) {
+				trieStates.remove(depth);
+				patternStates.remove(depth);
+				nextSymbols.remove(depth);
+				if (depth > 0) {
+					key.remove(key.size() - 1);
+				}
+				continue;
+			}
+			nextSymbols.set(depth, symbol + 1);
+
+			boolean leaf = trie.getBase(child) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+			int patternState = patternStates.get(depth);
+			if (symbol == terminator) {
+				// The terminator is not part of the pattern, it only closes the key
+				if (leaf && isAccepting(patternState)) {
+					key.add(symbol);
+					found++;
+					boolean more = visitor.visit(key);
+					key.remove(key.size() - 1);
+					if (!more) {
+						break;
+					}
+				}
+				continue;
+			}
+			int nextState = step(patternState, symbol);
+			if (nextState == DEAD) {
+				continue;
+			}
+			key.add(symbol);
+			if (leaf) {
+				if (terminator < 0 && isAccepting(nextState)) {
+					found++;
+					if (!visitor.visit(key)) {
+						break;
+					}
+				}
+				key.remove(key.size() - 1);
+				continue;
+			}
+			trieStates.add(child);
+			patternStates.add(nextState);
+			nextSymbols.add(0);
+		}
+		return found;
+	}
+
+	/**
+	 * Returns true if <tt>key</tt> as a whole matches this pattern.
+	 *
+	 * @param key The string to test
+	 * @return true if it matches
+	 */
+	public boolean matches(IntegerList key) {
+		int state = startState;
+		for (int i = 0; i < key.size() && state != DEAD; i++) {
+			int symbol = key.get(i);
+			if (symbol < 0 || symbol >= alphabetLength) {
+				return false;
+			}
+			state = step(state, symbol);
+		}
+		return state != DEAD && isAccepting(state);
+	}
+
+	// The DFA
+
+	private boolean isAccepting(int dfaState) {
+		return dfaAccepting.get(dfaState) != 0;
+	}
+
+	/**
+	 * Returns the DFA state reached from <tt>dfaState</tt> with
+	 * <tt>symbol</tt>, computing it on first use.
+	 */
+	private int step(int dfaState, int symbol) {
+		int symbolClass = classOf[symbol];
+		int[] transitions = dfaTransitions.get(dfaState);
+		int result = transitions[symbolClass];
+		if (result != UNKNOWN) {
+			return result;
+		}
+		int[] nodes = dfaStates.get(dfaState);
+		BitSet reached = new BitSet();
+		for (int node : nodes) {
+			int kind = kinds.get(node);
+			if (kind == ANY || (kind == SYMBOL && sets.get(symbolSets.get(node)).get(symbol))) {
+				reached.set(next1.get(node));
+			}
+		}
+		result = reached.isEmpty() ? DEAD : intern(closure(reached));
+		transitions[symbolClass] = result;
+		return result;
+	}
+
+	/**
+	 * Extends <tt>nodes</tt> with every node reachable through epsilon moves
+	 * and keeps only the nodes that matter for the DFA state: those that
+	 * consume a symbol and the accepting node.
+	 */
+	private int[] closure(BitSet nodes) {
+		IntegerList stack = new IntegerArrayList();
+		for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+			stack.add(node);
+		}
+		while (!stack.isEmpty()) {
+			int node = stack.remove(stack.size() - 1);
+			if (kinds.get(node) != EPSILON) {
+				continue;
+			}
+			for (int next : new int[] { next1.get(node), next2.get(node) }) {
+				if (next >= 0 && !nodes.get(next)) {
+					nodes.set(next);
+					stack.add(next);
+				}
+			}
+		}
+		IntegerList kept = new IntegerArrayList();
+		for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+			if (kinds.get(node) != EPSILON || node == acceptNode) {
+				kept.add(node);
+			}
+		}
+		int[] result = new int[kept.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = kept.get(i);
+		}
+		return result;
+	}
+
+	private int intern(int[] nodes) {
+		if (nodes.length == 0) {
+			return DEAD;
+		}
+		NodeSet key = new NodeSet(nodes);
+		Integer existing = dfaIndex.get(key);
+		if (existing != null) {
+			return existing.intValue();
+		}
+		int index = dfaStates.size();
+		dfaStates.add(nodes);
+		int[] transitions = new int[classCount];
+		Arrays.fill(transitions, UNKNOWN);
+		dfaTransitions.add(transitions);
+		dfaAccepting.add(Arrays.binarySearch(nodes, acceptNode) >= 0 ? 1 : 0);
+		dfaIndex.put(key, Integer.valueOf(index));
+		return index;
+	}
+
+	/**
+	 * Completes compilation once the whole pattern is parsed into
+	 * <tt>fragment</tt>: computes the symbol classes and the start state.
+	 */
+	private void finish(int[] fragment) {
+		acceptNode = fragment[1];
+		/*
+		 * Refine the partition of the alphabet by every set in the pattern.
+		 * Symbols in the same class behave identically in every DFA state.
+		 */
+		classOf = new int[alphabetLength];
+		classCount = 1;
+		for (BitSet set : sets) {
+			int[] split = new int[classCount * 2];
+			Arrays.fill(split, -1);
+			int newCount = 0;
+			for (int symbol = 0; symbol < alphabetLength; symbol++) {
+				int slot = classOf[symbol] * 2 + (set.get(symbol) ? 1 : 0);
+				if (split[slot] < 0) {
+					split[slot] = newCount++;
+				}
+				classOf[symbol] = split[slot];
+			}
+			classCount = newCount;
+		}
+		BitSet start = new BitSet();
+		start.set(fragment[0]);
+		int[] startNodes = closure(start);
+		startState = intern(startNodes);
+		if (startState == DEAD) {
+			// Cannot happen for a parsed pattern, the start always reaches something
+			throw new IllegalStateException("Empty start state");
+		}
+	}
+
+	// NFA construction. Fragments are {start node, end node}, the end node
+	// being an epsilon node with no outgoing edges yet.
+
+	private int node(int kind, int set) {
+		kinds.add(kind);
+		next1.add(-1);
+		next2.add(-1);
+		symbolSets.add(set);
+		return kinds.size() - 1;
+	}
+
+	private int[] symbolFragment(int kind, int set) {
+		int start = node(kind, set);
+		int end = node(EPSILON, -1);
+		next1.set(start, end);
+		return new int[] { start, end };
+	}
+
+	private int[] emptyFragment() {
+		int node = node(EPSILON, -1);
+		return new int[] { node, node };
+	}
+
+	private int[] concatenate(int[] first, int[] second) {
+		next1.set(first[1], second[0]);
+		return new int[] { first[0], second[1] };
+	}
+
+	private int[] alternate(int[] first, int[] second) {
+		int start = node(EPSILON, -1);
+		int end = node(EPSILON, -1);
+		next1.set(start, first[0]);
+		next2.set(start, second[0]);
+		next1.set(first[1], end);
+		next1.set(second[1], end);
+		return new int[] { start, end };
+	}
+
+	private int[] star(int[] fragment) {
+		int start = node(EPSILON, -1);
+		int end = node(EPSILON, -1);
+		next1.set(start, fragment[0]);
+		next2.set(start, end);
+		next1.set(fragment[1], fragment[0]);
+		next2.set(fragment[1], end);
+		return new int[] { start, end };
+	}
+
+	private int[] plus(int[] fragment) {
+		int end = node(EPSILON, -1);
+		next1.set(fragment[1], fragment[0]);
+		next2.set(fragment[1], end);
+		return new int[] { fragment[0], end };
+	}
+
+	private int[] optional(int[] fragment) {
+		int start = node(EPSILON, -1);
+		int end = node(EPSILON, -1);
+		next1.set(start, fragment[0]);
+		next2.set(start, end);
+		next1.set(fragment[1], end);
+		return new int[] { start, end };
+	}
+
+	/**
+	 * Recursive descent parser for both syntaxes, building the NFA of
+	 * the enclosing pattern as it goes.
+	 */
+	private class Parser {
+		private final String pattern;
+		private final NaturalMapping<Character> mapping;
+		private final boolean glob;
+		int position;
+
+		Parser(String pattern, NaturalMapping<Character> mapping, boolean glob) {
+			this.pattern = pattern;
+			this.mapping = mapping;
+			this.glob = glob;
+		}
+
+		int[] parseGlob() {
+			int[] result = emptyFragment();
+			while (position < pattern.length()) {
+				char c = pattern.charAt(position++);
+				int[] atom;
+				if (c == '*') {
+					atom = star(symbolFragment(ANY, -1));
+				}
+				else if (c == '?') {
+					atom = symbolFragment(ANY, -1);
+				}
+				else if (c == '[') {
+					atom = parseClass();
+				}
+				else {
+					atom = literal(c == '\\' ? escaped() : c);
+				}
+				result = concatenate(result, atom);
+			}
+			return result;
+		}
+
+		int[] parseAlternation() {
+			int[] result = parseSequence();
+			while (position < pattern.length() && pattern.charAt(position) == '|') {
+				position++;
+				result = alternate(result, parseSequence());
+			}
+			return result;
+		}
+
+		private int[] parseSequence() {
+			int[] result = emptyFragment();
+			while (position < pattern.length()) {
+				char c = pattern.charAt(position);
+				if (c == '|' || c == ')') {
+					break;
+				}
+				position++;
+				int[] atom;
+				if (c == '(') {
+					atom = parseAlternation();
+					if (position >= pattern.length() || pattern.charAt(position) != ')') {
+						throw error("Unclosed group");
+					}
+					position++;
+				}
+				else if (c == '.') {
+					atom = symbolFragment(ANY, -1);
+				}
+				else if (c == '[') {
+					atom = parseClass();
+				}
+				else if (c == '*' || c == '+' || c == '?') {
+					throw error("Nothing to repeat");
+				}
+				else {
+					atom = literal(c == '\\' ? escaped() : c);
+				}
+				while (position < pattern.length()) {
+					char quantifier = pattern.charAt(position);
+					if (quantifier == '*') {
+						atom = star(atom);
+					}
+					else if (quantifier == '+') {
+						atom = plus(atom);
+					}
+					else if (quantifier == '?') {
+						atom = optional(atom);
+					}
+					else {
+						break;
+					}
+					position++;
+				}
+				result = concatenate(result, atom);
+			}
+			return result;
+		}
+
+		private int[] parseClass() {
+			BitSet set = new BitSet(alphabetLength);
+			boolean negated = false;
+			if (position < pattern.length()
+					&& pattern.charAt(position) == (glob ? '!' : '^')) {
+				negated = true;
+				position++;
+			}
+			boolean first = true;
+			while (true) {
+				if (position >= pattern.length()) {
+					throw error("Unclosed class");
+				}
+				char c = pattern.charAt(position++);
+				if (c == ']' && !first) {
+					break;
+				}
+				first = false;
+				char from = c == '\\' ? escaped() : c;
+				char to = from;
+				if (position + 1 < pattern.length() && pattern.charAt(position) == '-'
+						&& pattern.charAt(position + 1) != ']') {
+					position++;
+					char end = pattern.charAt(position++);
+					to = end == '\\' ? escaped() : end;
+					if (to < from) {
+						throw error("Invalid range");
+					}
+				}
+				for (int ch = from; ch <= to; ch++) {
+					int symbol = mapping.toNatural(Character.valueOf((char) ch));
+					if (symbol >= 0 && symbol < alphabetLength) {
+						set.set(symbol);
+					}
+				}
+			}
+			if (negated) {
+				set.flip(0, alphabetLength);
+			}
+			return symbolFragment(SYMBOL, addSet(set));
+		}
+
+		private int[] literal(char c) {
+			BitSet set = new BitSet(alphabetLength);
+			int symbol = mapping.toNatural(Character.valueOf(c));
+			if (symbol >= 0 && symbol < alphabetLength) {
+				set.set(symbol);
+			}
+			return symbolFragment(SYMBOL, addSet(set));
+		}
+
+		private char escaped() {
+			if (position >= pattern.length()) {
+				throw error("Dangling escape");
+			}
+			return pattern.charAt(position++);
+		}
+
+		private int addSet(BitSet set) {
+			sets.add(set);
+			return sets.size() - 1;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + position + " in " + pattern);
+		}
+	}
+
+	/**
+	 * A set of NFA nodes, as a key for interning DFA states.
+	 */
+	private static final class NodeSet {
+		private final int[] nodes;
+		private final int hash;
+
+		NodeSet(int[] nodes) {
+			this.nodes = nodes;
+			this.hash = Arrays.hashCode(nodes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof NodeSet && Arrays.equals(nodes, ((NodeSet) other).nodes);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+/**
+ * Receives the matches found while scanning text with an
+ * AhoCorasickAutomaton.
+ */
+public interface PatternMatchHandler {
+
+	/**
+	 * Called once for every occurrence of a pattern in the text.
+	 *
+	 * @param pattern The id of the pattern that matched, as returned by
+	 * 			AhoCorasickAutomaton.getPatternId()
+	 * @param end The index in the text of the last symbol of the match
+	 * @return true to continue scanning, false to stop
+	 */
+	public boolean match(int pattern, int end);
+}
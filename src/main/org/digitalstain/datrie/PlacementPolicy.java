@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.SortedSet;
+
+/**
+ * Chooses the bases of the states of a DoubleArrayTrieImpl: that of a new
+ * state with its first child, and that of a state whose children must all
+ * move because a new one collides. Where a state is placed decides how
+ * often it collides again as it grows, so policies trade the density of
+ * the arrays against the number of relocations.
+ * <br>
+ * A policy sees the arrays through Cells. A base it returns must be at
+ * least 1, and the cells the children land on must be free or beyond the
+ * end of the arrays. Policies may keep statistics, so an instance must
+ * serve a single trie.
+ */
+public interface PlacementPolicy {
+
+	/**
+	 * The view of the arrays of a trie that a policy places states in.
+	 */
+	public interface Cells {
+
+		/**
+		 * Returns the length of the arrays.
+		 */
+		int getSize();
+
+		/**
+		 * Returns true if <tt>position</tt> holds no state, which all
+		 * positions beyond the arrays do.
+		 */
+		boolean isFree(int position);
+
+		/**
+		 * Returns the least free position greater than <tt>position</tt>
+		 * within the arrays, or -1 if there is none.
+		 */
+		int higherFree(int position);
+
+		/**
+		 * Returns the first of <tt>amount</tt> consecutive free positions
+		 * within the arrays, or -1 if there are none.
+		 */
+		int findConsecutiveFree(int amount);
+
+		/**
+		 * Extends the arrays so that <tt>limit</tt> is within them.
+		 */
+		void ensureReachableIndex(int limit);
+
+		/**
+		 * Returns the number of symbols from the root to <tt>state</tt>,
+		 * or -1 if the state is not known.
+		 */
+		int getDepth(int state);
+	}
+
+	/**
+	 * Returns the base of a new state.
+	 *
+	 * @param cells The arrays
+	 * @param state The index of the new state, or -1 if not known
+	 * @param symbol The symbol of its first child
+	 * @return A base such that base + symbol is free
+	 */
+	int placeState(Cells cells, int state, int symbol);
+
+	/**
+	 * Returns the new base of a state whose children must move.
+	 *
+	 * @param cells The arrays
+	 * @param state The state, or -1 if not known
+	 * @param symbols The symbols of the children, with the new one
+	 * @return A base such that base + symbol is free for all symbols
+	 */
+	int placeChildren(Cells cells, int state, SortedSet<Integer> symbols);
+}
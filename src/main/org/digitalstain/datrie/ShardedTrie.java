@@ -0,0 +1,300 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Spreads a dictionary over several independent tries, so that lookups
+ * and insertions from many threads do not all contend on one pair of
+ * arrays.
+ * <br>
+ * A partitioned instance routes every key to a shard by its first symbol.
+ * The shards are disjoint, so insertions into different shards proceed in
+ * parallel and a bulk insert scales with the number of shards. A
+ * replicated instance keeps a full copy of the dictionary in every
+ * shard; every insertion goes to all of them and each reading thread
+ * sticks to one copy.
+ * <br>
+ * Replicas are meant to keep reads local to a memory node. Java cannot
+ * pin threads or memory to a socket, so that is left to the platform: run
+ * the JVM with -XX:+UseNUMA, build every replica from a thread on its
+ * node, which addAll() does when the executor runs its tasks there, and
+ * have the readers of a node call bindToReplica() with its number. Threads
+ * that do not bind are spread over the replicas round robin.
+ * <br>
+ * Every shard is guarded by its own read write lock, so this class may be
+ * used from any number of threads. An insertion into a replicated
+ * instance updates the replicas one after the other, so for a short time
+ * a key may be found in some replicas but not in others.
+ */
+public class ShardedTrie {
+
+	private final int alphabetLength;
+	private final DoubleArrayTrieImpl[] shards;
+	private final ReentrantReadWriteLock[] locks;
+	// The shard of every first symbol, null for a replicated instance
+	private final int[] shardOfSymbol;
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final ThreadLocal<Integer> replica = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return Integer.valueOf((nextReplica.getAndIncrement() & Integer.MAX_VALUE) % shards.length);
+		}
+	};
+
+	private ShardedTrie(int alphabetLength, int count, int[] shardOfSymbol) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid number of shards " + count);
+		}
+		this.alphabetLength = alphabetLength;
+		this.shardOfSymbol = shardOfSymbol;
+		shards = new DoubleArrayTrieImpl[count];
+		locks = new ReentrantReadWriteLock[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new DoubleArrayTrieImpl(alphabetLength);
+			locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Creates an instance that assigns the first symbols to the shards
+	 * round robin.
+	 *
+	 * @param alphabetLength The size of the alphabet
+	 * @param shards The number of shards
+	 */
+	public static ShardedTrie partitioned(int alphabetLength, int shards) {
+		int[] shardOfSymbol = new int[alphabetLength];
+		for (int symbol = 0; symbol < alphabetLength; symbol++) {
+			shardOfSymbol[symbol] = symbol % Math.max(shards, 1);
+		}
+		return new ShardedTrie(alphabetLength, shards, shardOfSymbol);
+	}
+
+	/**
+	 * Creates an instance that assigns the first symbols to the shards as
+	 * <tt>shardOfSymbol</tt> says, to balance skewed distributions.
+	 *
+	 * @param shards The number of shards
+	 * @param shardOfSymbol The shard of every symbol of the alphabet, whose
+	 * 			size is the length of the array
+	 */
+	public static ShardedTrie partitioned(int shards, int[] shardOfSymbol) {
+		for (int shard : shardOfSymbol) {
+			if (shard < 0 || shard >= shards) {
+				throw new IllegalArgumentException("Invalid shard " + shard);
+			}
+		}
+		return new ShardedTrie(shardOfSymbol.length, shards, shardOfSymbol.clone());
+	}
+
+	/**
+	 * Creates an instance that keeps a full copy of the dictionary in
+	 * every shard.
+	 *
+	 * @param alphabetLength The size of the alphabet
+	 * @param replicas The number of copies
+	 */
+	public static ShardedTrie replicated(int alphabetLength, int replicas) {
+		return new ShardedTrie(alphabetLength, replicas, null);
+	}
+
+	public boolean isReplicated() {
+		return shardOfSymbol == null;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public int getAlphabetSize() {
+		return alphabetLength;
+	}
+
+	/**
+	 * Makes the calling thread read from replica <tt>index</tt> from now on.
+	 * Has no effect on a partitioned instance.
+	 *
+	 * @param index The replica to read from
+	 */
+	public void bindToReplica(int index) {
+		if (index < 0 || index >= shards.length) {
+			throw new IllegalArgumentException("Invalid replica " + index);
+		}
+		replica.set(Integer.valueOf(index));
+	}
+
+	public SearchResult containsPrefix(IntegerList prefix) {
+		if (prefix.size() == 0) {
+			return SearchResult.PURE_PREFIX;
+		}
+		int shard;
+		if (shardOfSymbol == null) {
+			shard = replica.get().intValue();
+		} else {
+			int symbol = prefix.get(0);
+			if (symbol < 0 || symbol >= alphabetLength) {
+				return SearchResult.NOT_FOUND;
+			}
+			shard = shardOfSymbol[symbol];
+		}
+		Lock lock = locks[shard].readLock();
+		lock.lock();
+		try {
+			return shards[shard].containsPrefix(prefix);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds <tt>string</tt> to its shard, or to every replica.
+	 *
+	 * @param string The string to add
+	 * @return True if the dictionary changed
+	 * @throws IllegalArgumentException If the first symbol is out of the
+	 * 			alphabet
+	 */
+	public boolean addToTrie(IntegerList string) {
+		if (string.size() == 0) {
+			return false;
+		}
+		checkFirstSymbol(string);
+		if (shardOfSymbol != null) {
+			return add(shardOfSymbol[string.get(0)], string);
+		}
+		boolean changed = false;
+		for (int i = 0; i < shards.length; i++) {
+			changed |= add(i, string);
+		}
+		return changed;
+	}
+
+	private void checkFirstSymbol(IntegerList string) {
+		int symbol = string.get(0);
+		if (symbol < 0 || symbol >= alphabetLength) {
+			throw new IllegalArgumentException("Symbol " + symbol + " out of the alphabet");
+		}
+	}
+
+	private boolean add(int shard, IntegerList string) {
+		Lock lock = locks[shard].writeLock();
+		lock.lock();
+		try {
+			return shards[shard].addToTrie(string);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds all of <tt>strings</tt>, running one task per shard on
+	 * <tt>executor</tt> and waiting for all of them to finish. Each task
+	 * holds the lock of its shard for the whole batch.
+	 *
+	 * @param strings The strings to add
+	 * @param executor Runs the insertions into the shards
+	 * @return The number of strings that changed the dictionary
+	 * @throws InterruptedException If interrupted while waiting; the
+	 * 			insertions may still be running
+	 * @throws IllegalArgumentException If the first symbol of a string is
+	 * 			out of the alphabet; nothing is added then
+	 */
+	public int addAll(List<IntegerList> strings, ExecutorService executor) throws InterruptedException {
+		for (IntegerList string : strings) {
+			if (string.size() > 0) {
+				checkFirstSymbol(string);
+			}
+		}
+		List<List<IntegerList>> batches = new ArrayList<List<IntegerList>>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			if (shardOfSymbol == null) {
+				batches.add(strings);
+			} else {
+				batches.add(new ArrayList<IntegerList>());
+			}
+		}
+		if (shardOfSymbol != null) {
+			for (IntegerList string : strings) {
+				if (string.size() > 0) {
+					batches.get(shardOfSymbol[string.get(0)]).add(string);
+				}
+			}
+		}
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			final int shard = i;
+			final List<IntegerList> batch = batches.get(i);
+			results.add(executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					Lock lock = locks[shard].writeLock();
+					lock.lock();
+					try {
+						int changed = 0;
+						for (IntegerList string : batch) {
+							if (string.size() > 0 && shards[shard].addToTrie(string)) {
+								changed++;
+							}
+						}
+						return Integer.valueOf(changed);
+					}
+					finally {
+						lock.unlock();
+					}
+				}
+			}));
+		}
+		int changed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			int count;
+			try {
+				count = results.get(i).get().intValue();
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+			// Every replica sees the same strings, count them once
+			if (shardOfSymbol != null || i == 0) {
+				changed += count;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Builds a FrozenDoubleArrayTrie from keys given in increasing
+ * lexicographic order, without going through a mutable trie.
+ * <br>
+ * Sorted input means a state is complete as soon as a key leaves its
+ * subtree, so only the states on the path of the last key are kept open.
+ * When a state closes its children are placed first fit, once and for
+ * good: nothing is ever relocated, and every cell is written a bounded
+ * number of times. The check of a cell names its parent cell, which is
+ * only known when the parent itself is placed, so every open state
+ * remembers the symbols of its placed children until then. Memory beyond
+ * the arrays is bounded by the length of the longest key times the size
+ * of the alphabet. Every key is read in full, to check its symbols and
+ * find where it leaves the last one, so the build is linear in the total
+ * length of the keys rather than in the number of states.
+ * <br>
+ * Keys must be strictly increasing, non empty and prefix free, as for any
+ * trie; a key that breaks this is rejected with an
+ * IllegalArgumentException and leaves the builder as it was.
+ */
+public class SortedTrieBuilder {
+
+	private final int alphabetLength;
+	private final FirstFitPlacement placement = new FirstFitPlacement(false);
+	private int[] base = new int[1024];
+	// The open states, one per symbol of the last key
+	private final List<OpenState> path = new ArrayList<OpenState>();
+	private final IntegerList last = new IntegerArrayList();
+	private int keyCount;
+	private boolean built;
+
+	public SortedTrieBuilder(int alphabetLength) {
+		this.alphabetLength = alphabetLength;
+		Arrays.fill(base, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		path.add(new OpenState());
+	}
+
+	/**
+	 * Adds <tt>key</tt>, which must be greater than every key added
+	 * before and not a prefix of any of them. The list is only read.
+	 *
+	 * @param key The key to add
+	 */
+	public void add(IntegerList key) {
+		if (built) {
+			throw new IllegalStateException("Already built");
+		}
+		if (key.size() == 0) {
+			throw new IllegalArgumentException("Empty key");
+		}
+		for (int i = 0; i < key.size(); i++) {
+			if (key.get(i) < 0 || key.get(i) >= alphabetLength) {
+				throw new IllegalArgumentException("Symbol " + key.get(i) + " out of the alphabet");
+			}
+		}
+		int common = 0;
+		while (common < last.size() && common < key.size() && last.get(common) == key.get(common)) {
+			common++;
+		}
+		if (keyCount > 0) {
+			if (common == last.size()) {
+				throw new IllegalArgumentException("Key " + key + " extends the key " + last);
+			}
+			if (common == key.size() || key.get(common) < last.get(common)) {
+				throw new IllegalArgumentException("Key " + key + " does not follow " + last);
+			}
+		}
+		// Close the states below the common prefix, deepest first
+		for (int depth = last.size() - 1; depth > common; depth--) {
+			close(depth);
+		}
+		for (int depth = common + 1; depth < key.size(); depth++) {
+			while (path.size() <= depth) {
+				path.add(new OpenState());
+			}
+			path.get(depth).clear();
+		}
+		path.get(key.size() - 1).addChild(key.get(key.size() - 1), AbstractDoubleArrayTrie.LEAF_BASE_VALUE,
+				null, 0, 0);
+
+		while (last.size() > common) {
+			last.remove(last.size() - 1);
+		}
+		for (int i = common; i < key.size(); i++) {
+			last.add(key.get(i));
+		}
+		keyCount++;
+	}
+
+	/**
+	 * Returns the number of keys added so far.
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Closes the remaining states and returns the trie. The builder
+	 * cannot be used afterwards.
+	 *
+	 * @return The trie holding every key added
+	 */
+	public FrozenDoubleArrayTrie build() {
+		if (built) {
+			throw new IllegalStateException("Already built");
+		}
+		built = true;
+		for (int depth = last.size() - 1; depth > 0; depth--) {
+			close(depth);
+		}
+		OpenState root = path.get(0);
+		int rootBase = place(root);
+		base[0] = rootBase;
+		int[] check = placement.getCheck();
+		for (int i = 0; i < root.symbols.size(); i++) {
+			check[rootBase + root.symbols.get(i)] = 0;
+		}
+		int end = placement.getEnd();
+		return new FrozenDoubleArrayTrie(alphabetLength, Arrays.copyOf(base, end), Arrays.copyOf(check, end));
+	}
+
+	/**
+	 * Places the children of the state at <tt>depth</tt> and hands it to
+	 * its parent as a child.
+	 */
+	private void close(int depth) {
+		OpenState state = path.get(depth);
+		int stateBase = place(state);
+		path.get(depth - 1).addChild(last.get(depth - 1), stateBase, state.symbols, 0, state.symbols.size());
+	}
+
+	/**
+	 * Places the children of <tt>state</tt>, fills in their cells and
+	 * points the cells of their own children at them.
+	 *
+	 * @return The base of the state
+	 */
+	private int place(OpenState state) {
+		int stateBase = placement.place(state.symbols, 0, state.symbols.size());
+		int end = placement.getEnd();
+		if (end > base.length) {
+			int oldLength = base.length;
+			base = Arrays.copyOf(base, Math.max(end, oldLength * 2));
+			Arrays.fill(base, oldLength, base.length, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		}
+		int[] check = placement.getCheck();
+		for (int i = 0; i < state.symbols.size(); i++) {
+			int cell = stateBase + state.symbols.get(i);
+			int childBase = state.bases.get(i);
+			base[cell] = childBase;
+			for (int j = state.grandStarts.get(i); j < state.grandStarts.get(i + 1); j++) {
+				check[childBase + state.grandSymbols.get(j)] = cell;
+			}
+		}
+		return stateBase;
+	}
+
+	/**
+	 * A state whose subtree may still grow: its children so far, with
+	 * their bases and the symbols of their own children.
+	 */
+	private static class OpenState {
+
+		final IntegerList symbols = new IntegerArrayList();
+		final IntegerList bases = new IntegerArrayList();
+		final IntegerList grandSymbols = new IntegerArrayList();
+		// The children of child i are grandSymbols[grandStarts[i], grandStarts[i + 1])
+		final IntegerList grandStarts = new IntegerArrayList();
+
+		OpenState() {
+			grandStarts.add(0);
+		}
+
+		void addChild(int symbol, int childBase, IntegerList children, int from, int to) {
+			symbols.add(symbol);
+			bases.add(childBase);
+			for (int i = from; i < to; i++) {
+				grandSymbols.add(children.get(i));
+			}
+			grandStarts.add(grandSymbols.size());
+		}
+
+		void clear() {
+			truncate(symbols, 0);
+			truncate(bases, 0);
+			truncate(grandSymbols, 0);
+			truncate(grandStarts, 1);
+		}
+
+		private static void truncate(IntegerList list, int size) {
+			while (list.size() > size) {
+				list.remove(list.size() - 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A set of suffixes answering "ends with" queries, such as matching a
+ * host name against a list of blocked domains.
+ * <br>
+ * Suffixes are stored reversed in a double array trie, followed by a
+ * terminator symbol one past the end of the alphabet. The terminator is
+ * what allows a suffix to also be the suffix of another stored suffix
+ * (<tt>example.com</tt> and <tt>www.example.com</tt>), since the
+ * underlying trie only accepts keys that are not prefixes of each other.
+ * <br>
+ * Queries walk the input from its end towards its start directly on the
+ * caller's list, so no reversed copy is ever made, and return the longest
+ * stored suffix in a single walk. The walk does not go through
+ * containsPrefix(), so tries counting searches do not see it.
+ */
+public class SuffixTrie {
+
+	private final AbstractDoubleArrayTrie trie;
+	// The terminator symbol, one past the last symbol of the user alphabet
+	private final int terminator;
+
+	/**
+	 * Creates an empty suffix trie for inputs over <tt>alphabetLength</tt>
+	 * symbols, backed by a DoubleArrayTrieImpl.
+	 *
+	 * @param alphabetLength The size of the input alphabet
+	 */
+	public SuffixTrie(int alphabetLength) {
+		this(new DoubleArrayTrieImpl(alphabetLength + 1));
+	}
+
+	/**
+	 * Creates a suffix trie on top of <tt>trie</tt>, whose alphabet must be
+	 * one larger than the input alphabet to make room for the terminator.
+	 * The trie must be empty or only ever have been filled by a SuffixTrie.
+	 *
+	 * @param trie The backing trie
+	 */
+	public SuffixTrie(AbstractDoubleArrayTrie trie) {
+		if (trie.getAlphabetSize() < 1) {
+			throw new IllegalArgumentException("No room for the terminator in alphabet of size "
+					+ trie.getAlphabetSize());
+		}
+		this.trie = trie;
+		this.terminator = trie.getAlphabetSize() - 1;
+	}
+
+	/**
+	 * Returns the size of the input alphabet.
+	 *
+	 * @return The number of symbols suffixes and inputs are made of
+	 */
+	public int getAlphabetSize() {
+		return terminator;
+	}
+
+	/**
+	 * Adds <tt>suffix</tt> to the set.
+	 *
+	 * @param suffix The suffix to add
+	 * @return true if it was not already present
+	 */
+	public boolean addSuffix(IntegerList suffix) {
+		return addSuffix(suffix, 0, suffix.size());
+	}
+
+	/**
+	 * Adds the part of <tt>string</tt> in <tt>[offset, offset + length)</tt>
+	 * to the set.
+	 *
+	 * @param string The list holding the suffix
+	 * @param offset The index of the first symbol of the suffix
+	 * @param length The number of symbols in the suffix
+	 * @return true if it was not already present
+	 */
+	public boolean addSuffix(IntegerList string, int offset, int length) {
+		IntegerList reversed = new IntegerArrayList(length + 1);
+		for (int i = offset + length - 1; i >= offset; i--) {
+			int symbol = string.get(i);
+			if (symbol < 0 || symbol >= terminator) {
+				throw new IllegalArgumentException("Symbol " + symbol + " at " + i
+						+ " is outside the alphabet");
+			}
+			reversed.add(symbol);
+		}
+		reversed.add(terminator);
+		return trie.addToTrie(reversed);
+	}
+
+	/**
+	 * Returns the length of the longest stored suffix that <tt>input</tt>
+	 * ends with.
+	 *
+	 * @param input The string to match
+	 * @return The length of the most specific matching suffix, -1 if none
+	 */
+	public int longestSuffixMatch(IntegerList input) {
+		return longestSuffixMatch(input, 0, input.size());
+	}
+
+	/**
+	 * Returns the length of the longest stored suffix that the part of
+	 * <tt>input</tt> in <tt>[offset, offset + length)</tt> ends with.
+	 * Symbols outside the alphabet end the walk, since no suffix can
+	 * contain them.
+	 *
+	 * @param input The list holding the string to match
+	 * @param offset The index of the first symbol of the string
+	 * @param length The number of symbols in the string
+	 * @return The length of the most specific matching suffix, -1 if none
+	 */
+	public int longestSuffixMatch(IntegerList input, int offset, int length) {
+		int longest = -1;
+		int state = 0;
+		int matched = 0;
+		while (true) {
+			if (trie.getChild(state, terminator) >= 0) {
+				// A stored suffix ends here
+				longest = matched;
+			}
+			if (matched == length) {
+				break;
+			}
+			int symbol = input.get(offset + length - 1 - matched);
+			if (symbol < 0 || symbol >= terminator) {
+				break;
+			}
+			state = trie.getChild(state, symbol);
+			if (state < 0) {
+				break;
+			}
+			matched++;
+		}
+		return longest;
+	}
+
+	/**
+	 * Returns true if <tt>input</tt> ends with any of the stored suffixes.
+	 *
+	 * @param input The string to match
+	 * @return true if some suffix matches
+	 */
+	public boolean endsWithAny(IntegerList input) {
+		return longestSuffixMatch(input, 0, input.size()) >= 0;
+	}
+
+	/**
+	 * Returns the backing trie.
+	 *
+	 * @return The trie holding the reversed, terminated suffixes
+	 */
+	public AbstractDoubleArrayTrie getTrie() {
+		return trie;
+	}
+}
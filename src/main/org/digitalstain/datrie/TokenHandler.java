@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+/**
+ * Receives the tokens found by a TrieTokenizer.
+ */
+public interface TokenHandler {
+
+	/**
+	 * Called once for every token, in the order they occur.
+	 *
+	 * @param start The offset in the input of the first symbol of the token
+	 * @param end The offset in the input after the last symbol of the token
+	 * @param key The leaf state of the key that matched, which tells the
+	 * 			keys apart
+	 * @return true to accept more tokens, false to pause the tokenizer
+	 */
+	public boolean token(long start, long end, int key);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+/**
+ * A position in a trie that moves one symbol at a time, for algorithms
+ * that feed the trie symbols as they come, such as matching as the user
+ * types or walking two tries side by side.
+ * <br>
+ * Each step is a single transition over base and check, so extending a
+ * prefix by one symbol costs O(1) instead of walking it again from the
+ * root. The check value of a state is its parent, so the cursor can also
+ * step back without remembering its path. Moving never allocates; fork()
+ * is the only method that does.
+ * <br>
+ * The trie must not change while a cursor is in use, since an insertion
+ * may move any state. A cursor is not thread safe, but any number of
+ * cursors may read the same trie.
+ */
+public class TrieCursor {
+
+	private final AbstractDoubleArrayTrie trie;
+	private int state;
+	private int depth;
+
+	/**
+	 * Creates a cursor at the root of <tt>trie</tt>.
+	 */
+	public TrieCursor(AbstractDoubleArrayTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Moves to the child on <tt>symbol</tt>, if there is one.
+	 *
+	 * @param symbol The next symbol
+	 * @return true if the cursor moved, false if the symbol does not
+	 * 			continue any key, in which case the cursor stays
+	 */
+	public boolean step(int symbol) {
+		if (symbol < 0 || symbol >= trie.getAlphabetSize()) {
+			return false;
+		}
+		int child = trie.getChild(state, symbol);
+		if (child < 0) {
+			return false;
+		}
+		state = child;
+		depth++;
+		return true;
+	}
+
+	/**
+	 * Returns true if step(symbol) would move.
+	 */
+	public boolean canStep(int symbol) {
+		return symbol >= 0 && symbol < trie.getAlphabetSize() && trie.getChild(state, symbol) >= 0;
+	}
+
+	/**
+	 * Moves to the parent state.
+	 *
+	 * @return false if the cursor is at the root
+	 */
+	public boolean back() {
+		if (depth == 0) {
+			return false;
+		}
+		state = trie.getCheck(state);
+		depth--;
+		return true;
+	}
+
+	/**
+	 * Moves back to the root.
+	 */
+	public void reset() {
+		state = 0;
+		depth = 0;
+	}
+
+	/**
+	 * Returns true if the symbols stepped so far are a whole key.
+	 */
+	public boolean isTerminal() {
+		return depth > 0 && trie.getBase(state) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+	}
+
+	/**
+	 * Returns true if the symbols stepped so far followed by
+	 * <tt>terminator</tt> are a key, for tries that end every key with a
+	 * terminator symbol.
+	 *
+	 * @param terminator The symbol every key ends with
+	 * @return false also if the terminator is out of the alphabet
+	 */
+	public boolean isTerminal(int terminator) {
+		if (terminator < 0 || terminator >= trie.getAlphabetSize()) {
+			return false;
+		}
+		int end = trie.getChild(state, terminator);
+		return end >= 0 && trie.getBase(end) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+	}
+
+	/**
+	 * Returns what containsPrefix() answers for the symbols stepped so far.
+	 */
+	public SearchResult result() {
+		return isTerminal() ? SearchResult.PERFECT_MATCH : SearchResult.PURE_PREFIX;
+	}
+
+	/**
+	 * Returns the smallest symbol not less than <tt>from</tt> that the
+	 * cursor can step on, to go over the children of the current state in
+	 * order.
+	 *
+	 * @param from The smallest symbol to consider
+	 * @return The symbol, or -1 if there is none
+	 */
+	public int nextSymbol(int from) {
+		int stateBase = trie.getBase(state);
+		if (stateBase < 0) {
+			return -1;
+		}
+		int limit = Math.min(trie.getAlphabetSize(), trie.getSize() - stateBase);
+		for (int symbol = Math.max(from, 0); symbol < limit; symbol++) {
+			if (trie.getCheck(stateBase + symbol) == state) {
+				return symbol;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index in the base array of the current state, which
+	 * identifies it for as long as the trie does not change.
+	 */
+	public int state() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of symbols stepped from the root.
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns a new cursor at the same position, which then moves
+	 * independently.
+	 */
+	public TrieCursor fork() {
+		TrieCursor copy = new TrieCursor(trie);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	/**
+	 * Moves to the position of <tt>other</tt>, which must be over the
+	 * same trie.
+	 */
+	public void copyFrom(TrieCursor other) {
+		if (other.trie != trie) {
+			throw new IllegalArgumentException("Cursor over another trie");
+		}
+		state = other.state;
+		depth = other.depth;
+	}
+}
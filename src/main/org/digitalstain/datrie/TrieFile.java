@@ -0,0 +1,543 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.digitalstain.datrie.mapping.NaturalMapping;
+import org.digitalstain.datrie.mapping.TableNaturalMapping;
+
+/**
+ * A compact, checksummed file format for frozen tries, with a loader that
+ * reads and validates a file in parallel.
+ * <br>
+ * A file is, in little endian order,
+ * <pre>
+ * int magic, int version, int flags, int alphabetLength,
+ * int cellCount, int keyCount, int blockCells,
+ * int symbolCount, int[symbolCount] symbols,
+ * int headerCrc,
+ * for base, check and ranks, ceil(cellCount / blockCells) blocks of
+ *     int rawBytes, int storedBytes, int crc, byte[storedBytes] data
+ * </pre>
+ * The symbol table, if present, holds the character of every symbol and
+ * comes back as a TableNaturalMapping. Every block covers
+ * <tt>blockCells</tt> cells of one array, the last one possibly fewer. Its
+ * data are the cells as little endian ints, deflated if the compressed
+ * flag is set and that made the block smaller, which storedBytes being
+ * less than rawBytes tells. The CRC32 of the header covers all header
+ * bytes before it, that of a block its stored data. The ranks of
+ * FrozenDoubleArrayTrie are stored too, so that loading does not walk the
+ * trie to compute them.
+ * <br>
+ * Loading maps the file and decodes its blocks straight into int arrays
+ * through a little endian view, spread over an executor. It then checks
+ * every cell in parallel: the root, that every state is a child of its
+ * parent on a symbol of the alphabet, and that every base and rank is in
+ * range. A last, sequential pass follows the parent links to check that
+ * every state hangs off the root, so that there are no cycles and no cells
+ * below a free one. A file that fails any check is rejected with an
+ * IOException.
+ * Files are mapped whole, so they must be smaller than 2 GiB.
+ */
+public class TrieFile {
+
+	/**
+	 * The default number of cells in a block, 256 KiB of ints.
+	 */
+	public static final int DEFAULT_BLOCK_CELLS = 1 << 16;
+
+	private static final int MAGIC = 0x46544144; // "DATF"
+	private static final int VERSION = 1;
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int FIXED_HEADER_INTS = 8;
+	private static final int BLOCK_HEADER_BYTES = 12;
+	private static final int ARRAYS = 3;
+	// The most cells a block can have for its bytes to fit in an array
+	private static final int MAX_BLOCK_CELLS = Integer.MAX_VALUE / 4;
+	// Deflate never shrinks data by more than this
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	private final FrozenDoubleArrayTrie trie;
+	private final TableNaturalMapping mapping;
+
+	private TrieFile(FrozenDoubleArrayTrie trie, TableNaturalMapping mapping) {
+		this.trie = trie;
+		this.mapping = mapping;
+	}
+
+	public FrozenDoubleArrayTrie getTrie() {
+		return trie;
+	}
+
+	/**
+	 * Returns the mapping stored with the trie, or null if there is none.
+	 */
+	public TableNaturalMapping getMapping() {
+		return mapping;
+	}
+
+	/**
+	 * Writes <tt>trie</tt> to <tt>file</tt> in blocks of the default size.
+	 *
+	 * @see #write(File, AbstractDoubleArrayTrie, NaturalMapping, boolean, int)
+	 */
+	public static void write(File file, AbstractDoubleArrayTrie trie, NaturalMapping<Character> mapping,
+			boolean compress) throws IOException {
+		write(file, trie, mapping, compress, DEFAULT_BLOCK_CELLS);
+	}
+
+	/**
+	 * Writes <tt>trie</tt> to <tt>file</tt>, freezing a copy of it first
+	 * if it is not frozen.
+	 *
+	 * @param file The file to write, replaced if it exists
+	 * @param trie The trie to write
+	 * @param mapping The mapping of the characters of the keys to
+	 * 			symbols, stored as a table of the whole alphabet, or null
+	 * @param compress true to deflate the blocks
+	 * @param blockCells The number of cells in a block
+	 * @throws IOException If writing fails
+	 */
+	public static void write(File file, AbstractDoubleArrayTrie trie, NaturalMapping<Character> mapping,
+			boolean compress, int blockCells) throws IOException {
+		if (blockCells < 1 || blockCells > MAX_BLOCK_CELLS) {
+			throw new IllegalArgumentException("Invalid block size " + blockCells);
+		}
+		FrozenDoubleArrayTrie frozen = trie instanceof FrozenDoubleArrayTrie ?
+				(FrozenDoubleArrayTrie) trie : FrozenDoubleArrayTrie.freeze(trie);
+		int alphabetLength = frozen.getAlphabetSize();
+		char[] symbols = mapping == null ? new char[0] : TableNaturalMapping.tabulate(mapping, alphabetLength);
+
+		ByteBuffer header = ByteBuffer.allocate((FIXED_HEADER_INTS + symbols.length + 1) * 4)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(compress ? FLAG_COMPRESSED : 0);
+		header.putInt(alphabetLength);
+		header.putInt(frozen.base.length);
+		header.putInt(frozen.getKeyCount());
+		header.putInt(blockCells);
+		header.putInt(symbols.length);
+		for (char symbol : symbols) {
+			header.putInt(symbol);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, header.position());
+		header.putInt((int) crc.getValue());
+		header.flip();
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			writeFully(channel, header);
+			byte[] raw = new byte[blockCells * 4];
+			byte[] deflated = compress ? new byte[raw.length + 64] : null;
+			Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			int[][] arrays = { frozen.base, frozen.check, frozen.getRanks() };
+			for (int[] array : arrays) {
+				for (int start = 0; start < array.length; start += blockCells) {
+					int cells = Math.min(blockCells, array.length - start);
+					int rawBytes = cells * 4;
+					ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(array, start, cells);
+					byte[] stored = raw;
+					int storedBytes = rawBytes;
+					if (compress) {
+						deflater.reset();
+						deflater.setInput(raw, 0, rawBytes);
+						deflater.finish();
+						int length = 0;
+						while (!deflater.finished() && length < deflated.length) {
+							length += deflater.deflate(deflated, length, deflated.length - length);
+						}
+						if (deflater.finished() && length < rawBytes) {
+							stored = deflated;
+							storedBytes = length;
+						}
+					}
+					crc.reset();
+					crc.update(stored, 0, storedBytes);
+					blockHeader.clear();
+					blockHeader.putInt(rawBytes);
+					blockHeader.putInt(storedBytes);
+					blockHeader.putInt((int) crc.getValue());
+					blockHeader.flip();
+					writeFully(channel, blockHeader);
+					writeFully(channel, ByteBuffer.wrap(stored, 0, storedBytes));
+				}
+			}
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads <tt>file</tt> using as many threads as there are processors.
+	 *
+	 * @see #read(File, ExecutorService)
+	 */
+	public static TrieFile read(File file) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			return read(file, executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Reads and validates <tt>file</tt>, decoding and checking its parts
+	 * on <tt>executor</tt>.
+	 *
+	 * @param file The file to read
+	 * @param executor Runs the decoding and validation
+	 * @return The trie and its mapping
+	 * @throws IOException If the file cannot be read, is corrupt or does
+	 * 			not hold a valid trie
+	 */
+	public static TrieFile read(File file, ExecutorService executor) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Trie file " + file + " is too large to map");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			return read(file, mapped, executor);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static TrieFile read(File file, ByteBuffer buffer, ExecutorService executor) throws IOException {
+		if (buffer.remaining() < (FIXED_HEADER_INTS + 1) * 4 || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a trie file: " + file);
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported trie file version " + version + " in " + file);
+		}
+		int flags = buffer.getInt(8);
+		final int alphabetLength = buffer.getInt(12);
+		int cellCount = buffer.getInt(16);
+		final int keyCount = buffer.getInt(20);
+		int blockCells = buffer.getInt(24);
+		int symbolCount = buffer.getInt(28);
+		if (alphabetLength < 1 || cellCount < 1 || keyCount < 0 || blockCells < 1
+				|| Math.min(blockCells, cellCount) > MAX_BLOCK_CELLS
+				|| (symbolCount != 0 && symbolCount != alphabetLength)) {
+			throw new IOException("Invalid header in " + file);
+		}
+		if (buffer.limit() < (FIXED_HEADER_INTS + (long) symbolCount) * 4 + 4) {
+			throw new IOException("Truncated trie file " + file);
+		}
+		int headerBytes = (FIXED_HEADER_INTS + symbolCount) * 4;
+		byte[] header = new byte[headerBytes];
+		buffer.position(0);
+		buffer.get(header);
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, headerBytes);
+		if (buffer.getInt() != (int) crc.getValue()) {
+			throw new IOException("Header checksum mismatch in " + file);
+		}
+		TableNaturalMapping mapping = null;
+		if (symbolCount > 0) {
+			char[] symbols = new char[symbolCount];
+			for (int i = 0; i < symbolCount; i++) {
+				symbols[i] = (char) buffer.getInt(FIXED_HEADER_INTS * 4 + i * 4);
+			}
+			try {
+				mapping = new TableNaturalMapping(symbols);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Invalid symbol table in " + file + ": " + e.getMessage());
+			}
+		}
+
+		// The header is trusted only as far as its checksum goes, so make sure
+		// the file can hold the cells it claims before allocating them
+		long blockCount = ARRAYS * (((long) cellCount + blockCells - 1) / blockCells);
+		long arrayBytes = ARRAYS * 4L * cellCount;
+		long leastBytes = blockCount * BLOCK_HEADER_BYTES
+				+ ((flags & FLAG_COMPRESSED) == 0 ? arrayBytes : arrayBytes / MAX_DEFLATE_RATIO);
+		if (buffer.limit() - (headerBytes + 4) < leastBytes) {
+			throw new IOException("Truncated trie file " + file);
+		}
+
+		// Find the blocks, which have to be walked in order
+		final int[][] arrays = { new int[cellCount], new int[cellCount], new int[cellCount] };
+		final List<Block> blocks = new ArrayList<Block>();
+		int position = headerBytes + 4;
+		for (int array = 0; array < ARRAYS; array++) {
+			for (int start = 0; start < cellCount; start += blockCells) {
+				if (position + BLOCK_HEADER_BYTES > buffer.limit()) {
+					throw new IOException("Truncated trie file " + file);
+				}
+				int cells = Math.min(blockCells, cellCount - start);
+				int rawBytes = buffer.getInt(position);
+				int storedBytes = buffer.getInt(position + 4);
+				int blockCrc = buffer.getInt(position + 8);
+				position += BLOCK_HEADER_BYTES;
+				if (rawBytes != cells * 4 || storedBytes < 0 || storedBytes > rawBytes
+						|| (storedBytes < rawBytes && (flags & FLAG_COMPRESSED) == 0)
+						|| storedBytes > buffer.limit() - position) {
+					throw new IOException("Invalid block at offset " + (position - BLOCK_HEADER_BYTES)
+							+ " of " + file);
+				}
+				blocks.add(new Block(arrays[array], start, cells, position, storedBytes, blockCrc));
+				position += storedBytes;
+			}
+		}
+		if (position != buffer.limit()) {
+			throw new IOException("Trailing data in trie file " + file);
+		}
+
+		int tasks = Math.max(1, Math.min(blocks.size(), Runtime.getRuntime().availableProcessors()));
+		List<Callable<Void>> decoders = new ArrayList<Callable<Void>>(tasks);
+		for (int task = 0; task < tasks; task++) {
+			final int from = task * blocks.size() / tasks;
+			final int to = (task + 1) * blocks.size() / tasks;
+			final ByteBuffer view = buffer.duplicate();
+			final int maxBytes = Math.min(blockCells, cellCount) * 4;
+			decoders.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					byte[] stored = new byte[maxBytes];
+					byte[] raw = new byte[maxBytes];
+					Inflater inflater = new Inflater();
+					CRC32 blockCrc = new CRC32();
+					try {
+						for (int i = from; i < to; i++) {
+							blocks.get(i).decode(view, stored, raw, inflater, blockCrc);
+						}
+					}
+					finally {
+						inflater.end();
+					}
+					return null;
+				}
+			});
+		}
+		run(executor, decoders);
+
+		final int[] base = arrays[0];
+		final int[] check = arrays[1];
+		final int[] ranks = arrays[2];
+		if (check[0] != AbstractDoubleArrayTrie.ROOT_CHECK_VALUE || base[0] < 0) {
+			throw new IOException("Invalid root in " + file);
+		}
+		List<Callable<Void>> validators = new ArrayList<Callable<Void>>(tasks);
+		for (int task = 0; task < tasks; task++) {
+			final int from = (int) ((long) task * cellCount / tasks);
+			final int to = (int) ((long) (task + 1) * cellCount / tasks);
+			validators.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					validate(base, check, ranks, from, to, alphabetLength, keyCount);
+					return null;
+				}
+			});
+		}
+		run(executor, validators);
+		checkReachable(check);
+		return new TrieFile(new FrozenDoubleArrayTrie(alphabetLength, base, check, ranks, keyCount), mapping);
+	}
+
+	/**
+	 * Checks the cells from <tt>from</tt> up to <tt>to</tt>.
+	 */
+	private static void validate(int[] base, int[] check, int[] ranks, int from, int to,
+			int alphabetLength, int keyCount) throws IOException {
+		for (int i = Math.max(from, 1); i < to; i++) {
+			int parent = check[i];
+			if (parent == AbstractDoubleArrayTrie.EMPTY_VALUE) {
+				continue;
+			}
+			if (parent < 0 || parent >= check.length || base[parent] < 0
+					|| i - base[parent] < 0 || i - base[parent] >= alphabetLength) {
+				throw new IOException("Cell " + i + " is not a child of its parent " + parent);
+			}
+			if (base[i] < 0 && base[i] != AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+				throw new IOException("Invalid base " + base[i] + " at cell " + i);
+			}
+			if (ranks[i] < 0 || ranks[i] > keyCount) {
+				throw new IOException("Invalid rank " + ranks[i] + " at cell " + i);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the parent links of all states lead to the root. The
+	 * links were checked to be in range, so following them from a cell
+	 * either reaches the root, a free cell or a cycle. Every cell is
+	 * marked as pending on the way and as reachable once the root is
+	 * found, so that each link is followed at most twice.
+	 */
+	private static void checkReachable(int[] check) throws IOException {
+		final byte pending = 1;
+		final byte reachable = 2;
+		byte[] marks = new byte[check.length];
+		marks[0] = reachable;
+		for (int i = 1; i < check.length; i++) {
+			if (check[i] == AbstractDoubleArrayTrie.EMPTY_VALUE || marks[i] == reachable) {
+				continue;
+			}
+			int state = i;
+			while (marks[state] == 0) {
+				if (check[state] == AbstractDoubleArrayTrie.EMPTY_VALUE) {
+					throw new IOException("Cell " + i + " hangs off the free cell " + state);
+				}
+				marks[state] = pending;
+				state = check[state];
+			}
+			if (marks[state] == pending) {
+				throw new IOException("Cell " + i + " is on or below a cycle through cell " + state);
+			}
+			for (state = i; marks[state] == pending; state = check[state]) {
+				marks[state] = reachable;
+			}
+		}
+	}
+
+	/**
+	 * Runs the tasks and waits for all of them, rethrowing the first failure.
+	 */
+	private static void run(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+		List<Future<Void>> results;
+		try {
+			results = executor.invokeAll(tasks);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading");
+		}
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while loading");
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw (Error) cause;
+			}
+		}
+	}
+
+	/**
+	 * Where a block of one of the arrays is in the file.
+	 */
+	private static class Block {
+
+		final int[] array;
+		final int start;
+		final int cells;
+		final int offset;
+		final int storedBytes;
+		final int crc;
+
+		Block(int[] array, int start, int cells, int offset, int storedBytes, int crc) {
+			this.array = array;
+			this.start = start;
+			this.cells = cells;
+			this.offset = offset;
+			this.storedBytes = storedBytes;
+			this.crc = crc;
+		}
+
+		/**
+		 * Checks the block and decodes it into its array.
+		 */
+		void decode(ByteBuffer view, byte[] stored, byte[] raw, Inflater inflater, CRC32 checksum)
+				throws IOException {
+			view.limit(offset + storedBytes);
+			view.position(offset);
+			view.get(stored, 0, storedBytes);
+			checksum.reset();
+			checksum.update(stored, 0, storedBytes);
+			if ((int) checksum.getValue() != crc) {
+				throw new IOException("Checksum mismatch in block at offset " + offset);
+			}
+			byte[] data = stored;
+			int rawBytes = cells * 4;
+			if (storedBytes < rawBytes) {
+				inflater.reset();
+				inflater.setInput(stored, 0, storedBytes);
+				try {
+					int length = 0;
+					while (length < rawBytes && !inflater.finished()) {
+						int inflated = inflater.inflate(raw, length, rawBytes - length);
+						if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+							break;
+						}
+						length += inflated;
+					}
+					if (length != rawBytes) {
+						throw new IOException("Short compressed block at offset " + offset);
+					}
+				}
+				catch (DataFormatException e) {
+					throw new IOException("Corrupt compressed block at offset " + offset);
+				}
+				data = raw;
+			}
+			ByteBuffer.wrap(data, 0, rawBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+					.get(array, start, cells);
+		}
+	}
+}
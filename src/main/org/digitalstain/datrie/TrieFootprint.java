@@ -0,0 +1,422 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A sizing report for a built trie, to pick the storage for a dictionary
+ * from numbers instead of guesses.
+ * <br>
+ * For every backing IntegerList it gives the bytes holding values and the
+ * bytes reserved by the list; the reserve is only known for
+ * IntegerArrayList, other lists are taken to reserve what they hold. It
+ * describes how the cells are used: the ratio of free cells, a histogram
+ * of the lengths of the runs of consecutive free cells, where a run of
+ * length n is counted in the bucket of the highest power of two not above
+ * n, and the number of states and mean branching factor at every depth.
+ * <br>
+ * Last, it projects the size of the same keys under other encodings:
+ * <ul>
+ * <li>interleaved: base and check in one array of pairs, up to the last
+ * cell holding a state and without a set of free positions</li>
+ * <li>compressed: the states packed again first fit, as TrieRelayout does,
+ * which leaves almost no free cells</li>
+ * <li>tail compressed: the compressed arrays without the single child
+ * chains that end every key once it is unique, which are moved to a tail
+ * array of symbols, one byte each for alphabets of up to 256 symbols</li>
+ * </ul>
+ * The compressed size is measured by doing the relayout, the tail
+ * compressed one is estimated from it.
+ * <br>
+ * Run as a program, it prints the report for every snapshot file named on
+ * the command line:
+ * <pre>java org.digitalstain.datrie.TrieFootprint snapshot...</pre>
+ */
+public class TrieFootprint {
+
+	/**
+	 * An estimate of the bytes a position takes in the set of free
+	 * positions: a tree map entry and a boxed Integer, with compressed
+	 * references.
+	 */
+	public static final int FREE_POSITION_BYTES = 56;
+
+	private final List<Storage> storage;
+	private final int alphabetLength;
+	private final int cellCount;
+	// One past the last cell holding a state
+	private final int usedExtent;
+	private final int stateCount;
+	private final int keyCount;
+	private final int freeCellCount;
+	private final long freeSetBytes;
+	private final int[] freeRuns;
+	private final int[] statesPerDepth;
+	private final double[] branching;
+	private final int compressedCells;
+	private final int tailCount;
+	private final int tailStates;
+
+	private TrieFootprint(List<Storage> storage, int alphabetLength, int cellCount, int usedExtent,
+			int stateCount, int keyCount, int freeCellCount, int[] freeRuns,
+			int[] statesPerDepth, double[] branching, int compressedCells,
+			int tailCount, int tailStates) {
+		this.storage = Collections.unmodifiableList(storage);
+		this.alphabetLength = alphabetLength;
+		this.cellCount = cellCount;
+		this.usedExtent = usedExtent;
+		this.stateCount = stateCount;
+		this.keyCount = keyCount;
+		this.freeCellCount = freeCellCount;
+		this.freeSetBytes = (long) freeCellCount * FREE_POSITION_BYTES;
+		this.freeRuns = freeRuns;
+		this.statesPerDepth = statesPerDepth;
+		this.branching = branching;
+		this.compressedCells = compressedCells;
+		this.tailCount = tailCount;
+		this.tailStates = tailStates;
+	}
+
+	/**
+	 * Analyzes <tt>trie</tt>, which must not change meanwhile.
+	 *
+	 * @param trie The trie to measure, a CountingTrie having its counters
+	 * 			reported as well
+	 * @return The report
+	 */
+	public static TrieFootprint analyze(DoubleArrayTrieImpl trie) {
+		List<Storage> storage = new ArrayList<Storage>();
+		storage.add(new Storage("base", trie.getBaseList()));
+		storage.add(new Storage("check", trie.getCheckList()));
+		if (trie instanceof CountingTrie) {
+			CountingTrie counting = (CountingTrie) trie;
+			storage.add(new Storage("exist counts", counting.getExistCounts()));
+			storage.add(new Storage("search counts", counting.getSearchCounts()));
+		}
+
+		SortedSet<Integer> free = trie.getFreePositions();
+		int[] freeRuns = new int[32];
+		int highestRun = -1;
+		int runStart = -2;
+		int previous = -2;
+		for (Iterator<Integer> it = free.iterator(); it.hasNext();) {
+			int position = it.next();
+			if (position != previous + 1) {
+				highestRun = Math.max(highestRun, countRun(freeRuns, previous - runStart + 1, runStart));
+				runStart = position;
+			}
+			previous = position;
+		}
+		highestRun = Math.max(highestRun, countRun(freeRuns, previous - runStart + 1, runStart));
+		int[] trimmedRuns = new int[highestRun + 1];
+		System.arraycopy(freeRuns, 0, trimmedRuns, 0, trimmedRuns.length);
+
+		// Breadth first, recording every level and the single child chains
+		int size = trie.getSize();
+		int[] childCount = new int[size];
+		int[] onlyChild = new int[size];
+		IntegerList order = new IntegerArrayList();
+		IntegerList levelStarts = new IntegerArrayList();
+		order.add(0);
+		int keys = 0;
+		int head = 0;
+		while (head < order.size()) {
+			levelStarts.add(head);
+			int levelEnd = order.size();
+			for (; head < levelEnd; head++) {
+				int state = order.get(head);
+				int stateBase = trie.getBase(state);
+				if (stateBase == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+					keys++;
+					continue;
+				}
+				int limit = Math.min(trie.getAlphabetSize(), size - stateBase);
+				for (int symbol = 0; stateBase >= 0 && symbol < limit; symbol++) {
+					if (trie.getCheck(stateBase + symbol) == state) {
+						order.add(stateBase + symbol);
+						childCount[state]++;
+						onlyChild[state] = stateBase + symbol;
+					}
+				}
+			}
+		}
+		levelStarts.add(order.size());
+		int usedExtent = 0;
+		for (int i = 0; i < order.size(); i++) {
+			usedExtent = Math.max(usedExtent, order.get(i) + 1);
+		}
+
+		int depths = levelStarts.size() - 1;
+		int[] statesPerDepth = new int[depths];
+		double[] branching = new double[depths];
+		for (int depth = 0; depth < depths; depth++) {
+			int internal = 0;
+			long children = 0;
+			for (int i = levelStarts.get(depth); i < levelStarts.get(depth + 1); i++) {
+				int state = order.get(i);
+				if (childCount[state] > 0) {
+					internal++;
+					children += childCount[state];
+				}
+			}
+			statesPerDepth[depth] = levelStarts.get(depth + 1) - levelStarts.get(depth);
+			branching[depth] = internal == 0 ? 0 : (double) children / internal;
+		}
+
+		// Children come after their parent, so go backwards for the chain lengths
+		int[] chain = new int[size];
+		for (int i = order.size() - 1; i >= 0; i--) {
+			int state = order.get(i);
+			if (trie.getBase(state) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+				chain[state] = 0;
+			} else if (childCount[state] == 1 && chain[onlyChild[state]] >= 0) {
+				chain[state] = chain[onlyChild[state]] + 1;
+			} else {
+				chain[state] = -1;
+			}
+		}
+		// A tail starts below the last state that is not part of a chain
+		int tailCount = 0;
+		int tailStates = 0;
+		for (int i = 1; i < order.size(); i++) {
+			int state = order.get(i);
+			int parent = trie.getCheck(state);
+			if (chain[state] > 0 && (parent == 0 || chain[parent] < 0)) {
+				tailCount++;
+				tailStates += chain[state];
+			}
+		}
+
+		int compressedCells = TrieRelayout.breadthFirst(trie).getSize();
+		return new TrieFootprint(storage, trie.getAlphabetSize(), size, usedExtent, order.size(), keys,
+				free.size(), trimmedRuns, statesPerDepth, branching, compressedCells,
+				tailCount, tailStates);
+	}
+
+	/**
+	 * Counts a free run in its bucket, returning the bucket or -1 if
+	 * there is no run.
+	 */
+	private static int countRun(int[] histogram, int length, int start) {
+		if (start < 0) {
+			return -1;
+		}
+		int bucket = 31 - Integer.numberOfLeadingZeros(length);
+		histogram[bucket]++;
+		return bucket;
+	}
+
+	/**
+	 * Returns the lists backing the trie: base and check, followed by the
+	 * counters of a CountingTrie.
+	 */
+	public List<Storage> getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Returns the bytes holding values, over all backing lists.
+	 */
+	public long getUsedBytes() {
+		long total = 0;
+		for (Storage list : storage) {
+			total += list.getUsedBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the bytes reserved, over all backing lists.
+	 */
+	public long getReservedBytes() {
+		long total = 0;
+		for (Storage list : storage) {
+			total += list.getReservedBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the estimated bytes of the set of free positions.
+	 */
+	public long getFreeSetBytes() {
+		return freeSetBytes;
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * Returns the number of states, the root included.
+	 */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	public int getFreeCellCount() {
+		return freeCellCount;
+	}
+
+	public double getFreeCellRatio() {
+		return cellCount == 0 ? 0 : (double) freeCellCount / cellCount;
+	}
+
+	/**
+	 * Returns the number of runs of free cells by length: bucket i counts
+	 * the runs at least 2^i and less than 2^(i+1) cells long.
+	 */
+	public int[] getFreeRunHistogram() {
+		return freeRuns.clone();
+	}
+
+	/**
+	 * Returns the number of states at every depth, the root being at 0.
+	 */
+	public int[] getStatesPerDepth() {
+		return statesPerDepth.clone();
+	}
+
+	/**
+	 * Returns the mean number of children of the states that have any,
+	 * at every depth.
+	 */
+	public double[] getBranchingFactors() {
+		return branching.clone();
+	}
+
+	/**
+	 * Returns the bytes of base and check interleaved and trimmed to
+	 * the cells in use, that is up to the last cell holding a state. Free
+	 * cells before it are still counted.
+	 */
+	public long getInterleavedBytes() {
+		return 8L * usedExtent;
+	}
+
+	public int getCompressedCellCount() {
+		return compressedCells;
+	}
+
+	public long getCompressedBytes() {
+		return 8L * compressedCells;
+	}
+
+	/**
+	 * Returns the number of single child chains that would move to the tail.
+	 */
+	public int getTailCount() {
+		return tailCount;
+	}
+
+	/**
+	 * Returns the number of states that would move to the tail.
+	 */
+	public int getTailStateCount() {
+		return tailStates;
+	}
+
+	/**
+	 * Returns the projected bytes with the single child chains in a tail,
+	 * every chain taking its symbols and a terminator there.
+	 */
+	public long getTailCompressedBytes() {
+		int symbolBytes = alphabetLength <= 256 ? 1 : alphabetLength <= 65536 ? 2 : 4;
+		return 8L * (compressedCells - tailStates) + (long) symbolBytes * (tailStates + tailCount);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d keys, %d states, %d cells, %d free (%.1f%%)%n",
+				keyCount, stateCount, cellCount, freeCellCount, 100 * getFreeCellRatio()));
+		for (Storage list : storage) {
+			report.append(String.format("  %-14s %12d used %12d reserved%n",
+					list.getName(), list.getUsedBytes(), list.getReservedBytes()));
+		}
+		report.append(String.format("  %-14s %12d estimated%n", "free set", freeSetBytes));
+		report.append("free runs:");
+		for (int i = 0; i < freeRuns.length; i++) {
+			report.append(' ').append(1 << i).append("+:").append(freeRuns[i]);
+		}
+		report.append(String.format("%ndepth   states  branching%n"));
+		for (int depth = 0; depth < statesPerDepth.length; depth++) {
+			report.append(String.format("%5d %8d %10.2f%n", depth, statesPerDepth[depth], branching[depth]));
+		}
+		report.append(String.format("interleaved     %12d bytes%n", getInterleavedBytes()));
+		report.append(String.format("compressed      %12d bytes, %d cells%n", getCompressedBytes(), compressedCells));
+		report.append(String.format("tail compressed %12d bytes, %d states in %d tails%n",
+				getTailCompressedBytes(), tailStates, tailCount));
+		return report.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: TrieFootprint snapshot...");
+			System.exit(1);
+		}
+		for (String name : args) {
+			System.out.println(name);
+			System.out.print(analyze(TrieSnapshot.open(new File(name))));
+		}
+	}
+
+	/**
+	 * The size of one list backing the trie.
+	 */
+	public static class Storage {
+
+		private final String name;
+		private final long usedBytes;
+		private final long reservedBytes;
+
+		Storage(String name, IntegerList list) {
+			this.name = name;
+			this.usedBytes = 4L * list.size();
+			this.reservedBytes = list instanceof IntegerArrayList ?
+					4L * ((IntegerArrayList) list).capacity() : usedBytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getUsedBytes() {
+			return usedBytes;
+		}
+
+		public long getReservedBytes() {
+			return reservedBytes;
+		}
+	}
+}
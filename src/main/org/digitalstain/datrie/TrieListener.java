@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Receives the events of a trie. Listeners are registered with
+ * AbstractDoubleArrayTrie.addListener() and are called in the thread that
+ * performs the operation, in the order they were added.
+ * <br>
+ * Extend TrieListenerAdapter to only handle some of the events.
+ */
+public interface TrieListener {
+
+	/**
+	 * Called for every state transition during an insertion.
+	 *
+	 * @param state The index in the base array the transition is at
+	 * @param stringIndex The index of the inserted string for which the event occurred
+	 * @param insertString The inserted string
+	 */
+	public void insertTransition(int state, int stringIndex, IntegerList insertString);
+
+	/**
+	 * Called for every state transition during a search, and once more
+	 * where the search ends.
+	 *
+	 * @param state The index in the base array the transition is at
+	 * @param stringIndex The index of the search string for which the event occurred
+	 * @param searchString The search string
+	 */
+	public void searchTransition(int state, int stringIndex, IntegerList searchString);
+
+	/**
+	 * Called after a child of a state in conflict has been copied to its
+	 * new position, before the parent itself points there.
+	 *
+	 * @param parentIndex The index of the parent state
+	 * @param forCharacter The character leading to this child from the parent
+	 * @param oldParentBase The base of the parent until now, so the child
+	 * 			was at oldParentBase + forCharacter
+	 * @param newParentBase The new base of the parent, so the child is now
+	 * 			at newParentBase + forCharacter
+	 */
+	public void childMoved(int parentIndex, int forCharacter, int oldParentBase, int newParentBase);
+
+	/**
+	 * Called after the base of a state in conflict has changed and all its
+	 * children have been moved.
+	 *
+	 * @param stateIndex The index of the state whose base is changed
+	 * @param newBase The new base value for the state
+	 */
+	public void stateMoved(int stateIndex, int newBase);
+
+	/**
+	 * Called after an insertion completes.
+	 *
+	 * @param string The inserted string
+	 * @param changed true if the trie changed
+	 */
+	public void insertFinished(IntegerList string, boolean changed);
+
+	/**
+	 * Called after a containsPrefix() search completes.
+	 *
+	 * @param string The search string
+	 * @param depth The number of characters consumed
+	 * @param result The result of the search
+	 */
+	public void searchFinished(IntegerList string, int depth, SearchResult result);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A TrieListener that ignores every event, for listeners that only
+ * need a few of them.
+ */
+public class TrieListenerAdapter implements TrieListener {
+
+	public void insertTransition(int state, int stringIndex, IntegerList insertString) {
+		// No op
+	}
+
+	public void searchTransition(int state, int stringIndex, IntegerList searchString) {
+		// No op
+	}
+
+	public void childMoved(int parentIndex, int forCharacter, int oldParentBase, int newParentBase) {
+		// No op
+	}
+
+	public void stateMoved(int stateIndex, int newBase) {
+		// No op
+	}
+
+	public void insertFinished(IntegerList string, boolean changed) {
+		// No op
+	}
+
+	public void searchFinished(IntegerList string, int depth, SearchResult result) {
+		// No op
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the statistics of an InstrumentedTrie as a standard MBean.
+ */
+public class TrieMetrics implements TrieMetricsMBean {
+
+	private final InstrumentedTrie trie;
+
+	public TrieMetrics(InstrumentedTrie trie) {
+		this.trie = trie;
+	}
+
+	/**
+	 * Registers the metrics of <tt>trie</tt> with the platform MBean server,
+	 * under org.digitalstain.datrie:type=Trie,name=<tt>name</tt>.
+	 *
+	 * @param trie The trie to expose
+	 * @param name The name to register under
+	 * @return The registered object name, for unregistering
+	 * @throws JMException If the registration fails
+	 */
+	public static ObjectName register(InstrumentedTrie trie, String name) throws JMException {
+		ObjectName objectName = new ObjectName("org.digitalstain.datrie:type=Trie,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new TrieMetrics(trie), objectName);
+		return objectName;
+	}
+
+	public boolean isEnabled() {
+		return trie.isEnabled();
+	}
+
+	public void setEnabled(boolean enabled) {
+		trie.setEnabled(enabled);
+	}
+
+	public void reset() {
+		trie.reset();
+	}
+
+	public long getInserts() {
+		return trie.getInserts();
+	}
+
+	public long getMeanInsertNanos() {
+		long inserts = trie.getInserts();
+		return inserts == 0 ? 0 : trie.getInsertNanos() / inserts;
+	}
+
+	public long getMaxInsertNanos() {
+		return trie.getMaxInsertNanos();
+	}
+
+	public long getConflictResolutions() {
+		return trie.getConflictResolutions();
+	}
+
+	public long getRelocatedChildren() {
+		return trie.getRelocatedChildren();
+	}
+
+	public long getMaxRelocatedChildren() {
+		return trie.getMaxRelocatedChildren();
+	}
+
+	public long getFreeScans() {
+		return trie.getFreeScans();
+	}
+
+	public double getMeanFreeScanLength() {
+		long scans = trie.getFreeScans();
+		return scans == 0 ? 0 : (double) trie.getFreeScanLength() / scans;
+	}
+
+	public long getMaxFreeScanLength() {
+		return trie.getMaxFreeScanLength();
+	}
+
+	public long getFailedFreeScans() {
+		return trie.getFailedFreeScans();
+	}
+
+	public long getGrowthEvents() {
+		return trie.getGrowthEvents();
+	}
+
+	public int getCellCount() {
+		return trie.getCellCount();
+	}
+
+	public int getFreeCellCount() {
+		return trie.getFreeCellCount();
+	}
+
+	public double getFillRatio() {
+		return trie.getFillRatio();
+	}
+
+	public long getLookups() {
+		return trie.getLookups();
+	}
+
+	public double getMeanLookupDepth() {
+		return trie.getMeanLookupDepth();
+	}
+
+	public long[] getLookupDepthHistogram() {
+		return trie.getLookupDepthHistogram();
+	}
+}
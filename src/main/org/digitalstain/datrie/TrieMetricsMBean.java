@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+/**
+ * The management interface of TrieMetrics. See InstrumentedTrie for the
+ * meaning of the attributes.
+ */
+public interface TrieMetricsMBean {
+
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	public void reset();
+
+	public long getInserts();
+
+	public long getMeanInsertNanos();
+
+	public long getMaxInsertNanos();
+
+	public long getConflictResolutions();
+
+	public long getRelocatedChildren();
+
+	public long getMaxRelocatedChildren();
+
+	public long getFreeScans();
+
+	public double getMeanFreeScanLength();
+
+	public long getMaxFreeScanLength();
+
+	public long getFailedFreeScans();
+
+	public long getGrowthEvents();
+
+	public int getCellCount();
+
+	public int getFreeCellCount();
+
+	public double getFillRatio();
+
+	public long getLookups();
+
+	public double getMeanLookupDepth();
+
+	public long[] getLookupDepthHistogram();
+}
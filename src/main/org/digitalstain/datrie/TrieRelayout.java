@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Renumbers the states of a trie offline, so that states visited together
+ * are stored together.
+ * <br>
+ * Insertions place a state wherever a free hop is found, so the cells on
+ * one lookup path end up scattered over the whole array. The relayout
+ * rebuilds the arrays from the root down, placing the children of every
+ * state first fit in the order the states are taken: breadth first packs
+ * the top levels, which every lookup goes through, into the first few
+ * cache lines and pages; by frequency takes the states with the most
+ * searches below them first, so the hot paths are packed instead. The
+ * result is a FrozenDoubleArrayTrie with the same keys, which can be
+ * persisted or mapped like any other.
+ */
+public class TrieRelayout {
+
+	/**
+	 * Returns a copy of <tt>trie</tt> with its states in breadth first
+	 * order.
+	 *
+	 * @param trie The trie to copy, which is only read
+	 * @return The relaid copy
+	 */
+	public static FrozenDoubleArrayTrie breadthFirst(AbstractDoubleArrayTrie trie) {
+		return relayout(trie, null);
+	}
+
+	/**
+	 * Returns a copy of <tt>trie</tt> with the states that have the most
+	 * searches ending below them first.
+	 *
+	 * @param trie The trie to copy, which is only read
+	 * @return The relaid copy
+	 */
+	public static FrozenDoubleArrayTrie byFrequency(CountingTrie trie) {
+		IntegerList searchCounts = trie.getSearchCounts();
+		int size = trie.getSize();
+		long[] weights = new long[size];
+		// Sum the counts bottom up: children come after their parent in preorder
+		IntegerList order = preorder(trie);
+		for (int i = order.size() - 1; i >= 0; i--) {
+			int state = order.get(i);
+			if (state < searchCounts.size()) {
+				weights[state] += searchCounts.get(state);
+			}
+			int parent = trie.getCheck(state);
+			if (state != 0) {
+				weights[parent] += weights[state];
+			}
+		}
+		return relayout(trie, weights);
+	}
+
+	/**
+	 * Returns the mean distance, in cells, between a state and its
+	 * children, a rough measure of how far apart a lookup path is spread.
+	 *
+	 * @param trie The trie to measure
+	 * @return The mean distance
+	 */
+	public static double meanTransitionDistance(AbstractDoubleArrayTrie trie) {
+		long total = 0;
+		long transitions = 0;
+		for (int i = 1; i < trie.getSize(); i++) {
+			int parent = trie.getCheck(i);
+			if (parent >= 0) {
+				total += Math.abs(i - parent);
+				transitions++;
+			}
+		}
+		return transitions == 0 ? 0 : (double) total / transitions;
+	}
+
+	/**
+	 * Copies the trie, taking states breadth first, or by decreasing
+	 * weight if <tt>weights</tt> is not null.
+	 */
+	static FrozenDoubleArrayTrie relayout(final AbstractDoubleArrayTrie trie, final long[] weights) {
+		int size = trie.getSize();
+		int alphabetLength = trie.getAlphabetSize();
+		// The new index of every state, -1 for empty cells
+		int[] newIndex = new int[size];
+		Arrays.fill(newIndex, -1);
+		newIndex[0] = 0;
+
+		IntegerList queue = new IntegerArrayList();
+		PriorityQueue<Integer> heap = null;
+		if (weights == null) {
+			queue.add(0);
+		} else {
+			heap = new PriorityQueue<Integer>(64, new Comparator<Integer>() {
+				public int compare(Integer first, Integer second) {
+					long a = weights[first];
+					long b = weights[second];
+					if (a != b) {
+						return a > b ? -1 : 1;
+					}
+					// Keep ties in a stable order
+					return first.compareTo(second);
+				}
+			});
+			heap.add(0);
+		}
+
+		FirstFitPlacement placement = new FirstFitPlacement(false);
+		IntegerList symbols = new IntegerArrayList();
+		IntegerList newBases = new IntegerArrayList();
+		IntegerList oldStates = new IntegerArrayList();
+		int head = 0;
+		while (heap == null ? head < queue.size() : !heap.isEmpty()) {
+			int state = heap == null ? queue.get(head++) : heap.poll();
+			int stateBase = trie.getBase(state);
+			if (stateBase < 0) {
+				continue;
+			}
+			while (!symbols.isEmpty()) {
+				symbols.remove(symbols.size() - 1);
+			}
+			int limit = Math.min(alphabetLength, size - stateBase);
+			for (int symbol = 0; symbol < limit; symbol++) {
+				if (trie.getCheck(stateBase + symbol) == state) {
+					symbols.add(symbol);
+				}
+			}
+			int newBase = placement.place(symbols, 0, symbols.size());
+			oldStates.add(state);
+			newBases.add(newBase);
+			for (int i = 0; i < symbols.size(); i++) {
+				int child = stateBase + symbols.get(i);
+				newIndex[child] = newBase + symbols.get(i);
+				if (heap == null) {
+					queue.add(child);
+				} else {
+					heap.add(child);
+				}
+			}
+		}
+
+		int cells = placement.getEnd();
+		int[] base = new int[cells];
+		int[] check = new int[cells];
+		Arrays.fill(base, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		Arrays.fill(check, AbstractDoubleArrayTrie.EMPTY_VALUE);
+		for (int i = 0; i < size; i++) {
+			int index = newIndex[i];
+			if (index < 0) {
+				continue;
+			}
+			int parent = trie.getCheck(i);
+			check[index] = i == 0 ? AbstractDoubleArrayTrie.ROOT_CHECK_VALUE : newIndex[parent];
+			if (trie.getBase(i) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+				base[index] = AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+			}
+		}
+		for (int i = 0; i < oldStates.size(); i++) {
+			base[newIndex[oldStates.get(i)]] = newBases.get(i);
+		}
+		return new FrozenDoubleArrayTrie(alphabetLength, base, check);
+	}
+
+	private static IntegerList preorder(AbstractDoubleArrayTrie trie) {
+		IntegerList order = new IntegerArrayList();
+		IntegerList stack = new IntegerArrayList();
+		stack.add(0);
+		while (!stack.isEmpty()) {
+			int state = stack.remove(stack.size() - 1);
+			order.add(state);
+			int stateBase = trie.getBase(state);
+			int limit = Math.min(trie.getAlphabetSize(), trie.getSize() - stateBase);
+			for (int symbol = 0; stateBase >= 0 && symbol < limit; symbol++) {
+				if (trie.getCheck(stateBase + symbol) == state) {
+					stack.add(stateBase + symbol);
+				}
+			}
+		}
+		return order;
+	}
+}
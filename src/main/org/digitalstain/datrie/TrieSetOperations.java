@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Union, intersection and difference of the key sets of two tries.
+ * <br>
+ * The two tries are walked in lockstep, depth first and by increasing
+ * symbol, over their base and check arrays: at every pair of states the
+ * children of both are taken in order, so the keys of the result come out
+ * sorted and go straight into a SortedTrieBuilder. Subtrees that only one
+ * side has are copied or skipped whole, states both sides share are
+ * visited once, and no key is ever held other than the one being built.
+ * <br>
+ * The double array does not list the children of a state, so every pair
+ * of states visited probes each symbol that can still fall inside the
+ * arrays of either side, up to the whole alphabet. The walk thus costs
+ * O(states &times; alphabet) at worst, less for the states placed near
+ * the end of the arrays, plus the builder, which reads every key of the
+ * result in full.
+ * <br>
+ * Both tries must have the same alphabet size and must not change during
+ * the operation. Keys of one trie may be prefixes of keys of the other,
+ * which tries that end every key with a terminator never have; a union
+ * would then not be prefix free and is rejected.
+ */
+public class TrieSetOperations {
+
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+
+	/**
+	 * Returns a trie with the keys that are in either trie.
+	 *
+	 * @throws IllegalArgumentException If a key of one trie is a
+	 * 			proper prefix of a key of the other
+	 */
+	public static FrozenDoubleArrayTrie union(AbstractDoubleArrayTrie first, AbstractDoubleArrayTrie second) {
+		return combine(first, second, UNION);
+	}
+
+	/**
+	 * Returns a trie with the keys that are in both tries.
+	 */
+	public static FrozenDoubleArrayTrie intersect(AbstractDoubleArrayTrie first, AbstractDoubleArrayTrie second) {
+		return combine(first, second, INTERSECTION);
+	}
+
+	/**
+	 * Returns a trie with the keys of <tt>first</tt> that are not in
+	 * <tt>second</tt>.
+	 */
+	public static FrozenDoubleArrayTrie subtract(AbstractDoubleArrayTrie first, AbstractDoubleArrayTrie second) {
+		return combine(first, second, DIFFERENCE);
+	}
+
+	private static FrozenDoubleArrayTrie combine(AbstractDoubleArrayTrie first, AbstractDoubleArrayTrie second,
+			int operation) {
+		if (first.getAlphabetSize() != second.getAlphabetSize()) {
+			throw new IllegalArgumentException("Alphabet sizes differ: " + first.getAlphabetSize()
+					+ " and " + second.getAlphabetSize());
+		}
+		SortedTrieBuilder builder = new SortedTrieBuilder(first.getAlphabetSize());
+		walk(first, 0, second, 0, operation, new IntegerArrayList(), builder);
+		return builder.build();
+	}
+
+	/**
+	 * Emits the keys of the result below the pair of states, either of
+	 * which may be -1 for a subtree that side does not have.
+	 */
+	private static void walk(AbstractDoubleArrayTrie first, int firstState, AbstractDoubleArrayTrie second,
+			int secondState, int operation, IntegerList key, SortedTrieBuilder builder) {
+		// As in TrieCursor.nextSymbol(), no child lies past the end of the arrays
+		int firstLimit = symbolLimit(first, firstState);
+		int secondLimit = symbolLimit(second, secondState);
+		int limit = Math.max(firstLimit, secondLimit);
+		for (int symbol = 0; symbol < limit; symbol++) {
+			int firstChild = symbol < firstLimit ? first.getChild(firstState, symbol) : -1;
+			int secondChild = symbol < secondLimit ? second.getChild(secondState, symbol) : -1;
+			if (firstChild < 0 && secondChild < 0) {
+				continue;
+			}
+			boolean firstLeaf = firstChild >= 0
+					&& first.getBase(firstChild) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+			boolean secondLeaf = secondChild >= 0
+					&& second.getBase(secondChild) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE;
+			key.add(symbol);
+			switch (operation) {
+			case UNION:
+				if (firstLeaf || secondLeaf) {
+					if ((firstChild >= 0 && !firstLeaf) || (secondChild >= 0 && !secondLeaf)) {
+						throw new IllegalArgumentException("The key " + key
+								+ " of one trie is a prefix of keys of the other");
+					}
+					builder.add(key);
+				} else {
+					walk(first, firstChild, second, secondChild, operation, key, builder);
+				}
+				break;
+			case INTERSECTION:
+				if (firstChild < 0 || secondChild < 0) {
+					break;
+				}
+				if (firstLeaf && secondLeaf) {
+					builder.add(key);
+				} else if (!firstLeaf && !secondLeaf) {
+					walk(first, firstChild, second, secondChild, operation, key, builder);
+				}
+				break;
+			case DIFFERENCE:
+				if (firstChild < 0) {
+					break;
+				}
+				if (firstLeaf) {
+					if (!secondLeaf) {
+						builder.add(key);
+					}
+				} else {
+					walk(first, firstChild, second, secondLeaf ? -1 : secondChild, operation, key, builder);
+				}
+				break;
+			}
+			key.remove(key.size() - 1);
+		}
+	}
+
+	/**
+	 * Returns one past the greatest symbol a child of <tt>state</tt>
+	 * could have, 0 for no state or a leaf.
+	 */
+	private static int symbolLimit(AbstractDoubleArrayTrie trie, int state) {
+		if (state < 0 || trie.getBase(state) < 0) {
+			return 0;
+		}
+		return Math.max(0, Math.min(trie.getAlphabetSize(), trie.getSize() - trie.getBase(state)));
+	}
+}
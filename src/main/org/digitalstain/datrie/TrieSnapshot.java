@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A point in time copy of the arrays of a DoubleArrayTrieImpl, along with
+ * any per state counters of a CountingTrie. The copy is taken in memory,
+ * so that the trie can keep changing while the snapshot is written out.
+ * <br>
+ * On disk a snapshot is, in little endian order,
+ * <pre>
+ * int magic, int version, int alphabetLength, int size,
+ * int[size] base, int[size] check,
+ * int counterCount, counterCount * (int length, int[length] counts)
+ * </pre>
+ * The free positions are not written, since they are exactly the
+ * cells whose check value is empty.
+ */
+class TrieSnapshot {
+
+	private static final int MAGIC = 0x44415453; // "DATS"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 4;
+	private static final int WRITE_CHUNK = 1 << 16;
+
+	private final int alphabetLength;
+	private final int[] base;
+	private final int[] check;
+	private final int[][] counters;
+
+	private TrieSnapshot(int alphabetLength, int[] base, int[] check, int[][] counters) {
+		this.alphabetLength = alphabetLength;
+		this.base = base;
+		this.check = check;
+		this.counters = counters;
+	}
+
+	/**
+	 * Copies the current state of <tt>trie</tt>. The caller must make sure
+	 * the trie is not modified while this runs.
+	 *
+	 * @param trie The trie to copy
+	 * @return The copy
+	 */
+	static TrieSnapshot capture(DoubleArrayTrieImpl trie) {
+		int size = trie.getSize();
+		int[] base = new int[size];
+		int[] check = new int[size];
+		for (int i = 0; i < size; i++) {
+			base[i] = trie.getBase(i);
+			check[i] = trie.getCheck(i);
+		}
+		int[][] counters;
+		if (trie instanceof CountingTrie) {
+			CountingTrie counting = (CountingTrie) trie;
+			counters = new int[][] { copy(counting.getExistCounts()), copy(counting.getSearchCounts()) };
+		}
+		else {
+			counters = new int[0][];
+		}
+		return new TrieSnapshot(trie.getAlphabetSize(), base, check, counters);
+	}
+
+	private static int[] copy(IntegerList list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes this snapshot to <tt>file</tt> and forces it to the device.
+	 *
+	 * @param file The file to write, overwritten if it exists
+	 * @throws IOException If writing fails
+	 */
+	void writeTo(File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_CHUNK * 4).order(ByteOrder.LITTLE_ENDIAN);
+			IntBuffer ints = buffer.asIntBuffer();
+			ints.put(MAGIC).put(VERSION).put(alphabetLength).put(base.length);
+			ints = writeInts(channel, buffer, ints, base);
+			ints = writeInts(channel, buffer, ints, check);
+			ints = writeInt(channel, buffer, ints, counters.length);
+			for (int[] counter : counters) {
+				ints = writeInt(channel, buffer, ints, counter.length);
+				ints = writeInts(channel, buffer, ints, counter);
+			}
+			drain(channel, buffer, ints);
+			channel.force(true);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static IntBuffer writeInt(FileChannel channel, ByteBuffer buffer, IntBuffer ints,
+			int value) throws IOException {
+		if (!ints.hasRemaining()) {
+			ints = drain(channel, buffer, ints);
+		}
+		ints.put(value);
+		return ints;
+	}
+
+	private static IntBuffer writeInts(FileChannel channel, ByteBuffer buffer, IntBuffer ints,
+			int[] values) throws IOException {
+		int offset = 0;
+		while (offset < values.length) {
+			if (!ints.hasRemaining()) {
+				ints = drain(channel, buffer, ints);
+			}
+			int length = Math.min(ints.remaining(), values.length - offset);
+			ints.put(values, offset, length);
+			offset += length;
+		}
+		return ints;
+	}
+
+	/**
+	 * Writes out what has been put in <tt>ints</tt> and returns a fresh
+	 * view over the emptied buffer.
+	 */
+	private static IntBuffer drain(FileChannel channel, ByteBuffer buffer, IntBuffer ints)
+			throws IOException {
+		buffer.position(0);
+		buffer.limit(ints.position() * 4);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		return buffer.asIntBuffer();
+	}
+
+	/**
+	 * Maps <tt>file</tt> and restores its contents into <tt>trie</tt>,
+	 * which must be empty and of the same alphabet size and, if the
+	 * snapshot holds counters, a CountingTrie. The layout of the whole
+	 * file is checked before the trie is touched, so a trie that a bad
+	 * snapshot is rejected for is left empty.
+	 *
+	 * @param file The snapshot to read
+	 * @param trie The trie to restore into
+	 * @throws IOException If the file cannot be read or is not a valid
+	 * 			snapshot for <tt>trie</tt>
+	 */
+	static void restore(File file, DoubleArrayTrieImpl trie) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			IntBuffer ints = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			if (ints.remaining() < HEADER_INTS || ints.get() != MAGIC) {
+				throw new IOException("Not a trie snapshot: " + file);
+			}
+			int version = ints.get();
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + " in " + file);
+			}
+			int alphabet = ints.get();
+			if (alphabet != trie.getAlphabetSize()) {
+				throw new IOException("Snapshot " + file + " is for alphabet size " + alphabet
+						+ ", trie has " + trie.getAlphabetSize());
+			}
+			int size = ints.get();
+			// The arrays and the counter count
+			if (size < 1 || (long) size * 2 + 1 > ints.remaining()) {
+				throw new IOException("Truncated snapshot " + file);
+			}
+			IntBuffer base = ints.slice();
+			base.limit(size);
+			ints.position(ints.position() + size);
+			IntBuffer check = ints.slice();
+			check.limit(size);
+			ints.position(ints.position() + size);
+			int counterCount = ints.get();
+			if (counterCount != 0 && (!(trie instanceof CountingTrie) || counterCount != 2)) {
+				throw new IOException("Snapshot " + file + " holds " + counterCount
+						+ " counters that " + trie.getClass().getName() + " cannot take");
+			}
+			IntBuffer counters = ints.slice();
+			for (int i = 0; i < counterCount; i++) {
+				int length = counters.hasRemaining() ? counters.get() : -1;
+				if (length < 0 || length > counters.remaining()) {
+					throw new IOException("Truncated counter in snapshot " + file);
+				}
+				counters.position(counters.position() + length);
+			}
+
+			trie.restore(size, base, check);
+			if (counterCount == 0) {
+				return;
+			}
+			CountingTrie counting = (CountingTrie) trie;
+			readCounter(ints, counting.getExistCounts());
+			readCounter(ints, counting.getSearchCounts());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Restores <tt>file</tt> into a new trie of the alphabet size it was
+	 * written with, a CountingTrie if it holds counters.
+	 *
+	 * @param file The snapshot to read
+	 * @return The restored trie
+	 * @throws IOException If the file cannot be read or is not a valid snapshot
+	 */
+	static DoubleArrayTrieImpl open(File file) throws IOException {
+		int alphabet;
+		int counterCount;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.length() < (HEADER_INTS + 1) * 4 || Integer.reverseBytes(in.readInt()) != MAGIC) {
+				throw new IOException("Not a trie snapshot: " + file);
+			}
+			in.readInt();
+			alphabet = Integer.reverseBytes(in.readInt());
+			long size = Integer.reverseBytes(in.readInt());
+			long counterOffset = (HEADER_INTS + 2 * size) * 4;
+			if (size < 1 || counterOffset + 4 > in.length()) {
+				throw new IOException("Truncated snapshot " + file);
+			}
+			in.seek(counterOffset);
+			counterCount = Integer.reverseBytes(in.readInt());
+		}
+		finally {
+			in.close();
+		}
+		DoubleArrayTrieImpl trie = counterCount == 0 ? new DoubleArrayTrieImpl(alphabet)
+				: new CountingTrie(alphabet);
+		restore(file, trie);
+		return trie;
+	}
+
+	private static void readCounter(IntBuffer ints, IntegerList counter) throws IOException {
+		int length = ints.get();
+		if (length > ints.remaining()) {
+			throw new IOException("Truncated counter in snapshot");
+		}
+		for (int i = 0; i < length; i++) {
+			int value = ints.get();
+			if (i < counter.size()) {
+				counter.set(i, value);
+			}
+			else {
+				counter.add(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.digitalstain.datrie.mapping.NaturalMapping;
+
+/**
+ * Splits a stream of characters into the longest keys of a trie, taking
+ * the input in chunks of any size.
+ * <br>
+ * At every position the longest key that starts there is reported as a
+ * token, and the scan goes on after it; where no key starts, one symbol
+ * is skipped. Finding the longest key may need to look further ahead than
+ * the key itself and then back up, so the tokenizer keeps the symbols of
+ * the walk in progress, which is never longer than the longest key. The
+ * memory used therefore does not depend on the length of the input or of
+ * its lines, and the walk carries on across chunk boundaries.
+ * <br>
+ * The handler controls the flow: when it returns false the tokenizer
+ * pauses. feed() then returns how much of the chunk it took, and the rest
+ * of the chunk should be fed again when the consumer is ready. Characters
+ * that map outside the alphabet end any walk and are never part of a
+ * token. For tries that end every key with a terminator, a key matches
+ * when its symbols are followed by the terminator in the trie; without
+ * one, keys cannot be prefixes of each other and every walk ends at the
+ * first key it meets.
+ * <br>
+ * The trie must not change while a tokenizer is in use, and a tokenizer
+ * is not thread safe.
+ */
+public class TrieTokenizer {
+
+	// Mapped symbols of the first 256 characters, filled on first use
+	private static final int NOT_CACHED = Integer.MIN_VALUE;
+
+	private final AbstractDoubleArrayTrie trie;
+	private final NaturalMapping<Character> mapping;
+	private final int terminator;
+	private final TokenHandler handler;
+	private final int[] naturals = new int[256];
+
+	// The symbols of the walk in progress are pending[head, tail)
+	private int[] pending = new int[16];
+	private int head;
+	private int tail;
+	// The offset of the next symbol to be fed
+	private long position;
+	// The walk: its state, how many pending symbols it took and its longest match
+	private int state;
+	private int walked;
+	private int matched;
+	private int matchedKey;
+	private boolean paused;
+
+	/**
+	 * @param trie The trie holding the keys
+	 * @param mapping Maps characters to the symbols of the trie
+	 * @param terminator The symbol every key ends with, -1 for none
+	 * @param handler The receiver of the tokens
+	 */
+	public TrieTokenizer(AbstractDoubleArrayTrie trie, NaturalMapping<Character> mapping,
+			int terminator, TokenHandler handler) {
+		this.trie = trie;
+		this.mapping = mapping;
+		this.terminator = terminator;
+		this.handler = handler;
+		Arrays.fill(naturals, NOT_CACHED);
+	}
+
+	/**
+	 * Feeds the characters of <tt>chunk</tt> from <tt>from</tt> up to
+	 * <tt>to</tt>.
+	 *
+	 * @return The number of characters taken, less than asked for if
+	 * 			the handler paused the tokenizer
+	 */
+	public int feed(CharSequence chunk, int from, int to) {
+		if (!resume()) {
+			return 0;
+		}
+		for (int i = from; i < to; i++) {
+			push(toSymbol(chunk.charAt(i)));
+			if (!run(false)) {
+				return i + 1 - from;
+			}
+		}
+		return to - from;
+	}
+
+	/**
+	 * Feeds the remaining bytes of <tt>bytes</tt>, each taken as the
+	 * character of the same value, as in ISO-8859-1. Its position is
+	 * advanced past the bytes taken, which are fewer than remaining if the
+	 * handler paused the tokenizer.
+	 *
+	 * @return The number of bytes taken
+	 */
+	public int feed(ByteBuffer bytes) {
+		if (!resume()) {
+			return 0;
+		}
+		int taken = 0;
+		while (bytes.hasRemaining()) {
+			push(toSymbol((char) (bytes.get() & 0xff)));
+			taken++;
+			if (!run(false)) {
+				break;
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * Ends the input, reporting the tokens still pending. Once it returns
+	 * true, the tokenizer is ready for a new input starting at offset 0.
+	 *
+	 * @return true if done, false if the handler paused the tokenizer,
+	 * 			in which case finish() should be called again
+	 */
+	public boolean finish() {
+		paused = false;
+		if (!run(true)) {
+			return false;
+		}
+		position = 0;
+		return true;
+	}
+
+	/**
+	 * Returns true if the handler paused the tokenizer and it has
+	 * not been resumed by feeding it since.
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Returns the offset of the next character to be fed.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the number of characters taken but not yet resolved
+	 * into tokens.
+	 */
+	public int getPendingCount() {
+		return tail - head;
+	}
+
+	private boolean resume() {
+		if (paused) {
+			paused = false;
+			return run(false);
+		}
+		return true;
+	}
+
+	private int toSymbol(char c) {
+		int natural;
+		if (c < naturals.length) {
+			natural = naturals[c];
+			if (natural == NOT_CACHED) {
+				natural = mapping.toNatural(Character.valueOf(c));
+				naturals[c] = natural;
+			}
+		} else {
+			natural = mapping.toNatural(Character.valueOf(c));
+		}
+		return natural < 0 || natural >= trie.getAlphabetSize() ? -1 : natural;
+	}
+
+	private void push(int symbol) {
+		if (tail == pending.length) {
+			if (head > 0) {
+				System.arraycopy(pending, head, pending, 0, tail - head);
+			} else {
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			}
+			tail -= head;
+			head = 0;
+		}
+		pending[tail++] = symbol;
+		position++;
+	}
+
+	/**
+	 * Walks the pending symbols, resolving a token whenever the walk can
+	 * go no further, or at the end of the input.
+	 *
+	 * @return false if the handler paused the tokenizer
+	 */
+	private boolean run(boolean endOfInput) {
+		while (head < tail) {
+			if (head + walked == tail) {
+				if (!endOfInput) {
+					return true;
+				}
+			} else {
+				int symbol = pending[head + walked];
+				int child = symbol < 0 ? -1 : trie.getChild(state, symbol);
+				if (child >= 0 && trie.getBase(child) != AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+					state = child;
+					walked++;
+					if (terminator >= 0) {
+						int end = trie.getChild(state, terminator);
+						if (end >= 0 && trie.getBase(end) == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+							matched = walked;
+							matchedKey = end;
+						}
+					}
+					continue;
+				}
+				if (child >= 0 && terminator < 0) {
+					walked++;
+					matched = walked;
+					matchedKey = child;
+				}
+			}
+			// The walk is over, report its longest match or skip a symbol
+			long start = position - (tail - head);
+			int length = matched;
+			int key = matchedKey;
+			head += length > 0 ? length : 1;
+			state = 0;
+			walked = 0;
+			matched = 0;
+			if (length > 0 && !handler.token(start, start + length, key)) {
+				paused = true;
+				return false;
+			}
+		}
+		head = 0;
+		tail = 0;
+		return true;
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.io;
+
+/**
+ * Receives periodic notifications about the progress of a
+ * StreamingTrieLoader. Calls are made from the loading thread,
+ * so implementations should return quickly.
+ */
+public interface LoadProgressListener {
+
+	/**
+	 * Called every time the configured amount of input has been
+	 * consumed and once more when the load is complete.
+	 *
+	 * @param statistics The live statistics of the load. Must not be
+	 * 			retained, since it keeps changing.
+	 * @param finished true if this is the final call for this load
+	 */
+	public void progress(LoadStatistics statistics, boolean finished);
+}
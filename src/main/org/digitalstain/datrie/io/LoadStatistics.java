@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.io;
+
+/**
+ * The running totals of a load performed by a StreamingTrieLoader.
+ * The same instance is updated while the load is in progress and
+ * handed to the LoadProgressListener, so listeners that want to keep
+ * a value must copy it.
+ */
+public class LoadStatistics {
+
+	// Bytes consumed from the channel so far
+	long bytesRead;
+	// The size of the input, -1 if not known
+	long totalBytes = -1;
+	// Non empty lines seen
+	long keysRead;
+	// Lines that changed the trie
+	long keysAdded;
+	// Lines that contained symbols outside the trie alphabet
+	long keysRejected;
+	// System.nanoTime() at the start of the load
+	long startNanos;
+	// System.nanoTime() at the last update
+	long lastNanos;
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the size of the input in bytes, or -1 if it is not known,
+	 * as is the case for channels that are not files.
+	 *
+	 * @return The size of the input, -1 if unknown
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getKeysRead() {
+		return keysRead;
+	}
+
+	public long getKeysAdded() {
+		return keysAdded;
+	}
+
+	public long getKeysRejected() {
+		return keysRejected;
+	}
+
+	public long getElapsedNanos() {
+		return lastNanos - startNanos;
+	}
+
+	/**
+	 * Returns the fraction of the input consumed so far, in [0, 1],
+	 * or -1 if the size of the input is not known.
+	 *
+	 * @return The fraction of the input processed
+	 */
+	public double getProgress() {
+		if (totalBytes < 0) {
+			return -1;
+		}
+		if (totalBytes == 0) {
+			return 1;
+		}
+		return (double) bytesRead / totalBytes;
+	}
+
+	public double getKeysPerSecond() {
+		long elapsed = getElapsedNanos();
+		return elapsed == 0 ? 0 : keysRead * 1e9 / elapsed;
+	}
+
+	public double getBytesPerSecond() {
+		long elapsed = getElapsedNanos();
+		return elapsed == 0 ? 0 : bytesRead * 1e9 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d bytes, %d keys read, %d added, %d rejected in %.3fs (%.0f keys/s, %.1f MB/s)",
+				bytesRead, keysRead, keysAdded, keysRejected, getElapsedNanos() / 1e9,
+				getKeysPerSecond(), getBytesPerSecond() / (1024 * 1024));
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.digitalstain.datrie.AbstractDoubleArrayTrie;
+import org.digitalstain.datrie.mapping.NaturalMapping;
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Loads newline delimited keys from a channel straight into a trie.
+ * <br>
+ * The input is read in large buffers and decoded incrementally, so
+ * at no point is more than one buffer of input and a single key
+ * held on the heap. Each line is mapped symbol by symbol through a
+ * NaturalMapping and added to the trie as soon as it is complete,
+ * which keeps the peak memory of a load proportional to the trie
+ * itself and not to the size of the input.
+ * <br>
+ * Lines end with a newline, a carriage return or both, and empty
+ * lines are ignored. Lines containing a character that maps outside
+ * the alphabet of the trie are counted as rejected and skipped.
+ */
+public class StreamingTrieLoader {
+
+	/**
+	 * The default size of the read buffer, 1MB.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	// Marks a character whose natural has not been looked up yet
+	private static final int NOT_CACHED = Integer.MIN_VALUE;
+
+	private final AbstractDoubleArrayTrie trie;
+	private final NaturalMapping<Character> mapping;
+	private final Charset charset;
+	private final int bufferSize;
+	/*
+	 * The mapping is consulted once per distinct character, since
+	 * NaturalMapping implementations are free to be expensive (the
+	 * CharacterNaturalMapping goes through a Charset every time).
+	 */
+	private final int[] naturals;
+
+	private LoadProgressListener listener;
+	private long reportInterval;
+
+	/**
+	 * Creates a loader for UTF-8 input with the default buffer size.
+	 *
+	 * @param trie The trie to add the keys to
+	 * @param mapping The mapping from characters to trie symbols
+	 */
+	public StreamingTrieLoader(AbstractDoubleArrayTrie trie, NaturalMapping<Character> mapping) {
+		this(trie, mapping, Charset.forName("UTF-8"), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a loader for input in the given charset that reads
+	 * <tt>bufferSize</tt> bytes at a time.
+	 *
+	 * @param trie The trie to add the keys to
+	 * @param mapping The mapping from characters to trie symbols
+	 * @param charset The encoding of the input
+	 * @param bufferSize The size of the read buffer in bytes
+	 */
+	public StreamingTrieLoader(AbstractDoubleArrayTrie trie, NaturalMapping<Character> mapping,
+			Charset charset, int bufferSize) {
+		if (bufferSize < 16) {
+			throw new IllegalArgumentException("Buffer size too small " + bufferSize);
+		}
+		this.trie = trie;
+		this.mapping = mapping;
+		this.charset = charset;
+		this.bufferSize = bufferSize;
+		this.naturals = new int[Character.MAX_VALUE + 1];
+		Arrays.fill(naturals, NOT_CACHED);
+	}
+
+	/**
+	 * Registers a listener that is notified every <tt>everyBytes</tt>
+	 * bytes of input and at the end of every load.
+	 *
+	 * @param listener The listener, null to stop reporting
+	 * @param everyBytes The amount of input between two reports
+	 */
+	public void setProgressListener(LoadProgressListener listener, long everyBytes) {
+		this.listener = listener;
+		this.reportInterval = everyBytes;
+	}
+
+	/**
+	 * Loads every line of <tt>file</tt> in the trie.
+	 *
+	 * @param file The file to read
+	 * @return The statistics of the completed load
+	 * @throws IOException If reading fails or the input is not valid
+	 * 			in the configured charset
+	 */
+	public LoadStatistics load(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return load(channel, channel.size());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads every line readable from <tt>channel</tt> in the trie. The
+	 * channel is consumed to its end but it is not closed.
+	 *
+	 * @param channel The source of the keys
+	 * @param totalBytes The size of the input if known, for progress
+	 * 			reporting, or -1
+	 * @return The statistics of the completed load
+	 * @throws IOException If reading fails or the input is not valid
+	 * 			in the configured charset
+	 */
+	public LoadStatistics load(ReadableByteChannel channel, long totalBytes) throws IOException {
+		LoadStatistics stats = new LoadStatistics();
+		stats.totalBytes = totalBytes;
+		stats.startNanos = System.nanoTime();
+		stats.lastNanos = stats.startNanos;
+
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(bufferSize);
+		CharBuffer chars = CharBuffer.allocate(bufferSize);
+		LineState line = new LineState();
+		long nextReport = reportInterval;
+
+		boolean endOfInput = false;
+		while (!endOfInput) {
+			int read = channel.read(bytes);
+			if (read < 0) {
+				endOfInput = true;
+			}
+			else {
+				stats.bytesRead += read;
+			}
+			bytes.flip();
+			decode(decoder, bytes, chars, endOfInput);
+			bytes.compact();
+			consume(chars, line, stats);
+
+			if (listener != null && stats.bytesRead >= nextReport) {
+				stats.lastNanos = System.nanoTime();
+				listener.progress(stats, false);
+				nextReport = stats.bytesRead + reportInterval;
+			}
+		}
+		// Drain whatever the decoder still holds
+		CoderResult result = decoder.flush(chars);
+		if (result.isError()) {
+			result.throwException();
+		}
+		consume(chars, line, stats);
+		// The last line need not be newline terminated
+		endLine(line, stats);
+
+		stats.lastNanos = System.nanoTime();
+		if (listener != null) {
+			listener.progress(stats, true);
+		}
+		return stats;
+	}
+
+	private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+			boolean endOfInput) throws CharacterCodingException {
+		CoderResult result = decoder.decode(bytes, chars, endOfInput);
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+
+	/**
+	 * Maps the decoded characters into the current line, handing
+	 * every complete line to the trie. Leaves <tt>chars</tt> empty
+	 * and ready to be filled again.
+	 */
+	private void consume(CharBuffer chars, LineState line, LoadStatistics stats) {
+		chars.flip();
+		while (chars.hasRemaining()) {
+			char c = chars.get();
+			if (c == '\n') {
+				if (line.pendingReturn) {
+					// The second half of a CRLF, the line already ended
+					line.pendingReturn = false;
+				}
+				else {
+					endLine(line, stats);
+				}
+			}
+			else if (c == '\r') {
+				endLine(line, stats);
+				// A newline right after belongs to this line end
+				line.pendingReturn = true;
+			}
+			else {
+				line.pendingReturn = false;
+				append(c, line);
+			}
+		}
+		chars.clear();
+	}
+
+	private void append(char c, LineState line) {
+		if (line.rejected) {
+			return;
+		}
+		int natural = naturals[c];
+		if (natural == NOT_CACHED) {
+			natural = mapping.toNatural(Character.valueOf(c));
+			naturals[c] = natural;
+		}
+		if (natural < 0 || natural >= trie.getAlphabetSize()) {
+			line.rejected = true;
+			return;
+		}
+		line.key.add(natural);
+	}
+
+	private void endLine(LineState line, LoadStatistics stats) {
+		if (line.rejected) {
+			stats.keysRead++;
+			stats.keysRejected++;
+		}
+		else if (!line.key.isEmpty()) {
+			stats.keysRead++;
+			if (trie.addToTrie(line.key)) {
+				stats.keysAdded++;
+			}
+		}
+		line.reset();
+	}
+
+	/**
+	 * The line being assembled. The key list is never retained by
+	 * the trie, so it is emptied and reused for the next line.
+	 */
+	private static class LineState {
+		final IntegerList key = new IntegerArrayList();
+		// The last character was a carriage return
+		boolean pendingReturn;
+		boolean rejected;
+
+		void reset() {
+			while (!key.isEmpty()) {
+				key.remove(key.size() - 1);
+			}
+			pendingReturn = false;
+			rejected = false;
+		}
+	}
+}
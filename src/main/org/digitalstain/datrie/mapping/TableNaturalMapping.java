@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.mapping;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps characters to naturals through an explicit table, as stored
+ * alongside a trie by TrieFile. Natural i is the character at index i of
+ * the table; characters not in the table map to the length of the table,
+ * one past the greatest natural, and that natural maps back to null.
+ */
+public class TableNaturalMapping implements NaturalMapping<Character> {
+
+	private final char[] table;
+	private final Map<Character, Integer> naturals;
+
+	/**
+	 * @param table The character of every natural, without repetitions
+	 */
+	public TableNaturalMapping(char[] table) {
+		this.table = table.clone();
+		naturals = new HashMap<Character, Integer>(table.length * 2);
+		for (int i = 0; i < table.length; i++) {
+			if (naturals.put(Character.valueOf(table[i]), Integer.valueOf(i)) != null) {
+				throw new IllegalArgumentException("Character " + table[i] + " appears twice");
+			}
+		}
+	}
+
+	/**
+	 * Returns a table of the characters <tt>mapping</tt> maps the
+	 * naturals from 0 up to <tt>length</tt> to.
+	 *
+	 * @param mapping The mapping to tabulate
+	 * @param length The number of naturals
+	 * @return The table
+	 */
+	public static char[] tabulate(NaturalMapping<Character> mapping, int length) {
+		char[] table = new char[length];
+		for (int i = 0; i < length; i++) {
+			Character c = mapping.fromNatural(i);
+			if (c == null) {
+				throw new IllegalArgumentException("No character for natural " + i);
+			}
+			table[i] = c.charValue();
+		}
+		return table;
+	}
+
+	/**
+	 * Returns a copy of the table.
+	 */
+	public char[] getTable() {
+		return table.clone();
+	}
+
+	@Override
+	public int getN() {
+		return table.length - 1;
+	}
+
+	@Override
+	public Character fromNatural(int i) {
+		if (i < 0) {
+			throw new NotANaturalException();
+		}
+		return i < table.length ? Character.valueOf(table[i]) : null;
+	}
+
+	@Override
+	public int toNatural(Character object) {
+		Integer natural = naturals.get(object);
+		return natural == null ? table.length : natural.intValue();
+	}
+
+	@Override
+	public Character getUnmapped() {
+		return null;
+	}
+}
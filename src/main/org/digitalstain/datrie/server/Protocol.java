@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * The wire format shared by TrieServer and TrieClient. Everything is big
+ * endian, as written by DataOutputStream.
+ * <pre>
+ * request:  byte op, key, [int limit, for COMPLETE]
+ * key:      int length, int[length] symbols
+ * response: byte status, then for OK
+ *           CONTAINS:       byte SearchResult ordinal
+ *           COMMON_PREFIX:  int count, int[count] lengths
+ *           COMPLETE:       int count, count * key
+ *           and for ERROR:  UTF message
+ * </pre>
+ * Requests are answered in the order they arrive, so a client may send
+ * many before reading any response.
+ */
+final class Protocol {
+
+	static final byte CONTAINS = 1;
+	static final byte COMMON_PREFIX = 2;
+	static final byte COMPLETE = 3;
+
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+
+	/**
+	 * The longest key accepted, to keep a bad length from allocating
+	 * without bound.
+	 */
+	static final int MAX_KEY_LENGTH = 1 << 16;
+
+	private Protocol() {
+	}
+
+	static void writeKey(DataOutputStream out, IntegerList key) throws IOException {
+		out.writeInt(key.size());
+		for (int i = 0; i < key.size(); i++) {
+			out.writeInt(key.get(i));
+		}
+	}
+
+	/**
+	 * Reads a key into <tt>key</tt>, which is emptied first.
+	 */
+	static void readKey(DataInputStream in, IntegerList key) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_KEY_LENGTH) {
+			throw new IOException("Invalid key length " + length);
+		}
+		while (!key.isEmpty()) {
+			key.remove(key.size() - 1);
+		}
+		for (int i = 0; i < length; i++) {
+			key.add(in.readInt());
+		}
+	}
+}
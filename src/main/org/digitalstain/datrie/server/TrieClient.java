@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+
+import org.digitalstain.datrie.SearchResult;
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A connection to a TrieServer.
+ * <br>
+ * The send methods only buffer a request; flush() puts everything
+ * buffered on the wire. The read methods take the responses in the order
+ * the requests were sent, so a client can keep many requests in flight,
+ * or use the blocking methods that do one round trip each. A client is
+ * not thread safe, but one thread may send while another reads.
+ */
+public class TrieClient {
+
+	private static final SearchResult[] RESULTS = SearchResult.values();
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	public TrieClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	public void sendContains(IntegerList key) throws IOException {
+		out.writeByte(Protocol.CONTAINS);
+		Protocol.writeKey(out, key);
+	}
+
+	public void sendCommonPrefixSearch(IntegerList string) throws IOException {
+		out.writeByte(Protocol.COMMON_PREFIX);
+		Protocol.writeKey(out, string);
+	}
+
+	/**
+	 * @param prefix The prefix of the keys wanted
+	 * @param limit The most keys wanted
+	 */
+	public void sendComplete(IntegerList prefix, int limit) throws IOException {
+		out.writeByte(Protocol.COMPLETE);
+		Protocol.writeKey(out, prefix);
+		out.writeInt(limit);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public SearchResult readContains() throws IOException {
+		readStatus();
+		int ordinal = in.readByte();
+		if (ordinal < 0 || ordinal >= RESULTS.length) {
+			throw new IOException("Invalid search result " + ordinal);
+		}
+		return RESULTS[ordinal];
+	}
+
+	/**
+	 * Reads the lengths of the prefixes found into <tt>lengths</tt>.
+	 *
+	 * @return The number of prefixes found
+	 */
+	public int readCommonPrefixSearch(IntegerList lengths) throws IOException {
+		readStatus();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			lengths.add(in.readInt());
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the completions into <tt>keys</tt>, in order.
+	 *
+	 * @return The number of keys read
+	 */
+	public int readComplete(List<IntegerList> keys) throws IOException {
+		readStatus();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			IntegerList key = new IntegerArrayList();
+			Protocol.readKey(in, key);
+			keys.add(key);
+		}
+		return count;
+	}
+
+	public SearchResult contains(IntegerList key) throws IOException {
+		sendContains(key);
+		flush();
+		return readContains();
+	}
+
+	public int commonPrefixSearch(IntegerList string, IntegerList lengths) throws IOException {
+		sendCommonPrefixSearch(string);
+		flush();
+		return readCommonPrefixSearch(lengths);
+	}
+
+	public int complete(IntegerList prefix, int limit, List<IntegerList> keys) throws IOException {
+		sendComplete(prefix, limit);
+		flush();
+		return readComplete(keys);
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Reads the status of a response, throwing the error it carries.
+	 */
+	private void readStatus() throws IOException {
+		byte status = in.readByte();
+		if (status == Protocol.ERROR) {
+			throw new IOException("Server error: " + in.readUTF());
+		}
+		if (status != Protocol.OK) {
+			throw new IOException("Invalid response status " + status);
+		}
+	}
+}
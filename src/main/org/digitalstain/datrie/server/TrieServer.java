@@ -0,0 +1,389 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.digitalstain.datrie.AbstractDoubleArrayTrie;
+import org.digitalstain.datrie.BatchLookup;
+import org.digitalstain.datrie.FrozenDoubleArrayTrie;
+import org.digitalstain.datrie.KeyCursor;
+import org.digitalstain.datrie.SearchResult;
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * An embeddable server that answers containsPrefix, common prefix and
+ * completion queries on a trie over the binary protocol of TrieClient.
+ * <br>
+ * Every connection is served by one blocking task on the executor given
+ * to the constructor. Blocking code is simplest to follow and costs
+ * little once threads are cheap: on runtimes that have virtual threads,
+ * newConnectionExecutor() runs every connection on one of its own.
+ * <br>
+ * Clients may pipeline: the server reads every request that has already
+ * arrived on a connection, up to a batch limit, answers them together and
+ * flushes once. Over a FrozenDoubleArrayTrie the lookups of a batch go
+ * through BatchLookup, so they overlap their memory accesses.
+ * <br>
+ * The trie is only read, by all connections at once, so it must not
+ * change while it is served.
+ */
+public class TrieServer {
+
+	/**
+	 * The default largest number of requests answered together.
+	 */
+	public static final int DEFAULT_MAX_BATCH = 64;
+
+	private final AbstractDoubleArrayTrie trie;
+	private final int terminator;
+	private final ExecutorService executor;
+	private final int maxBatch;
+	private final Set<Socket> connections = new HashSet<Socket>();
+	private ServerSocket serverSocket;
+	private Thread acceptor;
+
+	/**
+	 * @param trie The trie to serve
+	 * @param terminator The symbol every key ends with, -1 for none
+	 * @param executor Runs one task per connection
+	 */
+	public TrieServer(AbstractDoubleArrayTrie trie, int terminator, ExecutorService executor) {
+		this(trie, terminator, executor, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * @param trie The trie to serve
+	 * @param terminator The symbol every key ends with, -1 for none
+	 * @param executor Runs one task per connection
+	 * @param maxBatch The most requests answered together
+	 */
+	public TrieServer(AbstractDoubleArrayTrie trie, int terminator, ExecutorService executor, int maxBatch) {
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("Invalid batch size " + maxBatch);
+		}
+		this.trie = trie;
+		this.terminator = terminator;
+		this.executor = executor;
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task where the
+	 * runtime has them, or else a new thread, reused when idle.
+	 */
+	public static ExecutorService newConnectionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Starts accepting connections on <tt>port</tt> of the loopback
+	 * interface.
+	 *
+	 * @param port The port, 0 for any free one
+	 * @return The port bound
+	 * @throws IOException If the port cannot be bound
+	 */
+	public int start(int port) throws IOException {
+		return start(new InetSocketAddress(InetAddress.getByName(null), port));
+	}
+
+	/**
+	 * Starts accepting connections on <tt>address</tt>.
+	 *
+	 * @param address The address to bind
+	 * @return The port bound
+	 * @throws IOException If the address cannot be bound
+	 */
+	public synchronized int start(InetSocketAddress address) throws IOException {
+		if (serverSocket != null) {
+			throw new IllegalStateException("Already started");
+		}
+		serverSocket = new ServerSocket();
+		serverSocket.bind(address);
+		acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "TrieServer acceptor " + serverSocket.getLocalPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting and closes every open connection. The executor is
+	 * left running.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (serverSocket == null) {
+				return;
+			}
+			serverSocket.close();
+		}
+		synchronized (connections) {
+			for (Socket socket : connections) {
+				socket.close();
+			}
+			connections.clear();
+		}
+	}
+
+	private void accept() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			}
+			catch (IOException e) {
+				// Closed
+				return;
+			}
+			synchronized (connections) {
+				connections.add(socket);
+			}
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							serve(socket);
+						}
+						catch (IOException e) {
+							// The connection is dropped either way
+						}
+						finally {
+							synchronized (connections) {
+								connections.remove(socket);
+							}
+							try {
+								socket.close();
+							}
+							catch (IOException e) {
+							}
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				// No task to serve it, drop the connection and go on
+				synchronized (connections) {
+					connections.remove(socket);
+				}
+				try {
+					socket.close();
+				}
+				catch (IOException closing) {
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		List<Request> requests = new ArrayList<Request>(maxBatch);
+		for (int i = 0; i < maxBatch; i++) {
+			requests.add(new Request());
+		}
+		List<IntegerList> lookups = new ArrayList<IntegerList>(maxBatch);
+		SearchResult[] results = new SearchResult[maxBatch];
+		BatchLookup batch = trie instanceof FrozenDoubleArrayTrie ?
+				new BatchLookup((FrozenDoubleArrayTrie) trie) : null;
+		KeyCursor cursor = new KeyCursor(trie);
+		IntegerList lengths = new IntegerArrayList();
+		ByteArrayOutputStream completions = new ByteArrayOutputStream();
+
+		while (true) {
+			int count = 0;
+			try {
+				do {
+					requests.get(count).read(in);
+					count++;
+				} while (count < maxBatch && in.available() > 0);
+			}
+			catch (EOFException e) {
+				if (count == 0) {
+					return;
+				}
+			}
+			catch (SocketException e) {
+				return;
+			}
+			catch (IOException e) {
+				// Malformed, the rest of the stream cannot be trusted
+				for (int i = 0; i < count; i++) {
+					answer(requests.get(i), out, cursor, lengths, completions);
+				}
+				out.writeByte(Protocol.ERROR);
+				out.writeUTF(e.getMessage() != null ? e.getMessage() : "Malformed request");
+				out.flush();
+				return;
+			}
+
+			lookups.clear();
+			for (int i = 0; i < count; i++) {
+				Request request = requests.get(i);
+				if (request.op == Protocol.CONTAINS && request.valid) {
+					lookups.add(request.key);
+				}
+			}
+			if (batch != null && lookups.size() > 1) {
+				batch.lookup(lookups, results);
+			} else {
+				for (int i = 0; i < lookups.size(); i++) {
+					results[i] = trie.containsPrefix(lookups.get(i));
+				}
+			}
+			int lookup = 0;
+			for (int i = 0; i < count; i++) {
+				Request request = requests.get(i);
+				if (request.op == Protocol.CONTAINS && request.valid) {
+					out.writeByte(Protocol.OK);
+					out.writeByte(results[lookup++].ordinal());
+				} else {
+					answer(request, out, cursor, lengths, completions);
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Answers a request other than a valid lookup.
+	 */
+	private void answer(Request request, DataOutputStream out, KeyCursor cursor, IntegerList lengths,
+			ByteArrayOutputStream completions) throws IOException {
+		if (!request.valid) {
+			out.writeByte(Protocol.ERROR);
+			out.writeUTF("Symbol out of the alphabet");
+			return;
+		}
+		switch (request.op) {
+		case Protocol.CONTAINS:
+			out.writeByte(Protocol.OK);
+			out.writeByte(trie.containsPrefix(request.key).ordinal());
+			break;
+		case Protocol.COMMON_PREFIX:
+			while (!lengths.isEmpty()) {
+				lengths.remove(lengths.size() - 1);
+			}
+			trie.commonPrefixSearch(request.key, terminator, lengths);
+			out.writeByte(Protocol.OK);
+			out.writeInt(lengths.size());
+			for (int i = 0; i < lengths.size(); i++) {
+				out.writeInt(lengths.get(i));
+			}
+			break;
+		case Protocol.COMPLETE:
+			complete(request, out, cursor, completions);
+			break;
+		}
+	}
+
+	/**
+	 * Writes up to the limit of keys that start with the key of the
+	 * request, in order. The count goes before the keys, so they are
+	 * written to <tt>completions</tt> in the one walk over them and copied
+	 * out after it.
+	 */
+	private void complete(Request request, DataOutputStream out, KeyCursor cursor,
+			ByteArrayOutputStream completions) throws IOException {
+		IntegerList prefix = request.key;
+		completions.reset();
+		DataOutputStream keys = new DataOutputStream(completions);
+		int count = 0;
+		boolean more = cursor.ceiling(prefix);
+		while (more && count < request.limit && startsWith(cursor.key(), prefix)) {
+			Protocol.writeKey(keys, cursor.key());
+			count++;
+			more = cursor.next();
+		}
+		out.writeByte(Protocol.OK);
+		out.writeInt(count);
+		completions.writeTo(out);
+	}
+
+	private static boolean startsWith(IntegerList key, IntegerList prefix) {
+		if (key.size() < prefix.size()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.size(); i++) {
+			if (key.get(i) != prefix.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A request read off a connection, reused for the next batch.
+	 */
+	private class Request {
+
+		byte op;
+		final IntegerList key = new IntegerArrayList();
+		int limit;
+		// False if a symbol is out of the alphabet
+		boolean valid;
+
+		void read(DataInputStream in) throws IOException {
+			op = in.readByte();
+			if (op != Protocol.CONTAINS && op != Protocol.COMMON_PREFIX && op != Protocol.COMPLETE) {
+				throw new IOException("Unknown operation " + op);
+			}
+			Protocol.readKey(in, key);
+			if (op == Protocol.COMPLETE) {
+				limit = in.readInt();
+			}
+			int alphabetLength = trie.getAlphabetSize();
+			valid = true;
+			for (int i = 0; i < key.size(); i++) {
+				if (key.get(i) < 0 || key.get(i) >= alphabetLength) {
+					valid = false;
+				}
+			}
+		}
+	}
+}
@@ -111,6 +111,16 @@ public class IntegerArrayList implements IntegerList {
 		}
 	}
 
+	/**
+	 * Returns the number of values this list can hold before it
+	 * has to grow its storage.
+	 * 
+	 * @return The length of the storing array
+	 */
+	public int capacity() {
+		return data.length;
+	}
+
 	/**
 	 * @see org.digitalstain.datrie.store.IntegerList#size()
 	 */
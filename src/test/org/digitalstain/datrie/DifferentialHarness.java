@@ -0,0 +1,438 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerArrayListFactory;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A randomized differential test of trie implementations against a
+ * sorted set of keys. Run it with
+ * <pre>java org.digitalstain.datrie.DifferentialHarness [cases] [seed]</pre>
+ * or through run() from a unit test.
+ * <br>
+ * Every case is a random workload of inserts and lookups over a small
+ * alphabet, so that states collide and conflicts are resolved often. Keys
+ * end with a terminator, which keeps them prefix free; lookups are random
+ * strings and prefixes of inserted keys, so every SearchResult comes up.
+ * Each engine replays the workload and every answer is compared with the
+ * model. A failing workload is shrunk by removing operations for as long
+ * as it still fails, and the time every engine spends in the trie is
+ * kept, so that engines can be benchmarked on the same workloads they are
+ * checked on.
+ */
+public class DifferentialHarness {
+
+	/**
+	 * A trie implementation under test. Lookups go to view(), which for
+	 * read only tries builds them from the mutable one and is called again
+	 * only after an insert changed it.
+	 */
+	public abstract static class Engine {
+
+		private final String name;
+
+		protected Engine(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		protected abstract AbstractDoubleArrayTrie create(int alphabetLength);
+
+		protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+			return trie;
+		}
+	}
+
+	/**
+	 * An insert or a lookup of a key.
+	 */
+	public static class Operation {
+
+		final boolean insert;
+		final IntegerList key;
+
+		Operation(boolean insert, IntegerList key) {
+			this.insert = insert;
+			this.key = key;
+		}
+
+		@Override
+		public String toString() {
+			return (insert ? "add " : "find ") + key;
+		}
+	}
+
+	/**
+	 * A workload that an engine answered differently from the model,
+	 * shrunk as far as it still does.
+	 */
+	public static class Failure {
+
+		final String engine;
+		final long seed;
+		final int alphabetLength;
+		final List<Operation> operations;
+		final String message;
+
+		Failure(String engine, long seed, int alphabetLength, List<Operation> operations, String message) {
+			this.engine = engine;
+			this.seed = seed;
+			this.alphabetLength = alphabetLength;
+			this.operations = operations;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			return engine + " fails case " + seed + " over " + alphabetLength + " symbols: " + message
+					+ "\n  " + operations;
+		}
+	}
+
+	/**
+	 * The outcome of a run: the failures and the time of every engine.
+	 */
+	public static class Report {
+
+		final List<Failure> failures = new ArrayList<Failure>();
+		final List<Engine> engines;
+		final long[] nanos;
+		final long[] maxNanos;
+		int cases;
+		long operations;
+
+		Report(List<Engine> engines) {
+			this.engines = engines;
+			nanos = new long[engines.size()];
+			maxNanos = new long[engines.size()];
+		}
+
+		public List<Failure> getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("%d cases, %d operations, %d failures%n",
+					cases, operations, failures.size()));
+			for (int i = 0; i < engines.size(); i++) {
+				report.append(String.format("  %-16s %10.3f ms total %8.1f us/case %8.1f us max%n",
+						engines.get(i).getName(), nanos[i] / 1e6, nanos[i] / 1e3 / Math.max(cases, 1),
+						maxNanos[i] / 1e3));
+			}
+			for (Failure failure : failures) {
+				report.append(failure).append(String.format("%n"));
+			}
+			return report.toString();
+		}
+	}
+
+	/**
+	 * Returns an engine for every kind of trie in the tree.
+	 */
+	public static List<Engine> standardEngines() {
+		List<Engine> engines = new ArrayList<Engine>();
+		engines.add(new Engine("dynamic") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new DoubleArrayTrieImpl(alphabetLength);
+			}
+		});
+		engines.add(new Engine("best fit") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new DoubleArrayTrieImpl(alphabetLength, IntegerArrayListFactory.newInstance(),
+						new BestFitPolicy(16));
+			}
+		});
+		engines.add(new Engine("fan out") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new DoubleArrayTrieImpl(alphabetLength, IntegerArrayListFactory.newInstance(),
+						new FanOutPolicy());
+			}
+		});
+		engines.add(new Engine("counting") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new CountingTrie(alphabetLength);
+			}
+		});
+		engines.add(new Engine("caching") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new CachingTrie(alphabetLength, 2, 64);
+			}
+		});
+		engines.add(new Engine("instrumented") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new InstrumentedTrie(alphabetLength);
+			}
+		});
+		engines.add(new FrozenEngine("frozen") {
+			protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+				return FrozenDoubleArrayTrie.freeze(trie);
+			}
+		});
+		engines.add(new FrozenEngine("jump table") {
+			protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+				return FrozenDoubleArrayTrie.freeze(trie).withJumpTable();
+			}
+		});
+		engines.add(new FrozenEngine("breadth first") {
+			protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+				return TrieRelayout.breadthFirst(trie);
+			}
+		});
+		engines.add(new FrozenEngine("sorted build") {
+			protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+				SortedTrieBuilder builder = new SortedTrieBuilder(trie.getAlphabetSize());
+				KeyCursor cursor = new KeyCursor(trie);
+				for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+					builder.add(cursor.key());
+				}
+				return builder.build();
+			}
+		});
+		engines.add(new FrozenEngine("trie file") {
+			protected AbstractDoubleArrayTrie view(AbstractDoubleArrayTrie trie) {
+				try {
+					File file = File.createTempFile("harness", ".datf");
+					try {
+						TrieFile.write(file, trie, null, true, 16);
+						return TrieFile.read(file).getTrie();
+					}
+					finally {
+						file.delete();
+					}
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		return engines;
+	}
+
+	/**
+	 * An engine whose lookups go to a read only trie built from a
+	 * DoubleArrayTrieImpl.
+	 */
+	private abstract static class FrozenEngine extends Engine {
+
+		FrozenEngine(String name) {
+			super(name);
+		}
+
+		protected AbstractDoubleArrayTrie create(int alphabetLength) {
+			return new DoubleArrayTrieImpl(alphabetLength);
+		}
+	}
+
+	/**
+	 * Runs <tt>cases</tt> random workloads through every engine.
+	 *
+	 * @param engines The engines to check
+	 * @param cases The number of workloads
+	 * @param seed The seed of the first workload, the others following it
+	 * @return The failures, shrunk, and the timings
+	 */
+	public static Report run(List<Engine> engines, int cases, long seed) {
+		Report report = new Report(engines);
+		for (int c = 0; c < cases; c++) {
+			long caseSeed = seed + c;
+			Random rng = new Random(caseSeed);
+			int alphabetLength = 2 + rng.nextInt(7);
+			List<Operation> operations = generate(rng, alphabetLength);
+			report.cases++;
+			report.operations += operations.size();
+			for (int e = 0; e < engines.size(); e++) {
+				Engine engine = engines.get(e);
+				long[] elapsed = new long[1];
+				String message = replay(engine, alphabetLength, operations, elapsed);
+				report.nanos[e] += elapsed[0];
+				report.maxNanos[e] = Math.max(report.maxNanos[e], elapsed[0]);
+				if (message != null) {
+					List<Operation> shrunk = shrink(engine, alphabetLength, operations);
+					report.failures.add(new Failure(engine.getName(), caseSeed, alphabetLength, shrunk,
+							replay(engine, alphabetLength, shrunk, elapsed)));
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Generates a workload over an alphabet whose last symbol is the
+	 * terminator.
+	 */
+	private static List<Operation> generate(Random rng, int alphabetLength) {
+		int terminator = alphabetLength - 1;
+		int count = 1 + rng.nextInt(200);
+		List<Operation> operations = new ArrayList<Operation>(count);
+		List<IntegerList> inserted = new ArrayList<IntegerList>();
+		for (int i = 0; i < count; i++) {
+			if (rng.nextBoolean()) {
+				IntegerList key = randomString(rng, terminator, 6);
+				key.add(terminator);
+				inserted.add(key);
+				operations.add(new Operation(true, key));
+			} else if (!inserted.isEmpty() && rng.nextBoolean()) {
+				// A prefix of a key, the key itself or the key extended
+				IntegerList key = inserted.get(rng.nextInt(inserted.size()));
+				IntegerList query = new IntegerArrayList();
+				int length = rng.nextInt(key.size() + 2);
+				for (int j = 0; j < length; j++) {
+					query.add(j < key.size() ? key.get(j) : rng.nextInt(alphabetLength));
+				}
+				operations.add(new Operation(false, query));
+			} else {
+				operations.add(new Operation(false, randomString(rng, alphabetLength, 7)));
+			}
+		}
+		return operations;
+	}
+
+	private static IntegerList randomString(Random rng, int symbols, int maxLength) {
+		int length = rng.nextInt(maxLength + 1);
+		IntegerList result = new IntegerArrayList(length + 1);
+		for (int i = 0; i < length; i++) {
+			result.add(rng.nextInt(symbols));
+		}
+		return result;
+	}
+
+	/**
+	 * Replays <tt>operations</tt> on a fresh trie of <tt>engine</tt> and
+	 * on the model, adding the time spent in the trie to elapsed[0]. Only
+	 * the calls into the trie are timed, not the model or the comparisons.
+	 *
+	 * @return A description of the first difference, or null if none
+	 */
+	static String replay(Engine engine, int alphabetLength, List<Operation> operations, long[] elapsed) {
+		TreeSet<String> model = new TreeSet<String>();
+		AbstractDoubleArrayTrie trie = null;
+		AbstractDoubleArrayTrie view = null;
+		int i = 0;
+		long nanos = 0;
+		try {
+			long start = System.nanoTime();
+			trie = engine.create(alphabetLength);
+			nanos += System.nanoTime() - start;
+			for (; i < operations.size(); i++) {
+				Operation operation = operations.get(i);
+				String key = toString(operation.key);
+				if (operation.insert) {
+					boolean expected = model.add(key);
+					start = System.nanoTime();
+					boolean actual = trie.addToTrie(operation.key);
+					nanos += System.nanoTime() - start;
+					if (actual != expected) {
+						return "operation " + i + ", " + operation + ", returned " + actual;
+					}
+					if (actual) {
+						view = null;
+					}
+				} else {
+					SearchResult expected = lookup(model, key);
+					start = System.nanoTime();
+					if (view == null) {
+						view = engine.view(trie);
+					}
+					SearchResult actual = view.containsPrefix(operation.key);
+					nanos += System.nanoTime() - start;
+					if (actual != expected) {
+						return "operation " + i + ", " + operation + ", returned " + actual
+								+ " instead of " + expected;
+					}
+				}
+			}
+			return null;
+		}
+		catch (Throwable t) {
+			return "operation " + i + " threw " + t;
+		}
+		finally {
+			elapsed[0] += nanos;
+		}
+	}
+
+	/**
+	 * Answers a lookup from the model: the key itself, a proper prefix of
+	 * a key, or neither.
+	 */
+	private static SearchResult lookup(TreeSet<String> model, String query) {
+		if (query.length() == 0) {
+			return SearchResult.PURE_PREFIX;
+		}
+		String ceiling = model.ceiling(query);
+		if (ceiling == null || !ceiling.startsWith(query)) {
+			return SearchResult.NOT_FOUND;
+		}
+		return ceiling.length() == query.length() ? SearchResult.PERFECT_MATCH : SearchResult.PURE_PREFIX;
+	}
+
+	/**
+	 * Removes chunks of operations, halving the chunk size down to single
+	 * operations, for as long as the workload still fails.
+	 */
+	static List<Operation> shrink(Engine engine, int alphabetLength, List<Operation> operations) {
+		List<Operation> current = new ArrayList<Operation>(operations);
+		long[] elapsed = new long[1];
+		for (int chunk = Math.max(current.size() / 2, 1); chunk >= 1; chunk /= 2) {
+			boolean removed = true;
+			while (removed) {
+				removed = false;
+				for (int from = 0; from < current.size(); from += chunk) {
+					List<Operation> candidate = new ArrayList<Operation>(current.subList(0, from));
+					candidate.addAll(current.subList(Math.min(from + chunk, current.size()), current.size()));
+					if (!candidate.isEmpty() && replay(engine, alphabetLength, candidate, elapsed) != null) {
+						current = candidate;
+						removed = true;
+						break;
+					}
+				}
+			}
+		}
+		return current;
+	}
+
+	private static String toString(IntegerList key) {
+		StringBuilder result = new StringBuilder(key.size());
+		for (int i = 0; i < key.size(); i++) {
+			result.append((char) key.get(i));
+		}
+		return result.toString();
+	}
+
+	public static void main(String[] args) {
+		int cases = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+		System.out.println("seed " + seed);
+		System.out.print(run(standardEngines(), cases, seed));
+	}
+}
@@ -18,12 +18,36 @@
  */
 package org.digitalstain.datrie;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import junit.framework.TestCase;
 
+import org.digitalstain.datrie.io.LoadProgressListener;
+import org.digitalstain.datrie.io.LoadStatistics;
+import org.digitalstain.datrie.io.StreamingTrieLoader;
+import org.digitalstain.datrie.mapping.NaturalMapping;
+import org.digitalstain.datrie.server.TrieClient;
+import org.digitalstain.datrie.server.TrieServer;
 import org.digitalstain.datrie.store.IntegerArrayList;
 import org.digitalstain.datrie.store.IntegerList;
 
@@ -56,6 +80,14 @@ public class TestDoubleArrayTrie extends TestCase {
 			assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(list));
 		}
 
+		// All strings have the same length, so every one ends at a leaf and
+		// going on past it with any symbol is not found
+		for (IntegerList list : data) {
+			list.add(rng.nextInt(ALPHABET_SIZE));
+			assertEquals(SearchResult.NOT_FOUND, trie.containsPrefix(list));
+			list.remove(list.size() - 1);
+		}
+
 		for (IntegerList list : data) {
 			int removeSize = rng.nextInt(list.size()) + 1;
 			for (; removeSize > 0; removeSize--) {
@@ -63,10 +95,6 @@ public class TestDoubleArrayTrie extends TestCase {
 			}
 			assertEquals(SearchResult.PURE_PREFIX, trie.containsPrefix(list));
 		}
-
-		// TODO
-		// Insert a NOT_FOUND test here that is on the one hand random and
-		// on the other succeeds always regardless of the generated strings.
 	}
 
 	public void testMarginCases() {
@@ -96,6 +124,61 @@ public class TestDoubleArrayTrie extends TestCase {
 		assertEquals(SearchResult.NOT_FOUND, trie.containsPrefix(one));
 	}
 
+	public void testRelocation() {
+		// Relocating the children of b moves the leaf bc; its old cell must be freed
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(3);
+		String[] keys = { "bc", "bbac" };
+		for (String key : keys) {
+			trie.addToTrie(toList(key));
+		}
+		assertEquals(countOccupied(trie), countStates(trie, 0));
+		for (String key : keys) {
+			assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(toList(key)));
+		}
+
+		// The children of a moved state must never go to base 0 or below,
+		// which would send symbol 0 to the root cell
+		trie = new DoubleArrayTrieImpl(3);
+		keys = new String[] { "aaac", "bbbc", "abc", "bc" };
+		for (String key : keys) {
+			trie.addToTrie(toList(key));
+		}
+		assertEquals(countOccupied(trie), countStates(trie, 0));
+		for (String key : keys) {
+			assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(toList(key)));
+		}
+	}
+
+	/**
+	 * Counts the states reachable from <tt>state</tt>, checking that every
+	 * inner one has a positive base.
+	 */
+	private static int countStates(AbstractDoubleArrayTrie trie, int state) {
+		int base = trie.getBase(state);
+		if (base == AbstractDoubleArrayTrie.LEAF_BASE_VALUE) {
+			return 1;
+		}
+		assertTrue("Base " + base + " of state " + state, base > 0);
+		int count = 1;
+		for (int symbol = 0; symbol < trie.getAlphabetSize(); symbol++) {
+			int child = base + symbol;
+			if (child < trie.getSize() && trie.getCheck(child) == state) {
+				count += countStates(trie, child);
+			}
+		}
+		return count;
+	}
+
+	private static int countOccupied(AbstractDoubleArrayTrie trie) {
+		int count = 0;
+		for (int i = 0; i < trie.getSize(); i++) {
+			if (trie.getCheck(i) != AbstractDoubleArrayTrie.EMPTY_VALUE) {
+				count++;
+			}
+		}
+		return count;
+	}
+
 	public void testCountingTrie() {
 		CountingTrie trie = new CountingTrie(4);
 		IntegerList string1 = new IntegerArrayList();
@@ -121,4 +204,1421 @@ public class TestDoubleArrayTrie extends TestCase {
 		string3.add(2);
 		assertEquals(0, trie.getSearchCountFor(string3));
 	}
+
+	public void testAhoCorasick() {
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(26);
+		trie.addToTrie(toList("she"));
+		trie.addToTrie(toList("he"));
+		trie.addToTrie(toList("is"));
+		trie.addToTrie(toList("shis"));
+		final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(trie);
+		final int she = automaton.getPatternId(toList("she"));
+		final int he = automaton.getPatternId(toList("he"));
+		final int is = automaton.getPatternId(toList("is"));
+		final int shis = automaton.getPatternId(toList("shis"));
+		assertEquals(-1, automaton.getPatternId(toList("sh")));
+
+		final List<String> matches = new ArrayList<String>();
+		PatternMatchHandler handler = new PatternMatchHandler() {
+			public boolean match(int pattern, int end) {
+				String name = pattern == she ? "she" : pattern == he ? "he"
+						: pattern == is ? "is" : pattern == shis ? "shis" : "?";
+				matches.add(name + "@" + end);
+				return true;
+			}
+		};
+		automaton.scan(toList("ushers"), handler);
+		assertEquals("[she@3, he@3]", matches.toString());
+
+		// A match spanning two chunks
+		matches.clear();
+		IntegerList text = toList("xshis");
+		int state = automaton.scan(text, 0, 3, AhoCorasickAutomaton.ROOT_STATE, handler);
+		automaton.scan(text, 3, 5, state, handler);
+		assertEquals("[shis@4, is@4]", matches.toString());
+	}
+
+	public void testAhoCorasickWithTerminator() {
+		// he is a prefix of hers, which a trie only holds with a terminator
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		String[] patterns = { "he", "hers", "his", "she" };
+		for (String pattern : patterns) {
+			trie.addToTrie(toList(pattern + "{"));
+		}
+		AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(trie, 26);
+		final String[] names = new String[automaton.getPatternIdBound()];
+		for (String pattern : patterns) {
+			int id = automaton.getPatternId(toList(pattern));
+			assertTrue(id >= 0);
+			names[id] = pattern;
+		}
+		assertEquals(-1, automaton.getPatternId(toList("her")));
+		assertEquals(-1, automaton.getPatternId(toList("he{")));
+
+		final List<String> matches = new ArrayList<String>();
+		automaton.scan(toList("ahishers"), new PatternMatchHandler() {
+			public boolean match(int pattern, int end) {
+				matches.add(names[pattern] + "@" + end);
+				return true;
+			}
+		});
+		assertEquals("[his@3, she@5, he@5, hers@7]", matches.toString());
+
+		// Without the terminator the keys themselves are the patterns
+		matches.clear();
+		new AhoCorasickAutomaton(trie).scan(toList("ahishers"), new PatternMatchHandler() {
+			public boolean match(int pattern, int end) {
+				matches.add("@" + end);
+				return true;
+			}
+		});
+		assertTrue(matches.isEmpty());
+	}
+
+	public void testSuffixTrie() {
+		SuffixTrie suffixes = new SuffixTrie(26);
+		assertTrue(suffixes.addSuffix(toList("com")));
+		assertTrue(suffixes.addSuffix(toList("examplecom")));
+		assertFalse(suffixes.addSuffix(toList("examplecom")));
+
+		assertEquals(10, suffixes.longestSuffixMatch(toList("wwwexamplecom")));
+		assertEquals(3, suffixes.longestSuffixMatch(toList("othercom")));
+		assertEquals(-1, suffixes.longestSuffixMatch(toList("exampleorg")));
+		// Only the view "xcom" is considered
+		assertEquals(3, suffixes.longestSuffixMatch(toList("axcomyz"), 1, 4));
+		assertFalse(suffixes.endsWithAny(toList("co")));
+	}
+
+	public void testFuzzySearch() {
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		String[] words = { "cat", "cart", "cast", "dog", "scat", "at" };
+		for (String word : words) {
+			trie.addToTrie(toList(word + "{"));
+		}
+		final List<String> found = new ArrayList<String>();
+		FuzzyMatchHandler handler = new FuzzyMatchHandler() {
+			public boolean match(IntegerList key, int distance) {
+				StringBuilder word = new StringBuilder();
+				for (int i = 0; i < key.size() - 1; i++) {
+					word.append((char) ('a' + key.get(i)));
+				}
+				found.add(word + ":" + distance);
+				return true;
+			}
+		};
+		FuzzySearcher searcher = new FuzzySearcher(trie);
+		assertEquals(1, searcher.search(toList("cat{"), 0, handler));
+		assertEquals("[cat:0]", found.toString());
+
+		found.clear();
+		assertEquals(5, searcher.search(toList("cat{"), 1, handler));
+		assertEquals("[at:1, cart:1, cast:1, cat:0, scat:1]", found.toString());
+
+		// A shorter query on the same searcher after a longer one
+		found.clear();
+		assertEquals(1, searcher.search(toList("dg{"), 1, handler));
+		assertEquals("[dog:1]", found.toString());
+	}
+
+	public void testKeyPattern() {
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		String[] words = { "foobar", "foobaz", "fooxbar", "bar", "abcx", "cddx", "dabx" };
+		for (String word : words) {
+			trie.addToTrie(toList(word + "{"));
+		}
+		assertEquals("[foobar, fooxbar]", matching(trie, KeyPattern.compileGlob("foo*bar", LETTERS, 27)));
+		assertEquals("[abcx, cddx]", matching(trie, KeyPattern.compileGlob("[a-c]??x", LETTERS, 27)));
+		assertEquals("[dabx, foobar, foobaz, fooxbar]",
+				matching(trie, KeyPattern.compileGlob("[!a-c]*", LETTERS, 27)));
+		assertEquals("[bar, foobar, foobaz]",
+				matching(trie, KeyPattern.compileRegex("(foo)?ba(r|z)", LETTERS, 27)));
+		assertEquals("[]", matching(trie, KeyPattern.compileRegex("fo+x?", LETTERS, 27)));
+		assertTrue(KeyPattern.compileRegex("a.c+", LETTERS, 27).matches(toList("abccc")));
+	}
+
+	public void testKeyCursor() {
+		final int ALPHABET_SIZE = 5;
+		final int TERMINATOR = ALPHABET_SIZE;
+		Random rng = new Random();
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		TreeSet<IntegerList> model = new TreeSet<IntegerList>(new Comparator<IntegerList>() {
+			public int compare(IntegerList first, IntegerList second) {
+				return KeyCursor.compare(first, second);
+			}
+		});
+		for (int i = 0; i < 500; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 6);
+			key.add(TERMINATOR);
+			trie.addToTrie(key);
+			model.add(key);
+		}
+
+		KeyCursor cursor = new KeyCursor(trie);
+		List<IntegerList> forward = new ArrayList<IntegerList>();
+		for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+			forward.add(copy(cursor.key()));
+		}
+		assertEquals(new ArrayList<IntegerList>(model).toString(), forward.toString());
+		List<IntegerList> backward = new ArrayList<IntegerList>();
+		for (boolean valid = cursor.last(); valid; valid = cursor.previous()) {
+			backward.add(0, copy(cursor.key()));
+		}
+		assertEquals(forward.toString(), backward.toString());
+
+		for (int i = 0; i < 500; i++) {
+			IntegerList target = randomList(rng, ALPHABET_SIZE + 1, 7);
+			IntegerList ceiling = model.ceiling(target);
+			assertEquals(ceiling != null, cursor.ceiling(target));
+			if (ceiling != null) {
+				assertEquals(ceiling.toString(), cursor.key().toString());
+			}
+			IntegerList floor = model.floor(target);
+			assertEquals(floor != null, cursor.floor(target));
+			if (floor != null) {
+				assertEquals(floor.toString(), cursor.key().toString());
+			}
+		}
+
+		IntegerList from = randomList(rng, ALPHABET_SIZE, 3);
+		IntegerList to = randomList(rng, ALPHABET_SIZE, 3);
+		if (KeyCursor.compare(from, to) > 0) {
+			IntegerList swap = from;
+			from = to;
+			to = swap;
+		}
+		int inRange = 0;
+		for (boolean valid = cursor.range(from, to); valid; valid = cursor.next()) {
+			inRange++;
+		}
+		assertEquals(model.subSet(from, to).size(), inRange);
+	}
+
+	public void testFrozenKeyIds() {
+		final int ALPHABET_SIZE = 4;
+		final int TERMINATOR = ALPHABET_SIZE;
+		Random rng = new Random();
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		FrozenDoubleArrayTrie empty = FrozenDoubleArrayTrie.freeze(trie);
+		assertEquals(0, empty.getKeyCount());
+		assertNull(empty.idToKey(0));
+
+		TreeSet<IntegerList> model = new TreeSet<IntegerList>(new Comparator<IntegerList>() {
+			public int compare(IntegerList first, IntegerList second) {
+				return KeyCursor.compare(first, second);
+			}
+		});
+		for (int i = 0; i < 1000; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 7);
+			key.add(TERMINATOR);
+			trie.addToTrie(key);
+			model.add(key);
+		}
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+		assertEquals(model.size(), frozen.getKeyCount());
+		int id = 0;
+		for (IntegerList key : model) {
+			assertEquals(id, frozen.keyToId(key));
+			assertEquals(key.toString(), frozen.idToKey(id).toString());
+			assertEquals(SearchResult.PERFECT_MATCH, frozen.containsPrefix(key));
+			id++;
+		}
+		assertNull(frozen.idToKey(id));
+		assertEquals(-1, frozen.keyToId(toList("a")));
+		assertFalse(frozen.addToTrie(model.first()));
+		try {
+			IntegerList absent = new IntegerArrayList();
+			absent.add(TERMINATOR);
+			frozen.addToTrie(absent);
+			fail("A frozen trie must reject new keys");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+	}
+
+	public void testDawg() {
+		String[] stems = {"walk", "talk", "jump", "play", "form", "inform", "transform", "test"};
+		String[] endings = {"{", "s{", "ed{", "ing{", "ation{", "ations{"};
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		for (String stem : stems) {
+			for (String ending : endings) {
+				trie.addToTrie(toList(stem + ending));
+			}
+		}
+		DoubleArrayDawg dawg = DoubleArrayDawg.build(trie);
+		assertTrue(dawg.toString(), dawg.getSize() < dawg.getTrieStateCount());
+		// All stems share the nodes for the endings
+		assertTrue(dawg.toString(), dawg.getEdgeCount() * 3 < dawg.getTrieStateCount());
+
+		String[] probes = {"walking{", "transformations{", "walk", "walki", "tes", "tested{",
+				"walkingg{", "walk{s", "x", "", "informs{", "inform{{"};
+		for (String probe : probes) {
+			assertEquals(probe, trie.containsPrefix(toList(probe)), dawg.containsPrefix(toList(probe)));
+		}
+		Random rng = new Random();
+		for (int i = 0; i < 2000; i++) {
+			IntegerList probe = randomList(rng, 27, 8);
+			assertEquals(trie.containsPrefix(probe), dawg.containsPrefix(probe));
+		}
+
+		AbstractDoubleArrayTrie empty = new DoubleArrayTrieImpl(27);
+		assertEquals(SearchResult.NOT_FOUND, DoubleArrayDawg.build(empty).containsPrefix(toList("a")));
+	}
+
+	public void testRelayout() {
+		final int ALPHABET_SIZE = 8;
+		Random rng = new Random();
+		CountingTrie trie = new CountingTrie(ALPHABET_SIZE + 1);
+		List<IntegerList> keys = new ArrayList<IntegerList>();
+		for (int i = 0; i < 2000; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 10);
+			key.add(ALPHABET_SIZE);
+			trie.addToTrie(key);
+			keys.add(key);
+		}
+		for (int i = 0; i < 5000; i++) {
+			trie.containsPrefix(keys.get(rng.nextInt(100)));
+		}
+
+		FrozenDoubleArrayTrie breadthFirst = TrieRelayout.breadthFirst(trie);
+		FrozenDoubleArrayTrie byFrequency = TrieRelayout.byFrequency(trie);
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+		assertEquals(frozen.getKeyCount(), breadthFirst.getKeyCount());
+		assertEquals(frozen.getKeyCount(), byFrequency.getKeyCount());
+		for (IntegerList key : keys) {
+			assertEquals(SearchResult.PERFECT_MATCH, breadthFirst.containsPrefix(key));
+			assertEquals(SearchResult.PERFECT_MATCH, byFrequency.containsPrefix(key));
+			// Both keep the lexicographic order of the keys
+			assertEquals(frozen.keyToId(key), breadthFirst.keyToId(key));
+			assertEquals(frozen.keyToId(key), byFrequency.keyToId(key));
+		}
+		for (int i = 0; i < 2000; i++) {
+			IntegerList probe = randomList(rng, ALPHABET_SIZE + 1, 11);
+			SearchResult expected = frozen.containsPrefix(probe);
+			assertEquals(expected, breadthFirst.containsPrefix(probe));
+			assertEquals(expected, byFrequency.containsPrefix(probe));
+		}
+		assertTrue(TrieRelayout.meanTransitionDistance(breadthFirst)
+				< TrieRelayout.meanTransitionDistance(trie));
+	}
+
+	public void testCachingTrie() {
+		final int ALPHABET_SIZE = 6;
+		Random rng = new Random();
+		CachingTrie cached = new CachingTrie(ALPHABET_SIZE + 1, 2, 64);
+		AbstractDoubleArrayTrie plain = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		List<IntegerList> keys = new ArrayList<IntegerList>();
+		for (int round = 0; round < 20; round++) {
+			// Insertions relocate states under the cached ones
+			for (int i = 0; i < 50; i++) {
+				IntegerList key = randomList(rng, ALPHABET_SIZE, 8);
+				key.add(ALPHABET_SIZE);
+				assertEquals(plain.addToTrie(key), cached.addToTrie(key));
+				keys.add(key);
+			}
+			for (int i = 0; i < 500; i++) {
+				IntegerList probe = rng.nextBoolean() ? keys.get(rng.nextInt(keys.size()))
+						: randomList(rng, ALPHABET_SIZE + 1, 9);
+				assertEquals(plain.containsPrefix(probe), cached.containsPrefix(probe));
+			}
+		}
+		assertTrue(cached.toString(), cached.getResultHits() > 0);
+		assertTrue(cached.toString(), cached.getPrefixHits() > 0);
+		assertTrue(cached.toString(), cached.getEvictions() > 0);
+
+		// A cached miss must not survive the insertion of the key
+		IntegerList key = toList("ffffffffff");
+		key.add(ALPHABET_SIZE);
+		assertEquals(SearchResult.NOT_FOUND, cached.containsPrefix(key));
+		assertEquals(SearchResult.NOT_FOUND, cached.containsPrefix(key));
+		cached.addToTrie(key);
+		assertEquals(SearchResult.PERFECT_MATCH, cached.containsPrefix(key));
+
+		// Searches answered from the caches are reported like walks
+		CachingTrie words = new CachingTrie(27, 2, 64);
+		AbstractDoubleArrayTrie walked = new DoubleArrayTrieImpl(27);
+		final List<String> cachedSearches = new ArrayList<String>();
+		final List<String> walkedSearches = new ArrayList<String>();
+		words.addListener(new TrieListenerAdapter() {
+			@Override
+			public void searchFinished(IntegerList string, int depth, SearchResult result) {
+				cachedSearches.add(result + "@" + depth);
+			}
+		});
+		walked.addListener(new TrieListenerAdapter() {
+			@Override
+			public void searchFinished(IntegerList string, int depth, SearchResult result) {
+				walkedSearches.add(result + "@" + depth);
+			}
+		});
+		String[] probes = { "abc{", "abd{", "ab", "abx", "abcd", "b" };
+		words.addToTrie(toList("abc{"));
+		walked.addToTrie(toList("abc{"));
+		for (int round = 0; round < 2; round++) {
+			for (String probe : probes) {
+				words.containsPrefix(toList(probe));
+				walked.containsPrefix(toList(probe));
+			}
+		}
+		assertEquals(walkedSearches, cachedSearches);
+		assertEquals(2 * probes.length, cachedSearches.size());
+		assertEquals(probes.length, words.getResultHits());
+	}
+
+	public void testJumpTable() {
+		final int ALPHABET_SIZE = 40;
+		Random rng = new Random();
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		List<IntegerList> keys = new ArrayList<IntegerList>();
+		for (int i = 0; i < 3000; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 6);
+			key.add(ALPHABET_SIZE);
+			trie.addToTrie(key);
+			keys.add(key);
+		}
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+		FrozenDoubleArrayTrie jumping = TrieRelayout.breadthFirst(trie).withJumpTable();
+		assertFalse(frozen.hasJumpTable());
+		assertTrue(jumping.hasJumpTable());
+		assertSame(jumping, jumping.withJumpTable());
+		for (IntegerList key : keys) {
+			assertEquals(SearchResult.PERFECT_MATCH, jumping.containsPrefix(key));
+		}
+		for (int i = 0; i < 5000; i++) {
+			IntegerList probe = randomList(rng, ALPHABET_SIZE + 1, 4);
+			SearchResult expected = trie.containsPrefix(probe);
+			assertEquals(expected, frozen.containsPrefix(probe));
+			assertEquals(expected, jumping.containsPrefix(probe));
+		}
+		assertEquals(SearchResult.PURE_PREFIX, jumping.containsPrefix(new IntegerArrayList()));
+	}
+
+	public void testBatchLookup() {
+		final int ALPHABET_SIZE = 10;
+		Random rng = new Random();
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		List<IntegerList> probes = new ArrayList<IntegerList>();
+		for (int i = 0; i < 1000; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 12);
+			key.add(ALPHABET_SIZE);
+			trie.addToTrie(key);
+			probes.add(key);
+			probes.add(randomList(rng, ALPHABET_SIZE + 1, 13));
+		}
+		probes.add(new IntegerArrayList());
+		probes.add(0, new IntegerArrayList());
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+
+		int[] laneCounts = { 1, 3, 8, 16 };
+		for (int lanes : laneCounts) {
+			SearchResult[] results = new SearchResult[probes.size()];
+			int found = new BatchLookup(frozen, lanes).lookup(probes, results);
+			int expectedFound = 0;
+			for (int i = 0; i < probes.size(); i++) {
+				SearchResult expected = trie.containsPrefix(probes.get(i));
+				assertEquals(expected, results[i]);
+				if (expected == SearchResult.PERFECT_MATCH) {
+					expectedFound++;
+				}
+			}
+			assertEquals(expectedFound, found);
+		}
+	}
+
+	public void testInstrumentedTrie() throws Exception {
+		final int ALPHABET_SIZE = 4;
+		Random rng = new Random();
+		InstrumentedTrie trie = new InstrumentedTrie(ALPHABET_SIZE + 1);
+		for (int i = 0; i < 300; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 6);
+			key.add(ALPHABET_SIZE);
+			trie.addToTrie(key);
+		}
+		assertEquals(300, trie.getInserts());
+		assertTrue(trie.getConflictResolutions() > 0);
+		assertTrue(trie.getRelocatedChildren() >= trie.getConflictResolutions());
+		assertTrue(trie.getFreeScans() > 0);
+		assertTrue(trie.getGrowthEvents() > 0);
+		assertTrue(trie.getFillRatio() > 0 && trie.getFillRatio() <= 1);
+
+		trie.containsPrefix(toList("aaa"));
+		trie.containsPrefix(new IntegerArrayList());
+		assertEquals(2, trie.getLookups());
+		assertEquals(1, trie.getLookupDepthHistogram()[0]);
+
+		// A hit is counted at the depth of its last symbol
+		InstrumentedTrie words = new InstrumentedTrie(27);
+		words.addToTrie(toList("abc{"));
+		words.containsPrefix(toList("abc{"));
+		assertEquals(1, words.getLookupDepthHistogram()[4]);
+		assertEquals(0, words.getLookupDepthHistogram()[3]);
+		assertEquals(4.0, words.getMeanLookupDepth(), 0.0);
+
+		// Nothing is collected while disabled
+		trie.reset();
+		trie.setEnabled(false);
+		IntegerList key = toList("aaaaaaaa");
+		key.add(ALPHABET_SIZE);
+		trie.addToTrie(key);
+		trie.containsPrefix(key);
+		assertEquals(0, trie.getInserts());
+		assertEquals(0, trie.getLookups());
+		assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(key));
+		// Events are not even dispatched, until collection is back on
+		assertFalse(trie.hasListeners());
+		trie.setEnabled(true);
+		assertTrue(trie.hasListeners());
+		trie.containsPrefix(key);
+		assertEquals(1, trie.getLookups());
+		trie.setEnabled(false);
+
+		ObjectName name = TrieMetrics.register(trie, "test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals(Boolean.FALSE, server.getAttribute(name, "Enabled"));
+			assertEquals(trie.getCellCount(), server.getAttribute(name, "CellCount"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public void testListeners() {
+		final int ALPHABET_SIZE = 3;
+		Random rng = new Random();
+		final int[] moves = new int[2];
+		final int[] finished = new int[2];
+		TrieListener first = new TrieListenerAdapter() {
+			@Override
+			public void stateMoved(int stateIndex, int newBase) {
+				moves[0]++;
+			}
+
+			@Override
+			public void insertFinished(IntegerList string, boolean changed) {
+				finished[0]++;
+			}
+		};
+		TrieListener second = new TrieListenerAdapter() {
+			@Override
+			public void stateMoved(int stateIndex, int newBase) {
+				moves[1]++;
+			}
+
+			@Override
+			public void searchFinished(IntegerList string, int depth, SearchResult result) {
+				finished[1]++;
+			}
+		};
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET_SIZE + 1);
+		trie.addListener(first);
+		trie.addListener(second);
+		for (int i = 0; i < 100; i++) {
+			IntegerList key = randomList(rng, ALPHABET_SIZE, 6);
+			key.add(ALPHABET_SIZE);
+			trie.addToTrie(key);
+			trie.containsPrefix(key);
+		}
+		assertEquals(100, finished[0]);
+		assertEquals(100, finished[1]);
+		assertTrue(moves[0] > 0);
+		assertEquals(moves[0], moves[1]);
+
+		assertTrue(trie.removeListener(first));
+		assertFalse(trie.removeListener(first));
+		trie.containsPrefix(toList("a"));
+		trie.addToTrie(toList("aaaaaaa"));
+		assertEquals(100, finished[0]);
+		assertEquals(101, finished[1]);
+		assertTrue(trie.removeListener(second));
+
+		// Listeners also see the events of a frozen trie
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+		frozen.addListener(second);
+		frozen.containsPrefix(toList("a"));
+		assertEquals(102, finished[1]);
+
+		// The depth is the number of characters consumed, whatever the result
+		final List<String> searches = new ArrayList<String>();
+		AbstractDoubleArrayTrie words = new DoubleArrayTrieImpl(27);
+		words.addToTrie(toList("abc{"));
+		words.addListener(new TrieListenerAdapter() {
+			@Override
+			public void searchFinished(IntegerList string, int depth, SearchResult result) {
+				searches.add(result + "@" + depth);
+			}
+		});
+		words.containsPrefix(toList("abc{"));
+		words.containsPrefix(toList("ab"));
+		words.containsPrefix(toList("abx"));
+		assertEquals("[PERFECT_MATCH@4, PURE_PREFIX@2, NOT_FOUND@2]", searches.toString());
+	}
+
+	public void testTrieFootprint() throws Exception {
+		CountingTrie single = new CountingTrie(27);
+		single.addToTrie(toList("abc{"));
+		TrieFootprint footprint = TrieFootprint.analyze(single);
+		assertEquals(4, footprint.getStorage().size());
+		assertEquals(1, footprint.getKeyCount());
+		assertEquals(5, footprint.getStateCount());
+		// Everything below the root is one chain
+		assertEquals(1, footprint.getTailCount());
+		assertEquals(3, footprint.getTailStateCount());
+
+		// Interleaved up to the last state, the free cell after it left out
+		DoubleArrayTrieImpl trailing = new DoubleArrayTrieImpl(27);
+		trailing.addToTrie(toList("a{"));
+		trailing.addToTrie(toList("b{"));
+		int extent = trailing.getSize();
+		while (trailing.getCheck(extent - 1) == AbstractDoubleArrayTrie.EMPTY_VALUE) {
+			extent--;
+		}
+		assertTrue(extent < trailing.getSize());
+		assertEquals(8L * extent, TrieFootprint.analyze(trailing).getInterleavedBytes());
+
+		DoubleArrayTrieImpl trie = new DoubleArrayTrieImpl(27);
+		Random rng = new Random(7);
+		int keys = 0;
+		for (int i = 0; i < 2000; i++) {
+			IntegerList key = randomList(rng, 26, 8);
+			key.add(26);
+			if (trie.addToTrie(key)) {
+				keys++;
+			}
+		}
+		footprint = TrieFootprint.analyze(trie);
+		assertEquals(keys, footprint.getKeyCount());
+		assertEquals(footprint.getCellCount(), footprint.getStateCount() + footprint.getFreeCellCount());
+		assertTrue(footprint.getUsedBytes() <= footprint.getReservedBytes());
+		int states = 0;
+		for (int count : footprint.getStatesPerDepth()) {
+			states += count;
+		}
+		assertEquals(footprint.getStateCount(), states);
+		assertEquals(26.0, footprint.getBranchingFactors()[0], 0.0);
+		int runs = 0;
+		int[] histogram = footprint.getFreeRunHistogram();
+		for (int i = 0; i < histogram.length; i++) {
+			runs += histogram[i] << i;
+		}
+		assertTrue(runs <= footprint.getFreeCellCount());
+		assertTrue(footprint.getCompressedCellCount() <= footprint.getCellCount());
+		assertTrue(footprint.getTailCompressedBytes() < footprint.getCompressedBytes());
+
+		File file = File.createTempFile("footprint", ".dats");
+		try {
+			TrieSnapshot.capture(trie).writeTo(file);
+			TrieFootprint restored = TrieFootprint.analyze(TrieSnapshot.open(file));
+			assertEquals(footprint.getStateCount(), restored.getStateCount());
+			assertEquals(footprint.getTailStateCount(), restored.getTailStateCount());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	public void testShardedTrie() throws Exception {
+		Random rng = new Random(11);
+		List<IntegerList> keys = new ArrayList<IntegerList>();
+		DoubleArrayTrieImpl reference = new DoubleArrayTrieImpl(27);
+		for (int i = 0; i < 3000; i++) {
+			IntegerList key = randomList(rng, 26, 8);
+			key.add(26);
+			keys.add(key);
+			reference.addToTrie(key);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			ShardedTrie[] tries = { ShardedTrie.partitioned(27, 4), ShardedTrie.replicated(27, 3) };
+			for (ShardedTrie trie : tries) {
+				int changed = trie.addAll(keys.subList(0, 2000), executor);
+				for (IntegerList key : keys.subList(2000, keys.size())) {
+					if (trie.addToTrie(key)) {
+						changed++;
+					}
+				}
+				assertEquals(TrieFootprint.analyze(reference).getKeyCount(), changed);
+				IntegerList invalid = new IntegerArrayList();
+				invalid.add(27);
+				invalid.add(26);
+				try {
+					trie.addToTrie(invalid);
+					fail("Added a key starting outside the alphabet");
+				}
+				catch (IllegalArgumentException e) {
+					// Expected
+				}
+				try {
+					trie.addAll(Arrays.asList(keys.get(0), invalid), executor);
+					fail("Added a key starting outside the alphabet");
+				}
+				catch (IllegalArgumentException e) {
+					// Expected
+				}
+				for (int replica = 0; replica < trie.getShardCount(); replica++) {
+					if (trie.isReplicated()) {
+						trie.bindToReplica(replica);
+					}
+					for (int i = 0; i < 500; i++) {
+						IntegerList probe = i % 2 == 0 ? keys.get(rng.nextInt(keys.size()))
+								: randomList(rng, 27, 9);
+						assertEquals(reference.containsPrefix(probe), trie.containsPrefix(probe));
+					}
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testTrieServer() throws Exception {
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		trie.addToTrie(toList("a{"));
+		trie.addToTrie(toList("ab{"));
+		trie.addToTrie(toList("abc{"));
+		trie.addToTrie(toList("abd{"));
+		trie.addToTrie(toList("b{"));
+		IntegerList lengths = new IntegerArrayList();
+		assertEquals(3, trie.commonPrefixSearch(toList("abcx"), 26, lengths));
+		assertEquals(1, lengths.get(0));
+		assertEquals(3, lengths.get(2));
+
+		ExecutorService executor = TrieServer.newConnectionExecutor();
+		AbstractDoubleArrayTrie[] served = { trie, FrozenDoubleArrayTrie.freeze(trie) };
+		for (AbstractDoubleArrayTrie serving : served) {
+			TrieServer server = new TrieServer(serving, 26, executor);
+			TrieClient client = new TrieClient("localhost", server.start(0));
+			try {
+				// Pipelined, answered in order
+				client.sendContains(toList("ab{"));
+				client.sendContains(toList("ab"));
+				client.sendComplete(toList("ab"), 2);
+				client.sendContains(toList("x"));
+				client.sendCommonPrefixSearch(toList("abd"));
+				client.flush();
+				assertEquals(SearchResult.PERFECT_MATCH, client.readContains());
+				assertEquals(SearchResult.PURE_PREFIX, client.readContains());
+				List<IntegerList> completions = new ArrayList<IntegerList>();
+				assertEquals(2, client.readComplete(completions));
+				assertEquals(toList("abc{").toString(), completions.get(0).toString());
+				assertEquals(toList("abd{").toString(), completions.get(1).toString());
+				assertEquals(SearchResult.NOT_FOUND, client.readContains());
+				lengths = new IntegerArrayList();
+				assertEquals(3, client.readCommonPrefixSearch(lengths));
+				assertEquals(0, client.complete(toList("c"), 10, completions));
+
+				IntegerList invalid = new IntegerArrayList();
+				invalid.add(99);
+				try {
+					client.contains(invalid);
+					fail("Symbol out of the alphabet accepted");
+				}
+				catch (IOException e) {
+					// Expected, the connection stays usable
+				}
+				assertEquals(SearchResult.PERFECT_MATCH, client.contains(toList("b{")));
+			}
+			finally {
+				client.close();
+				server.close();
+			}
+		}
+
+		// Connections the executor rejects are closed, and the server
+		// goes on accepting
+		executor.shutdown();
+		TrieServer server = new TrieServer(trie, 26, executor);
+		int port = server.start(0);
+		try {
+			for (int i = 0; i < 2; i++) {
+				TrieClient client = new TrieClient("localhost", port);
+				try {
+					client.contains(toList("a{"));
+					fail("Answered without a task to serve the connection");
+				}
+				catch (IOException e) {
+					// Expected
+				}
+				finally {
+					client.close();
+				}
+			}
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	public void testTrieTokenizer() {
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(27);
+		trie.addToTrie(toList("a{"));
+		trie.addToTrie(toList("ab{"));
+		trie.addToTrie(toList("abc{"));
+		trie.addToTrie(toList("bc{"));
+		String text = "abcd abx bcab";
+		String expected = "[0-3, 5-7, 9-11, 11-13]";
+
+		final List<String> tokens = new ArrayList<String>();
+		TokenHandler all = new TokenHandler() {
+			public boolean token(long start, long end, int key) {
+				tokens.add(start + "-" + end);
+				return true;
+			}
+		};
+		TrieTokenizer tokenizer = new TrieTokenizer(trie, LETTERS, 26, all);
+		assertEquals(text.length(), tokenizer.feed(text, 0, text.length()));
+		assertTrue(tokenizer.finish());
+		assertEquals(expected, tokens.toString());
+
+		// One character at a time, the walk crossing every chunk boundary
+		tokens.clear();
+		for (int i = 0; i < text.length(); i++) {
+			tokenizer.feed(text, i, i + 1);
+			assertTrue(tokenizer.getPendingCount() <= 4);
+		}
+		assertTrue(tokenizer.finish());
+		assertEquals(expected, tokens.toString());
+
+		// A consumer that pauses after every token
+		tokens.clear();
+		TrieTokenizer paused = new TrieTokenizer(trie, LETTERS, 26, new TokenHandler() {
+			public boolean token(long start, long end, int key) {
+				tokens.add(start + "-" + end);
+				return false;
+			}
+		});
+		int at = 0;
+		while (at < text.length()) {
+			at += paused.feed(text, at, text.length());
+		}
+		while (!paused.finish()) {
+			// The consumer is ready again
+		}
+		assertEquals(expected, tokens.toString());
+
+		// Without a terminator every walk stops at the first key
+		AbstractDoubleArrayTrie plain = new DoubleArrayTrieImpl(26);
+		plain.addToTrie(toList("ab"));
+		plain.addToTrie(toList("cd"));
+		tokens.clear();
+		tokenizer = new TrieTokenizer(plain, LETTERS, -1, all);
+		tokenizer.feed(ByteBuffer.wrap("xabcacd".getBytes()));
+		assertTrue(tokenizer.finish());
+		assertEquals("[1-3, 5-7]", tokens.toString());
+	}
+
+	public void testTrieCursor() {
+		Random rng = new Random(5);
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(6);
+		for (int i = 0; i < 300; i++) {
+			IntegerList key = randomList(rng, 5, 6);
+			key.add(5);
+			trie.addToTrie(key);
+		}
+		TrieCursor cursor = new TrieCursor(trie);
+		for (int i = 0; i < 300; i++) {
+			// As typed: one step per symbol, compared with a full lookup
+			IntegerList typed = randomList(rng, 6, 7);
+			IntegerList prefix = new IntegerArrayList();
+			cursor.reset();
+			for (int j = 0; j < typed.size(); j++) {
+				prefix.add(typed.get(j));
+				boolean moved = cursor.step(typed.get(j));
+				SearchResult expected = trie.containsPrefix(prefix);
+				if (!moved) {
+					assertEquals(SearchResult.NOT_FOUND, expected);
+					break;
+				}
+				assertEquals(expected, cursor.result());
+				assertEquals(j + 1, cursor.depth());
+			}
+		}
+
+		trie = new DoubleArrayTrieImpl(27);
+		trie.addToTrie(toList("ab{"));
+		trie.addToTrie(toList("abc{"));
+		trie.addToTrie(toList("ad{"));
+		cursor = new TrieCursor(trie);
+		assertTrue(cursor.step(0));
+		assertEquals(1, cursor.nextSymbol(0));
+		assertEquals(3, cursor.nextSymbol(2));
+		assertEquals(-1, cursor.nextSymbol(4));
+		TrieCursor fork = cursor.fork();
+		assertTrue(fork.step(1));
+		assertTrue(fork.isTerminal(26));
+		assertFalse(cursor.isTerminal(26));
+		assertFalse(fork.isTerminal(-5));
+		assertFalse(fork.isTerminal(27));
+		assertTrue(fork.step(26));
+		assertTrue(fork.isTerminal());
+		assertFalse(fork.step(2));
+		assertTrue(fork.back());
+		assertTrue(fork.step(2));
+		assertTrue(fork.isTerminal(26));
+		cursor.copyFrom(fork);
+		assertEquals(3, cursor.depth());
+		assertTrue(cursor.back());
+		assertTrue(cursor.back());
+		assertTrue(cursor.back());
+		assertFalse(cursor.back());
+		assertEquals(0, cursor.state());
+	}
+
+	public void testSetOperations() {
+		Random rng = new Random(13);
+		TreeSet<String> firstKeys = new TreeSet<String>();
+		TreeSet<String> secondKeys = new TreeSet<String>();
+		DoubleArrayTrieImpl first = new DoubleArrayTrieImpl(27);
+		DoubleArrayTrieImpl second = new DoubleArrayTrieImpl(27);
+		for (int i = 0; i < 1500; i++) {
+			String word = randomWord(rng, 4, 6);
+			if (rng.nextInt(3) > 0) {
+				firstKeys.add(word);
+				first.addToTrie(toList(word + "{"));
+			}
+			if (rng.nextInt(3) > 0) {
+				secondKeys.add(word);
+				second.addToTrie(toList(word + "{"));
+			}
+		}
+
+		// Sorted input builds the same dictionary as inserting one by one
+		SortedTrieBuilder builder = new SortedTrieBuilder(27);
+		KeyCursor cursor = new KeyCursor(first);
+		for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+			builder.add(cursor.key());
+		}
+		FrozenDoubleArrayTrie built = builder.build();
+		assertEquals(firstKeys.size(), built.getKeyCount());
+		for (String word : firstKeys) {
+			assertEquals(SearchResult.PERFECT_MATCH, built.containsPrefix(toList(word + "{")));
+		}
+
+		TreeSet<String> union = new TreeSet<String>(firstKeys);
+		union.addAll(secondKeys);
+		TreeSet<String> intersection = new TreeSet<String>(firstKeys);
+		intersection.retainAll(secondKeys);
+		TreeSet<String> difference = new TreeSet<String>(firstKeys);
+		difference.removeAll(secondKeys);
+		assertKeys(union, TrieSetOperations.union(first, second));
+		assertKeys(intersection, TrieSetOperations.intersect(first, second));
+		assertKeys(difference, TrieSetOperations.subtract(first, second));
+		assertKeys(new TreeSet<String>(), TrieSetOperations.subtract(first, first));
+
+		builder = new SortedTrieBuilder(27);
+		builder.add(toList("b{"));
+		try {
+			builder.add(toList("a{"));
+			fail("Unsorted key accepted");
+		}
+		catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			builder.add(toList("b{a"));
+			fail("Extension of a key accepted");
+		}
+		catch (IllegalArgumentException e) {
+			// Expected
+		}
+		builder.add(toList("c{"));
+		assertEquals(2, builder.build().getKeyCount());
+	}
+
+	private static void assertKeys(TreeSet<String> expected, FrozenDoubleArrayTrie trie) {
+		assertEquals(expected.size(), trie.getKeyCount());
+		for (String word : expected) {
+			assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(toList(word + "{")));
+		}
+	}
+
+	private static String randomWord(Random rng, int letters, int maxLength) {
+		int length = rng.nextInt(maxLength) + 1;
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			word.append((char) ('a' + rng.nextInt(letters)));
+		}
+		return word.toString();
+	}
+
+	public void testTrieFile() throws Exception {
+		Random rng = new Random(17);
+		DoubleArrayTrieImpl trie = new DoubleArrayTrieImpl(27);
+		List<IntegerList> keys = new ArrayList<IntegerList>();
+		for (int i = 0; i < 2000; i++) {
+			IntegerList key = randomList(rng, 26, 8);
+			key.add(26);
+			trie.addToTrie(key);
+			keys.add(key);
+		}
+		FrozenDoubleArrayTrie frozen = FrozenDoubleArrayTrie.freeze(trie);
+		File file = File.createTempFile("trie", ".datf");
+		try {
+			boolean[] compress = { false, true };
+			for (boolean compressed : compress) {
+				TrieFile.write(file, trie, LETTERS, compressed, 1000);
+				TrieFile loaded = TrieFile.read(file);
+				FrozenDoubleArrayTrie read = loaded.getTrie();
+				assertEquals(frozen.getKeyCount(), read.getKeyCount());
+				for (IntegerList key : keys) {
+					assertEquals(SearchResult.PERFECT_MATCH, read.containsPrefix(key));
+					assertEquals(frozen.keyToId(key), read.keyToId(key));
+				}
+				assertEquals(2, loaded.getMapping().toNatural(Character.valueOf('c')));
+				assertEquals(27, loaded.getMapping().toNatural(Character.valueOf('!')));
+			}
+
+			// A damaged block is caught by its checksum
+			RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+			try {
+				damaged.seek(damaged.length() / 2);
+				int value = damaged.read();
+				damaged.seek(damaged.length() / 2);
+				damaged.write(value ^ 0x10);
+			}
+			finally {
+				damaged.close();
+			}
+			try {
+				TrieFile.read(file);
+				fail("Damaged file accepted");
+			}
+			catch (IOException e) {
+				// Expected
+			}
+
+			TrieFile.write(file, frozen, null, false);
+			assertNull(TrieFile.read(file).getMapping());
+			damaged = new RandomAccessFile(file, "rw");
+			try {
+				damaged.setLength(damaged.length() - 4);
+			}
+			finally {
+				damaged.close();
+			}
+			try {
+				TrieFile.read(file);
+				fail("Truncated file accepted");
+			}
+			catch (IOException e) {
+				// Expected
+			}
+
+			// Cells that are well formed one by one but not reachable from
+			// the root are caught although the checksums are right
+			int[][] checks = {
+					{ AbstractDoubleArrayTrie.ROOT_CHECK_VALUE, 0, 2, AbstractDoubleArrayTrie.EMPTY_VALUE },
+					{ AbstractDoubleArrayTrie.ROOT_CHECK_VALUE, 0, 3, AbstractDoubleArrayTrie.EMPTY_VALUE },
+					{ AbstractDoubleArrayTrie.ROOT_CHECK_VALUE, 0, 3, 2 } };
+			for (int[] check : checks) {
+				int[] base = { 1, AbstractDoubleArrayTrie.LEAF_BASE_VALUE, 2, 2 };
+				TrieFile.write(file, new FrozenDoubleArrayTrie(2, base, check, new int[4], 1), null, false);
+				try {
+					TrieFile.read(file);
+					fail("Unreachable cells accepted");
+				}
+				catch (IOException e) {
+					// Expected
+				}
+			}
+			// A header claiming more cells than the file holds is rejected
+			// before they are allocated, whatever the block size
+			int[][] headers = { { 1 << 30, 1000 }, { Integer.MAX_VALUE, 1 << 29 }, { 1 << 30, 1 << 30 } };
+			for (int[] header : headers) {
+				TrieFile.write(file, frozen, null, true, 1000);
+				rewriteHeader(file, header[0], header[1]);
+				try {
+					TrieFile.read(file);
+					fail("Header with " + header[0] + " cells accepted");
+				}
+				catch (IOException e) {
+					// Expected
+				}
+			}
+
+			int[] base = { 1, AbstractDoubleArrayTrie.LEAF_BASE_VALUE, 2, AbstractDoubleArrayTrie.LEAF_BASE_VALUE };
+			int[] check = { AbstractDoubleArrayTrie.ROOT_CHECK_VALUE, 0, 0, 2 };
+			TrieFile.write(file, new FrozenDoubleArrayTrie(2, base, check, new int[4], 2), null, false);
+			assertEquals(2, TrieFile.read(file).getTrie().getKeyCount());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Sets the cell count and block size in the header of a trie file
+	 * without a symbol table, with a matching checksum.
+	 */
+	private static void rewriteHeader(File file, int cellCount, int blockCells) throws IOException {
+		RandomAccessFile trieFile = new RandomAccessFile(file, "rw");
+		try {
+			byte[] header = new byte[32];
+			trieFile.readFully(header);
+			ByteBuffer fields = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+			fields.putInt(16, cellCount);
+			fields.putInt(24, blockCells);
+			CRC32 crc = new CRC32();
+			crc.update(header);
+			trieFile.seek(0);
+			trieFile.write(header);
+			trieFile.writeInt(Integer.reverseBytes((int) crc.getValue()));
+		}
+		finally {
+			trieFile.close();
+		}
+	}
+
+	public void testDifferential() {
+		List<DifferentialHarness.Engine> engines = DifferentialHarness.standardEngines();
+		DifferentialHarness.Report report = DifferentialHarness.run(engines, 60, 1234);
+		assertTrue(report.toString(), report.getFailures().isEmpty());
+
+		// A trie that loses every key of three symbols must be caught, and
+		// the workload shrunk to the insertion and the lookup
+		engines = new ArrayList<DifferentialHarness.Engine>();
+		engines.add(new DifferentialHarness.Engine("broken") {
+			protected AbstractDoubleArrayTrie create(int alphabetLength) {
+				return new DoubleArrayTrieImpl(alphabetLength) {
+					@Override
+					public SearchResult containsPrefix(IntegerList prefix) {
+						SearchResult result = super.containsPrefix(prefix);
+						return prefix.size() == 3 && result == SearchResult.PERFECT_MATCH
+								? SearchResult.NOT_FOUND : result;
+					}
+				};
+			}
+		});
+		report = DifferentialHarness.run(engines, 60, 1234);
+		assertFalse(report.getFailures().isEmpty());
+		for (DifferentialHarness.Failure failure : report.getFailures()) {
+			assertEquals(failure.toString(), 2, failure.operations.size());
+			assertTrue(failure.operations.get(0).insert);
+			assertEquals(3, failure.operations.get(1).key.size());
+		}
+	}
+
+	public void testBufferedTrie() throws Exception {
+		Random rng = new Random(17);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			BufferedTrie trie = new BufferedTrie(27, 50, executor);
+			TreeSet<String> keys = new TreeSet<String>();
+			for (int i = 0; i < 2000; i++) {
+				String word = randomWord(rng, 5, 6);
+				assertEquals(keys.add(word), trie.addToTrie(toList(word + "{")));
+				// Visible at once, whether buffered, being merged or merged
+				assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(toList(word + "{")));
+				assertEquals(SearchResult.PURE_PREFIX, trie.containsPrefix(toList(word)));
+			}
+			assertEquals(SearchResult.NOT_FOUND, trie.containsPrefix(toList("{")));
+			try {
+				trie.addToTrie(toList(keys.first()));
+				fail("Prefix of a stored key accepted");
+			}
+			catch (IllegalArgumentException e) {
+				// Expected
+			}
+			try {
+				trie.addToTrie(toList(keys.first() + "{a"));
+				fail("Extension of a stored key accepted");
+			}
+			catch (IllegalArgumentException e) {
+				// Expected
+			}
+
+			trie.flush();
+			assertEquals(0, trie.getBufferedCount());
+			assertTrue(trie.getMerges() > 0);
+			assertKeys(keys, trie.getTrie());
+
+			// A trie to start from, merging on the inserting thread
+			BufferedTrie grown = new BufferedTrie(trie.getTrie(), 10, null);
+			for (int i = 0; i < 95; i++) {
+				String word = randomWord(rng, 5, 7);
+				assertEquals(keys.add(word), grown.addToTrie(toList(word + "{")));
+			}
+			assertTrue(grown.getBufferedCount() < 10);
+			grown.flush();
+			assertKeys(keys, grown.getTrie());
+
+			// A merge the executor rejects fails the instance, but keeps the
+			// sealed key visible and does not hang flush()
+			ExecutorService stopped = Executors.newSingleThreadExecutor();
+			stopped.shutdown();
+			BufferedTrie rejected = new BufferedTrie(27, 1, stopped);
+			assertTrue(rejected.addToTrie(toList("ab{")));
+			assertEquals(SearchResult.PERFECT_MATCH, rejected.containsPrefix(toList("ab{")));
+			try {
+				rejected.flush();
+				fail("Rejected merge not reported");
+			}
+			catch (IllegalStateException e) {
+				// Expected
+			}
+			try {
+				rejected.addToTrie(toList("b{"));
+				fail("Key accepted after a rejected merge");
+			}
+			catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testPlacementPolicies() {
+		Random rng = new Random(19);
+		TreeSet<String> keys = new TreeSet<String>();
+		for (int i = 0; i < 3000; i++) {
+			keys.add(randomWord(rng, 26, 8));
+		}
+		PlacementPolicy[] policies = { new FirstFitPolicy(), new BestFitPolicy(), new FanOutPolicy() };
+		InstrumentedTrie[] tries = new InstrumentedTrie[policies.length];
+		for (int i = 0; i < policies.length; i++) {
+			tries[i] = new InstrumentedTrie(27, policies[i]);
+			assertSame(policies[i], tries[i].getPlacementPolicy());
+			for (String word : keys) {
+				assertTrue(tries[i].addToTrie(toList(word + "{")));
+			}
+			assertKeys(keys, FrozenDoubleArrayTrie.freeze(tries[i]));
+			assertTrue(tries[i].getFillRatio() > 0);
+		}
+
+		// First fit is the default, so it lays out the trie the same way
+		DoubleArrayTrieImpl plain = new DoubleArrayTrieImpl(27);
+		for (String word : keys) {
+			plain.addToTrie(toList(word + "{"));
+		}
+		assertEquals(plain.getSize(), tries[0].getSize());
+		for (int i = 0; i < plain.getSize(); i++) {
+			assertEquals(plain.getBase(i), tries[0].getBase(i));
+			assertEquals(plain.getCheck(i), tries[0].getCheck(i));
+		}
+
+		// Relocations at the root level show that its states branch
+		assertTrue(((FanOutPolicy) policies[2]).expectedFanOut(1) > 1);
+		assertEquals(0, ((FanOutPolicy) policies[2]).expectedFanOut(100));
+	}
+
+	public void testCheckpointRecovery() throws Exception {
+		File directory = File.createTempFile("checkpoint", "");
+		assertTrue(directory.delete());
+		try {
+			Random rng = new Random(23);
+			TreeSet<String> keys = new TreeSet<String>();
+			CheckpointedTrie trie = CheckpointedTrie.open(directory, new CountingTrie(27));
+			for (int i = 0; i < 300; i++) {
+				String word = randomWord(rng, 6, 6);
+				assertEquals(keys.add(word), trie.addToTrie(toList(word + "{")));
+			}
+			IntegerList searched = toList(keys.first() + "{");
+			for (int i = 0; i < 3; i++) {
+				assertEquals(SearchResult.PERFECT_MATCH, trie.containsPrefix(searched));
+			}
+			trie.checkpoint();
+			// The log tail, replayed on top of the snapshot
+			for (int i = 0; i < 100; i++) {
+				String word = randomWord(rng, 6, 7);
+				assertEquals(keys.add(word), trie.addToTrie(toList(word + "{")));
+			}
+			trie.close();
+
+			trie = CheckpointedTrie.open(directory, new CountingTrie(27));
+			assertKeys(keys, FrozenDoubleArrayTrie.freeze(trie.getTrie()));
+			// Reading the count is a search of its own
+			assertEquals(4, ((CountingTrie) trie.getTrie()).getSearchCountFor(searched));
+			trie.close();
+
+			File log = new File(directory, "log-1");
+			long length = log.length();
+			// A record cut short by a crash
+			appendToLog(log, 5, 1, 2);
+			assertRecovered(directory, keys, log, length);
+			// A length larger than the file
+			appendToLog(log, Integer.MAX_VALUE, 1);
+			assertRecovered(directory, keys, log, length);
+			// A symbol out of the alphabet, and the valid record after it
+			appendToLog(log, 2, 1, 500, 2, 1, 26);
+			assertRecovered(directory, keys, log, length);
+			// A proper prefix of stored keys
+			appendToLog(log, 1, keys.first().charAt(0) - 'a');
+			assertRecovered(directory, keys, log, length);
+
+			// Appending resumes after the truncated tail
+			trie = CheckpointedTrie.open(directory, new CountingTrie(27));
+			keys.add("zz");
+			assertTrue(trie.addToTrie(toList("zz{")));
+			trie.close();
+			trie = CheckpointedTrie.open(directory, new CountingTrie(27));
+			assertKeys(keys, FrozenDoubleArrayTrie.freeze(trie.getTrie()));
+			trie.close();
+
+			// A truncated snapshot is rejected before the trie is touched
+			File snapshot = new File(directory, "truncated.dats");
+			DoubleArrayTrieImpl[] captured = { new DoubleArrayTrieImpl(27), new CountingTrie(27) };
+			for (DoubleArrayTrieImpl source : captured) {
+				source.addToTrie(toList("ab{"));
+				TrieSnapshot.capture(source).writeTo(snapshot);
+				RandomAccessFile truncated = new RandomAccessFile(snapshot, "rw");
+				try {
+					truncated.setLength(truncated.length() - 4);
+				}
+				finally {
+					truncated.close();
+				}
+				DoubleArrayTrieImpl target = source instanceof CountingTrie ? new CountingTrie(27)
+						: new DoubleArrayTrieImpl(27);
+				try {
+					TrieSnapshot.restore(snapshot, target);
+					fail("Truncated snapshot accepted");
+				}
+				catch (IOException e) {
+					// Expected
+				}
+				assertEquals(1, target.getSize());
+			}
+		}
+		finally {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+
+	private static void appendToLog(File log, int... values) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(log, "rw");
+		try {
+			file.seek(file.length());
+			for (int value : values) {
+				file.writeInt(value);
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	private static void assertRecovered(File directory, TreeSet<String> keys, File log, long length)
+			throws IOException {
+		CheckpointedTrie trie = CheckpointedTrie.open(directory, new CountingTrie(27));
+		assertKeys(keys, FrozenDoubleArrayTrie.freeze(trie.getTrie()));
+		trie.close();
+		assertEquals(length, log.length());
+	}
+
+	public void testStreamingTrieLoader() throws Exception {
+		// With 16 byte buffers the first CRLF is split between two reads
+		// and the long keys span two or three of them
+		String input = "abcdefghijklmn{\r\n"
+				+ "ab{\rbc{\r\r"
+				+ "a1b{\n"
+				+ "\n\n"
+				+ "ba{\n"
+				+ "ab{\n"
+				+ "abcdefghijklmnopqrstuvwxy{\n"
+				+ "cab{";
+		byte[] bytes = input.getBytes("US-ASCII");
+		DoubleArrayTrieImpl trie = new DoubleArrayTrieImpl(27);
+		StreamingTrieLoader loader = new StreamingTrieLoader(trie, LETTERS, Charset.forName("US-ASCII"), 16);
+		final List<Long> reported = new ArrayList<Long>();
+		final int[] finished = new int[1];
+		loader.setProgressListener(new LoadProgressListener() {
+			public void progress(LoadStatistics statistics, boolean done) {
+				reported.add(Long.valueOf(statistics.getBytesRead()));
+				if (done) {
+					finished[0]++;
+				}
+			}
+		}, 32);
+		LoadStatistics statistics = loader.load(Channels.newChannel(new ByteArrayInputStream(bytes)),
+				bytes.length);
+
+		TreeSet<String> expected = new TreeSet<String>();
+		expected.add("abcdefghijklmn");
+		expected.add("ab");
+		expected.add("bc");
+		expected.add("ba");
+		expected.add("abcdefghijklmnopqrstuvwxy");
+		// The last line has no newline
+		expected.add("cab");
+		assertKeys(expected, FrozenDoubleArrayTrie.freeze(trie));
+		assertEquals(bytes.length, statistics.getBytesRead());
+		assertEquals(8, statistics.getKeysRead());
+		assertEquals(6, statistics.getKeysAdded());
+		// The line with a digit
+		assertEquals(1, statistics.getKeysRejected());
+		assertEquals(1.0, statistics.getProgress(), 0.0);
+
+		// A report every 32 bytes of input and a final one
+		assertEquals(1, finished[0]);
+		assertEquals(bytes.length / 32 + 1, reported.size());
+		for (int i = 1; i < reported.size(); i++) {
+			assertTrue(reported.get(i).longValue() >= reported.get(i - 1).longValue());
+		}
+		assertEquals(bytes.length, reported.get(reported.size() - 1).longValue());
+	}
+
+	private static IntegerList randomList(Random rng, int alphabetSize, int maxLength) {
+		int length = rng.nextInt(maxLength) + 1;
+		IntegerList result = new IntegerArrayList(length);
+		for (int i = 0; i < length; i++) {
+			result.add(rng.nextInt(alphabetSize));
+		}
+		return result;
+	}
+
+	private static IntegerList copy(IntegerList list) {
+		IntegerList result = new IntegerArrayList(list.size());
+		for (int i = 0; i < list.size(); i++) {
+			result.add(list.get(i));
+		}
+		return result;
+	}
+
+	private static String matching(AbstractDoubleArrayTrie trie, KeyPattern pattern) {
+		final List<String> found = new ArrayList<String>();
+		pattern.match(trie, 26, new KeyVisitor() {
+			public boolean visit(IntegerList key) {
+				StringBuilder word = new StringBuilder();
+				for (int i = 0; i < key.size() - 1; i++) {
+					word.append((char) ('a' + key.get(i)));
+				}
+				found.add(word.toString());
+				return true;
+			}
+		});
+		return found.toString();
+	}
+
+	private static final NaturalMapping<Character> LETTERS = new NaturalMapping<Character>() {
+		public int getN() {
+			return 25;
+		}
+
+		public Character fromNatural(int i) {
+			return Character.valueOf((char) ('a' + i));
+		}
+
+		public int toNatural(Character object) {
+			return object.charValue() - 'a';
+		}
+
+		public Character getUnmapped() {
+			return null;
+		}
+	};
+
+	private static IntegerList toList(String string) {
+		IntegerList result = new IntegerArrayList(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			result.add(string.charAt(i) - 'a');
+		}
+		return result;
+	}
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * A command line benchmark of lookups on the different trie layouts.
+ * Not a unit test, run it with
+ * <pre>java org.digitalstain.datrie.TrieBenchmark [keys] [alphabet] [lookups] [random keys]</pre>
+ * <br>
+ * Besides lookups per second, it reports the mean number of distinct
+ * 64 byte lines and 4 KiB pages a lookup touches in the base and check
+ * arrays, which stand in for cache and TLB misses where hardware counters
+ * are not available.
+ * <br>
+ * A second part looks up short random keys in a trie much larger than the
+ * caches, one at a time and through BatchLookup with different numbers of
+ * lanes. Then uniformly random keys, as in the stress test, are inserted
+ * into a ShardedTrie with growing numbers of shards, and one at a time
+ * into a DoubleArrayTrieImpl and a BufferedTrie, reporting the latency of
+ * single insertions. The last part
+ * builds both the skewed and the random keys with every placement policy
+ * and reports the relocations and the final density of the arrays.
+ */
+public class TrieBenchmark {
+
+	private static final int LINE_CELLS = 64 / 4;
+	private static final int PAGE_CELLS = 4096 / 4;
+
+	public static void main(String[] args) {
+		int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int alphabet = args.length > 1 ? Integer.parseInt(args[1]) : 26;
+		int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+		int randomKeys = args.length > 3 ? Integer.parseInt(args[3]) : 50000;
+		Random rng = new Random(42);
+
+		CountingTrie trie = new CountingTrie(alphabet + 1);
+		List<IntegerList> keys = new ArrayList<IntegerList>(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			int length = 3 + rng.nextInt(10);
+			IntegerList key = new IntegerArrayList(length + 1);
+			for (int j = 0; j < length; j++) {
+				// Skewed symbols, as in natural language
+				key.add((int) (alphabet * Math.pow(rng.nextDouble(), 2)));
+			}
+			key.add(alphabet);
+			trie.addToTrie(key);
+			keys.add(key);
+		}
+		// Zipf like queries: a few keys take most lookups
+		List<IntegerList> queries = new ArrayList<IntegerList>(lookups);
+		for (int i = 0; i < lookups; i++) {
+			queries.add(keys.get((int) (keyCount * Math.pow(rng.nextDouble(), 4))));
+		}
+		for (int i = 0; i < lookups / 10; i++) {
+			trie.containsPrefix(queries.get(i));
+		}
+
+		run("dynamic", trie, queries);
+		run("frozen", FrozenDoubleArrayTrie.freeze(trie), queries);
+		run("breadth first", TrieRelayout.breadthFirst(trie), queries);
+		run("by frequency", TrieRelayout.byFrequency(trie), queries);
+		if (alphabet + 1 <= FrozenDoubleArrayTrie.MAX_JUMP_TABLE_ALPHABET) {
+			run("jump table", TrieRelayout.byFrequency(trie).withJumpTable(), queries);
+		}
+
+		batches(1000000, 256, 8, lookups, rng);
+		sharding(randomKeys, 120, 40, rng);
+		ingestion(randomKeys, 120, 40, rng);
+		placement("skewed", keys, alphabet + 1);
+		placement("random", randomKeys(randomKeys, 120, 40, rng), 120);
+	}
+
+	private static List<IntegerList> randomKeys(int keyCount, int alphabet, int maxLength, Random rng) {
+		List<IntegerList> keys = new ArrayList<IntegerList>(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			IntegerList key = new IntegerArrayList(maxLength);
+			for (int j = 0; j < maxLength; j++) {
+				key.add(rng.nextInt(alphabet));
+			}
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static void placement(String name, List<IntegerList> keys, int alphabet) {
+		String[] names = { "first fit", "best fit", "fan out" };
+		for (int i = 0; i < names.length; i++) {
+			PlacementPolicy policy = i == 0 ? new FirstFitPolicy() : i == 1 ? new BestFitPolicy() : new FanOutPolicy();
+			InstrumentedTrie trie = new InstrumentedTrie(alphabet, policy);
+			long start = System.nanoTime();
+			for (int j = 0; j < keys.size(); j++) {
+				trie.addToTrie(keys.get(j));
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format("%-6s %-9s %10.0f inserts/s  %8d moves  %9d children moved  %9d cells  %5.1f%% full",
+					name, names[i], keys.size() * 1e9 / elapsed, trie.getConflictResolutions(),
+					trie.getRelocatedChildren(), trie.getCellCount(), 100 * trie.getFillRatio()));
+		}
+	}
+
+	private static void ingestion(int keyCount, int alphabet, int maxLength, Random rng) {
+		List<IntegerList> keys = new ArrayList<IntegerList>(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			IntegerList key = new IntegerArrayList(maxLength);
+			for (int j = 0; j < maxLength; j++) {
+				key.add(rng.nextInt(alphabet));
+			}
+			keys.add(key);
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (int round = 0; round < 2; round++) {
+				DoubleArrayTrieImpl trie = new DoubleArrayTrieImpl(alphabet);
+				long[] latencies = new long[keyCount];
+				long start = System.nanoTime();
+				for (int i = 0; i < keyCount; i++) {
+					long before = System.nanoTime();
+					trie.addToTrie(keys.get(i));
+					latencies[i] = System.nanoTime() - before;
+				}
+				latencies(round, "online", keyCount, System.nanoTime() - start, latencies, 0);
+
+				BufferedTrie buffered = new BufferedTrie(alphabet, Math.max(keyCount / 8, 1), executor);
+				start = System.nanoTime();
+				for (int i = 0; i < keyCount; i++) {
+					long before = System.nanoTime();
+					buffered.addToTrie(keys.get(i));
+					latencies[i] = System.nanoTime() - before;
+				}
+				long inserted = System.nanoTime() - start;
+				buffered.flush();
+				latencies(round, "buffered", keyCount, inserted, latencies, System.nanoTime() - start - inserted);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private static void latencies(int round, String name, int inserts, long elapsed, long[] latencies,
+			long flushNanos) {
+		// The first round only warms up
+		if (round > 0) {
+			Arrays.sort(latencies);
+			System.out.println(String.format("%-14s %10.0f inserts/s  p99 %6.1f us  max %8.1f us  flush %6.1f ms",
+					name, inserts * 1e9 / elapsed, latencies[(int) (latencies.length * 0.99)] / 1e3,
+					latencies[latencies.length - 1] / 1e3, flushNanos / 1e6));
+		}
+	}
+
+	private static void sharding(int keyCount, int alphabet, int maxLength, Random rng) {
+		List<IntegerList> keys = new ArrayList<IntegerList>(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			IntegerList key = new IntegerArrayList(maxLength);
+			for (int j = 0; j < maxLength; j++) {
+				key.add(rng.nextInt(alphabet));
+			}
+			keys.add(key);
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(processors);
+		try {
+			for (int round = 0; round < 2; round++) {
+				for (int shards = 1; shards <= 2 * processors; shards *= 2) {
+					ShardedTrie trie = ShardedTrie.partitioned(alphabet, shards);
+					long start = System.nanoTime();
+					int added = trie.addAll(keys, executor);
+					long elapsed = System.nanoTime() - start;
+					if (round > 0) {
+						System.out.println(String.format("%-14s %10.0f inserts/s  %d added",
+								"shards x" + shards, keyCount * 1e9 / elapsed, added));
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compares single lookups with BatchLookup on a trie whose arrays are
+	 * far larger than the caches, which is where the lockstep walk pays:
+	 * with short random keys nearly every step misses the cache, and the
+	 * lanes overlap those misses. On a trie that fits in the cache, as
+	 * that of the random keys of the other parts, the bookkeeping of the
+	 * lanes makes it no faster than single lookups.
+	 */
+	private static void batches(int keyCount, int alphabet, int length, int lookups, Random rng) {
+		List<IntegerList> keys = randomKeys(keyCount, alphabet, length, rng);
+		Collections.sort(keys, new Comparator<IntegerList>() {
+			public int compare(IntegerList first, IntegerList second) {
+				return KeyCursor.compare(first, second);
+			}
+		});
+		SortedTrieBuilder builder = new SortedTrieBuilder(alphabet);
+		IntegerList last = null;
+		for (IntegerList key : keys) {
+			if (last == null || KeyCursor.compare(last, key) != 0) {
+				builder.add(key);
+			}
+			last = key;
+		}
+		FrozenDoubleArrayTrie frozen = builder.build();
+		System.out.println(String.format("%d cells, %d MiB of base and check", frozen.base.length,
+				frozen.base.length * 8L >> 20));
+		List<IntegerList> queries = new ArrayList<IntegerList>(lookups);
+		for (int i = 0; i < lookups; i++) {
+			IntegerList key = keys.get(rng.nextInt(keys.size()));
+			if (i % 2 == 1) {
+				// Most likely a miss on the last symbol
+				IntegerList miss = new IntegerArrayList(length);
+				for (int j = 0; j < length - 1; j++) {
+					miss.add(key.get(j));
+				}
+				miss.add(rng.nextInt(alphabet));
+				key = miss;
+			}
+			queries.add(key);
+		}
+
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			int found = lookups(frozen, queries);
+			report("frozen", queries.size(), System.nanoTime() - start, found, round);
+			SearchResult[] results = new SearchResult[queries.size()];
+			int[] laneCounts = { 1, 4, 8, 16 };
+			for (int lanes : laneCounts) {
+				BatchLookup batch = new BatchLookup(frozen, lanes);
+				start = System.nanoTime();
+				found = batch.lookup(queries, results);
+				report("batch x" + lanes, queries.size(), System.nanoTime() - start, found, round);
+			}
+		}
+	}
+
+	private static void report(String name, int lookups, long elapsed, int found, int round) {
+		// The first round only warms up
+		if (round > 0) {
+			System.out.println(String.format("%-14s %10.0f lookups/s  %d found",
+					name, lookups * 1e9 / elapsed, found));
+		}
+	}
+
+	private static void run(String name, AbstractDoubleArrayTrie trie, List<IntegerList> queries) {
+		// Warm up, then measure
+		lookups(trie, queries);
+		long start = System.nanoTime();
+		int found = lookups(trie, queries);
+		long elapsed = System.nanoTime() - start;
+
+		long lines = 0;
+		long pages = 0;
+		int sampled = Math.min(queries.size(), 100000);
+		for (int i = 0; i < sampled; i++) {
+			lines += touched(trie, queries.get(i), LINE_CELLS);
+			pages += touched(trie, queries.get(i), PAGE_CELLS);
+		}
+		System.out.println(String.format("%-14s %10.0f lookups/s  %5.2f lines  %5.2f pages  %d cells  %d found",
+				name, queries.size() * 1e9 / elapsed, (double) lines / sampled,
+				(double) pages / sampled, trie.getSize(), found));
+	}
+
+	private static int lookups(AbstractDoubleArrayTrie trie, List<IntegerList> queries) {
+		int found = 0;
+		for (int i = 0; i < queries.size(); i++) {
+			if (trie.containsPrefix(queries.get(i)) == SearchResult.PERFECT_MATCH) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Counts the distinct blocks of <tt>blockCells</tt> cells that looking
+	 * up <tt>key</tt> reads, treating base and check as one interleaved
+	 * array.
+	 */
+	private static int touched(AbstractDoubleArrayTrie trie, IntegerList key, int blockCells) {
+		Set<Integer> blocks = new HashSet<Integer>();
+		int state = 0;
+		blocks.add(0);
+		for (int i = 0; i < key.size() && state >= 0; i++) {
+			state = trie.getChild(state, key.get(i));
+			if (state >= 0) {
+				blocks.add(state * 2 / blockCells);
+			}
+		}
+		return blocks.size();
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010 Christos Gioran
+ *
+ * This file is part of DoubleArrayTrie.
+ *
+ * DoubleArrayTrie is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoubleArrayTrie is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with DoubleArrayTrie.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.digitalstain.datrie.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.digitalstain.datrie.AbstractDoubleArrayTrie;
+import org.digitalstain.datrie.DoubleArrayTrieImpl;
+import org.digitalstain.datrie.FrozenDoubleArrayTrie;
+import org.digitalstain.datrie.SearchResult;
+import org.digitalstain.datrie.store.IntegerArrayList;
+import org.digitalstain.datrie.store.IntegerList;
+
+/**
+ * Drives a TrieServer over loopback and reports throughput and latency
+ * percentiles. Not a unit test, run it with
+ * <pre>java org.digitalstain.datrie.server.LoadGenerator [keys] [connections] [requests] [pipeline]</pre>
+ * <br>
+ * Every connection sends its requests in rounds of <tt>pipeline</tt>
+ * without waiting, then reads the responses; the latency of a request is
+ * the time from flushing its round to reading its response. Eight in ten
+ * requests are lookups, the rest common prefix searches and completions.
+ */
+public class LoadGenerator {
+
+	private static final int ALPHABET = 26;
+
+	public static void main(String[] args) throws Exception {
+		int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+		final int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+		Random rng = new Random(42);
+		AbstractDoubleArrayTrie trie = new DoubleArrayTrieImpl(ALPHABET + 1);
+		final List<IntegerList> keys = new ArrayList<IntegerList>(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			IntegerList key = randomWord(rng);
+			key.add(ALPHABET);
+			trie.addToTrie(key);
+			keys.add(key);
+		}
+		ExecutorService executor = TrieServer.newConnectionExecutor();
+		TrieServer server = new TrieServer(FrozenDoubleArrayTrie.freeze(trie), ALPHABET, executor);
+		final int port = server.start(0);
+
+		for (int round = 0; round < 2; round++) {
+			final long[][] latencies = new long[connections][];
+			Thread[] threads = new Thread[connections];
+			for (int c = 0; c < connections; c++) {
+				final int connection = c;
+				threads[c] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							latencies[connection] = drive(port, keys, requests, pipeline, new Random(connection));
+						}
+						catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+			}
+			long start = System.nanoTime();
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			long elapsed = System.nanoTime() - start;
+			// The first round only warms up
+			if (round > 0) {
+				report(latencies, elapsed);
+			}
+		}
+		server.close();
+		executor.shutdown();
+	}
+
+	private static long[] drive(int port, List<IntegerList> keys, int requests, int pipeline, Random rng)
+			throws Exception {
+		TrieClient client = new TrieClient("localhost", port);
+		long[] latencies = new long[requests];
+		byte[] ops = new byte[pipeline];
+		IntegerList lengths = new IntegerArrayList();
+		List<IntegerList> completions = new ArrayList<IntegerList>();
+		int done = 0;
+		try {
+			while (done < requests) {
+				int count = Math.min(pipeline, requests - done);
+				for (int i = 0; i < count; i++) {
+					int kind = rng.nextInt(10);
+					IntegerList key = keys.get(rng.nextInt(keys.size()));
+					if (kind < 8) {
+						ops[i] = Protocol.CONTAINS;
+						client.sendContains(kind < 4 ? key : randomWord(rng));
+					} else if (kind == 8) {
+						ops[i] = Protocol.COMMON_PREFIX;
+						client.sendCommonPrefixSearch(randomWord(rng));
+					} else {
+						ops[i] = Protocol.COMPLETE;
+						client.sendComplete(prefix(key, 3), 10);
+					}
+				}
+				long sent = System.nanoTime();
+				client.flush();
+				for (int i = 0; i < count; i++) {
+					if (ops[i] == Protocol.CONTAINS) {
+						client.readContains();
+					} else if (ops[i] == Protocol.COMMON_PREFIX) {
+						client.readCommonPrefixSearch(lengths);
+					} else {
+						client.readComplete(completions);
+					}
+					latencies[done++] = System.nanoTime() - sent;
+				}
+				completions.clear();
+				while (!lengths.isEmpty()) {
+					lengths.remove(lengths.size() - 1);
+				}
+			}
+		}
+		finally {
+			client.close();
+		}
+		return latencies;
+	}
+
+	private static void report(long[][] latencies, long elapsed) {
+		int total = 0;
+		for (long[] connection : latencies) {
+			total += connection == null ? 0 : connection.length;
+		}
+		long[] all = new long[total];
+		int at = 0;
+		for (long[] connection : latencies) {
+			if (connection != null) {
+				System.arraycopy(connection, 0, all, at, connection.length);
+				at += connection.length;
+			}
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("%d requests  %.0f requests/s  p50 %.1f us  p99 %.1f us  p99.9 %.1f us  max %.1f us",
+				total, total * 1e9 / elapsed, percentile(all, 0.5), percentile(all, 0.99),
+				percentile(all, 0.999), all.length == 0 ? 0 : all[all.length - 1] / 1e3));
+	}
+
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * fraction))] / 1e3;
+	}
+
+	private static IntegerList prefix(IntegerList key, int length) {
+		IntegerList result = new IntegerArrayList(length);
+		for (int i = 0; i < length && i < key.size(); i++) {
+			result.add(key.get(i));
+		}
+		return result;
+	}
+
+	private static IntegerList randomWord(Random rng) {
+		int length = 3 + rng.nextInt(8);
+		IntegerList word = new IntegerArrayList(length + 1);
+		for (int i = 0; i < length; i++) {
+			word.add(rng.nextInt(ALPHABET));
+		}
+		return word;
+	}
+}